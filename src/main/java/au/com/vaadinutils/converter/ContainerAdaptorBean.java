@@ -0,0 +1,87 @@
+package au.com.vaadinutils.converter;
+
+import java.util.Collection;
+import java.util.HashSet;
+
+import com.vaadin.data.Container.Filter;
+import com.vaadin.data.Item;
+import com.vaadin.data.Property;
+import com.vaadin.data.util.BeanItemContainer;
+
+import au.com.vaadinutils.crud.CrudEntity;
+
+/**
+ * Adapts a BeanItemContainer of entities (e.g. a LookupCache list). The
+ * container uses the entities themselves as item ids, so ids passed to this
+ * adaptor are matched by entity id.
+ */
+public class ContainerAdaptorBean<E extends CrudEntity> implements ContainerAdaptor<E>
+{
+
+	private BeanItemContainer<E> container;
+
+	public ContainerAdaptorBean(BeanItemContainer<E> container)
+	{
+		this.container = container;
+	}
+
+	@Override
+	public Item getItem(Object id)
+	{
+		E entity = getEntity(id);
+		return entity == null ? null : container.getItem(entity);
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public Property<Object> getProperty(E entity, Object propertyId)
+	{
+		return container.getContainerProperty(getEntity(entity.getId()), propertyId);
+	}
+
+	@Override
+	public E getEntity(Object id)
+	{
+		for (E entity : container.getItemIds())
+		{
+			if (entity.getId().equals(id) || entity.equals(id))
+			{
+				return entity;
+			}
+		}
+		return null;
+	}
+
+	@Override
+	public Collection<Object> getSortableContainerPropertyIds()
+	{
+		Collection<Object> ids = new HashSet<>();
+		ids.addAll(container.getSortableContainerPropertyIds());
+		return ids;
+	}
+
+	@Override
+	public void sort(String[] propertyId, boolean[] ascending)
+	{
+		container.sort(propertyId, ascending);
+	}
+
+	@Override
+	public void removeAllContainerFilters()
+	{
+		container.removeAllContainerFilters();
+	}
+
+	@Override
+	public void addContainerFilter(Filter filter)
+	{
+		container.addContainerFilter(filter);
+	}
+
+	@Override
+	public Class<E> getEntityClass()
+	{
+		return container.getBeanType();
+	}
+
+}
@@ -4,6 +4,7 @@ import org.vaadin.addons.lazyquerycontainer.EntityContainer;
 
 import com.vaadin.addon.jpacontainer.JPAContainer;
 import com.vaadin.data.Container;
+import com.vaadin.data.util.BeanItemContainer;
 
 import au.com.vaadinutils.crud.CrudEntity;
 
@@ -22,6 +23,11 @@ public class ContainerAdaptorFactory<T extends CrudEntity>
 	{
 	    return new ContainerAdaptorEntity<T>((EntityContainer<T>) container);
 	}
+
+	if (container instanceof BeanItemContainer)
+	{
+	    return new ContainerAdaptorBean<T>((BeanItemContainer<T>) container);
+	}
 	throw new RuntimeException("Unknown container type");
     }
 
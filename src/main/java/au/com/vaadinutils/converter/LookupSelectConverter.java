@@ -0,0 +1,73 @@
+package au.com.vaadinutils.converter;
+
+import java.util.Locale;
+
+import com.vaadin.data.util.BeanItemContainer;
+import com.vaadin.data.util.converter.Converter;
+import com.vaadin.ui.AbstractSelect;
+
+import au.com.vaadinutils.crud.CrudEntity;
+import au.com.vaadinutils.dao.EntityManagerProvider;
+
+/**
+ * Converts between the entity bound to a select and the shared, read only
+ * entity in a BeanItemContainer built from a LookupCache list.
+ *
+ * The shared entity is never handed to the model, the model gets the entity
+ * with the same id from the current EntityManager (which will normally come
+ * from the second level cache without a query).
+ */
+public class LookupSelectConverter<T extends CrudEntity> implements Converter<Object, T>
+{
+	private static final long serialVersionUID = 1L;
+
+	private final AbstractSelect select;
+	private final Class<T> type;
+
+	public LookupSelectConverter(AbstractSelect select, Class<T> type)
+	{
+		this.select = select;
+		this.type = type;
+	}
+
+	@SuppressWarnings("unchecked")
+	private ContainerAdaptor<T> getContainer()
+	{
+		return new ContainerAdaptorBean<T>((BeanItemContainer<T>) select.getContainerDataSource());
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public T convertToModel(Object value, Class<? extends T> targetType, Locale locale)
+			throws com.vaadin.data.util.converter.Converter.ConversionException
+	{
+		if (value == null || value == select.getNullSelectionItemId())
+		{
+			return null;
+		}
+		return EntityManagerProvider.getEntityManager().find(type, ((T) value).getId());
+	}
+
+	@Override
+	public Object convertToPresentation(T value, Class<? extends Object> targetType, Locale locale)
+			throws com.vaadin.data.util.converter.Converter.ConversionException
+	{
+		if (value == null)
+		{
+			return select.getNullSelectionItemId();
+		}
+		return getContainer().getEntity(value.getId());
+	}
+
+	@Override
+	public Class<T> getModelType()
+	{
+		return type;
+	}
+
+	@Override
+	public Class<Object> getPresentationType()
+	{
+		return Object.class;
+	}
+}
@@ -18,9 +18,11 @@ package au.com.vaadinutils.converter;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.Set;
 
 import javax.persistence.ManyToMany;
@@ -40,6 +42,7 @@ import com.vaadin.data.util.converter.Converter;
 import com.vaadin.ui.AbstractSelect;
 
 import au.com.vaadinutils.crud.CrudEntity;
+import au.com.vaadinutils.dao.JpaBaseDao;
 
 public class MultiSelectConverter<T extends CrudEntity> implements Converter<Collection<Object>, Collection<T>>
 {
@@ -137,6 +140,94 @@ public class MultiSelectConverter<T extends CrudEntity> implements Converter<Col
 			return modelValue;
 		}
 
+		final Map<Long, T> selected = findEntities(idset);
+		if (selected == null)
+		{
+			resolveItemByItem(idset, modelValue);
+		}
+		else
+		{
+			resolveInBulk(idset, selected, modelValue);
+		}
+
+		if (!isOwningSide())
+		{
+			// refresh the item as modifying back references may also have
+			// changed the collections, without this we'd get concurrent
+			// modification exception.
+
+			// FIXME: when verifying a field using this converter this following
+			// line causes a value change event on that field, which causes all
+			// kinds of shit which ultimately causes an exception causing the
+			// validation to fail with a validation error message.
+			// getPropertyDataSource().getItem().refresh();
+		}
+		return modelValue;
+	}
+
+	/**
+	 * loads all of the selected entities with one query (per
+	 * JpaBaseDao.MAX_IN_LIST_SIZE ids) rather than one per id.
+	 *
+	 * @return the entities keyed by id, or null if the container doesn't
+	 *         support bulk loading
+	 */
+	private Map<Long, T> findEntities(Collection<Object> idset)
+	{
+		final Class<T> entityClass = getContainer().getEntityClass();
+		if (entityClass == null)
+		{
+			return null;
+		}
+		final List<Long> ids = new ArrayList<>(idset.size());
+		for (Object id : idset)
+		{
+			if (!(id instanceof Long))
+			{
+				return null;
+			}
+			ids.add((Long) id);
+		}
+
+		final Map<Long, T> entities = new HashMap<>();
+		for (T entity : JpaBaseDao.getGenericDao(entityClass).findByIds(ids))
+		{
+			entities.put(entity.getId(), entity);
+		}
+		return entities;
+	}
+
+	private void resolveInBulk(Collection<Object> idset, Map<Long, T> selected, Collection<T> modelValue)
+	{
+		final Map<Long, T> orphaned = new HashMap<>();
+		for (T entity : modelValue)
+		{
+			orphaned.put(entity.getId(), entity);
+		}
+
+		final List<T> added = new ArrayList<>();
+		for (Object id : idset)
+		{
+			final T entity = selected.get(id);
+			if (entity == null)
+			{
+				logger.error("couldn't find id {} in database for type {} entityClass {}", id, type,
+						getContainer().getEntityClass());
+			}
+			else if (orphaned.remove(id) == null)
+			{
+				added.add(entity);
+			}
+		}
+
+		modelValue.removeAll(orphaned.values());
+		modelValue.addAll(added);
+		updateBackReferences(added, orphaned.values());
+	}
+
+	@SuppressWarnings("unchecked")
+	private void resolveItemByItem(Collection<Object> idset, Collection<T> modelValue)
+	{
 		HashSet<T> orphaned = new HashSet<T>(modelValue);
 
 		// Add those that did not exist do not exist already + remove them from
@@ -167,20 +258,66 @@ public class MultiSelectConverter<T extends CrudEntity> implements Converter<Col
 			modelValue.remove(entity);
 			removeBackReference(entity);
 		}
+	}
 
-		if (!isOwningSide())
+	/**
+	 * sets the back references directly on managed entities rather than
+	 * looking each one up in the container, the changes are written by the
+	 * next flush. The added entities were loaded by findEntities(), the
+	 * removed ones come from the model value so are detached copies and are
+	 * loaded again in one query.
+	 */
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	private void updateBackReferences(Collection<T> added, Collection<T> removed)
+	{
+		if ((added.isEmpty() && removed.isEmpty()) || isOwningSide())
 		{
-			// refresh the item as modifying back references may also have
-			// changed the collections, without this we'd get concurrent
-			// modification exception.
+			return;
+		}
+		final EntityClassMetadata<T> metadata = MetadataFactory.getInstance()
+				.getEntityClassMetadata(getContainer().getEntityClass());
+		final Object owner = getPropertyDataSource().getItem().getEntity();
 
-			// FIXME: when verifying a field using this converter this following
-			// line causes a value change event on that field, which causes all
-			// kinds of shit which ultimately causes an exception causing the
-			// validation to fail with a validation error message.
-			// getPropertyDataSource().getItem().refresh();
+		for (T entity : added)
+		{
+			final Object property = metadata.getPropertyValue(entity, mappedBy);
+			if (property instanceof Collection)
+			{
+				// many to many
+				((Collection) property).add(owner);
+			}
+			else
+			{
+				// one to many
+				metadata.setPropertyValue(entity, mappedBy, owner);
+			}
 		}
-		return modelValue;
+		for (T entity : findManaged(removed))
+		{
+			final Object property = metadata.getPropertyValue(entity, mappedBy);
+			if (property instanceof Collection)
+			{
+				((Collection) property).remove(owner);
+			}
+			else
+			{
+				metadata.setPropertyValue(entity, mappedBy, null);
+			}
+		}
+	}
+
+	private Collection<T> findManaged(Collection<T> entities)
+	{
+		if (entities.isEmpty())
+		{
+			return entities;
+		}
+		final List<Long> ids = new ArrayList<>(entities.size());
+		for (T entity : entities)
+		{
+			ids.add(entity.getId());
+		}
+		return JpaBaseDao.getGenericDao(getContainer().getEntityClass()).findByIds(ids);
 	}
 
 	@SuppressWarnings("rawtypes")
@@ -3,12 +3,9 @@ package au.com.vaadinutils.crud;
 import java.lang.annotation.Annotation;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.Map;
-import java.util.Map.Entry;
 import java.util.Set;
 import java.util.concurrent.CopyOnWriteArraySet;
 import java.util.concurrent.ExecutionException;
@@ -26,7 +23,6 @@ import org.apache.logging.log4j.Logger;
 import org.vaadin.dialogs.ConfirmDialog;
 
 import com.google.common.base.Preconditions;
-import com.google.common.base.Stopwatch;
 import com.vaadin.addon.jpacontainer.EntityItem;
 import com.vaadin.addon.jpacontainer.EntityItemProperty;
 import com.vaadin.addon.jpacontainer.JPAContainer;
@@ -77,6 +73,7 @@ import com.vaadin.ui.themes.ValoTheme;
 import au.com.vaadinutils.crud.events.CrudEventDistributer;
 import au.com.vaadinutils.crud.events.CrudEventType;
 import au.com.vaadinutils.crud.security.SecurityManagerFactoryProxy;
+import au.com.vaadinutils.dao.BatchWriting;
 import au.com.vaadinutils.dao.EntityManagerProvider;
 import au.com.vaadinutils.dao.EntityManagerRunnable;
 import au.com.vaadinutils.dao.RunnableUI;
@@ -129,6 +126,7 @@ public abstract class BaseCrudView<E extends CrudEntity> extends VerticalLayout
 	protected AbstractLayout advancedSearchLayout;
 	private VerticalLayout searchLayout;
 	protected Set<ChildCrudListener<E>> childCrudListeners = new HashSet<>();
+	private final ChildCrudLoader<E> childCrudLoader = new ChildCrudLoader<>();
 	private CrudDisplayMode displayMode = CrudDisplayMode.HORIZONTAL;
 	private boolean disallowEditing = false;
 	private boolean disallowNew = false;
@@ -673,7 +671,7 @@ public abstract class BaseCrudView<E extends CrudEntity> extends VerticalLayout
 			@Override
 			public void exec(BaseCrudView<E> crud, EntityItem<E> entity)
 			{
-				new ContainerCSVExport<E>(getTitleText(), (Table) entityTable, headings);
+				new ContainerCSVExport<E>(getTitleText(), (Table) entityTable, headings, CSVExportMode.BACKGROUND);
 			}
 
 			@Override
@@ -1420,16 +1418,25 @@ public abstract class BaseCrudView<E extends CrudEntity> extends VerticalLayout
 			}
 
 			newEntity = EntityManagerProvider.getEntityManager().merge(newEntity);
-			for (ChildCrudListener<E> commitListener : childCrudListeners)
+			// when BatchWriting is enabled the children's writes are sent as
+			// one JDBC batch per table by the flush
+			try (BatchWriting.Scope batch = BatchWriting.begin())
 			{
-				// only commit dirty children, saves time for a crud with lots
-				// of children
-				if (commitListener.isDirty())
+				for (ChildCrudListener<E> commitListener : childCrudListeners)
 				{
-					commitListener.committed(newEntity);
+					// only commit dirty children, saves time for a crud with
+					// lots of children
+					if (commitListener.isDirty())
+					{
+						commitListener.committed(newEntity);
+					}
+				}
+				EntityManagerProvider.getEntityManager().flush();
+				if (batch.getStatistics() != null && batch.getStatistics().getTotal() > 0)
+				{
+					logger.info("Saved children of {}, {}", entityClass.getSimpleName(), batch.getStatistics());
 				}
 			}
-			EntityManagerProvider.getEntityManager().flush();
 
 			// children may have been added to the parent, evict the parent from
 			// the JPA cache so it will get updated
@@ -1885,16 +1892,8 @@ public abstract class BaseCrudView<E extends CrudEntity> extends VerticalLayout
 		splitPanel.showSecondComponent();
 		fieldGroup.setItemDataSource(item);
 
-		Map<String, Long> times = new HashMap<>();
 		// notifiy ChildCrudView's that we've changed row.
-		for (ChildCrudListener<E> commitListener : childCrudListeners)
-		{
-			Stopwatch timer = Stopwatch.createUnstarted();
-			timer.start();
-			commitListener.selectedParentRowChanged(item);
-			times.put(commitListener.getClass().getSimpleName() + ":" + commitListener.hashCode(),
-					timer.elapsed(TimeUnit.MILLISECONDS));
-		}
+		childCrudLoader.parentRowChanged(childCrudListeners, item);
 
 		if (item != null || newEntity != null)
 		{
@@ -1914,11 +1913,6 @@ public abstract class BaseCrudView<E extends CrudEntity> extends VerticalLayout
 		{
 			notifyRowChangedListeners(item.getEntity());
 		}
-		for (Entry<String, Long> time : times.entrySet())
-		{
-			logger.debug("{}: {}ms", time.getKey(), time.getValue());
-		}
-
 		if (allowCurrentRowEdit(item))
 		{
 			if (this.getButtonLayout() != null)
@@ -2115,6 +2109,29 @@ public abstract class BaseCrudView<E extends CrudEntity> extends VerticalLayout
 		childCrudListeners.add(listener);
 	}
 
+	/**
+	 * When true, children on an unselected tab aren't loaded until their tab
+	 * is shown. Dirty children are always loaded straight away.
+	 *
+	 * @param lazyChildLoading
+	 */
+	public void setLazyChildLoading(boolean lazyChildLoading)
+	{
+		childCrudLoader.setLazy(lazyChildLoading);
+	}
+
+	/**
+	 * When true and more than one ChildCrudView is showing, their rows are
+	 * queried at the same time in the background and each child is filled in
+	 * as its query completes. Push or polling must be enabled on the UI.
+	 *
+	 * @param parallelChildLoading
+	 */
+	public void setParallelChildLoading(boolean parallelChildLoading)
+	{
+		childCrudLoader.setParallel(parallelChildLoading);
+	}
+
 	public void newClicked()
 	{
 		/*
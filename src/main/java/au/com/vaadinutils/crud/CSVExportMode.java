@@ -0,0 +1,29 @@
+package au.com.vaadinutils.crud;
+
+/**
+ * Controls how ContainerCSVExport and GridContainerCSVExport produce the csv
+ * file.
+ */
+public enum CSVExportMode
+{
+	/**
+	 * the whole file is built in memory when the user clicks the download
+	 * button, limited to 100,000 rows.
+	 */
+	IN_MEMORY,
+
+	/**
+	 * the rows are read from the container in chunks and written directly to
+	 * the download as they are generated, so memory use doesn't grow with the
+	 * number of rows and there is no limit on the number of rows exported.
+	 */
+	STREAMING,
+
+	/**
+	 * the file is written to a temp file by the ExportJobService while a
+	 * progress dialog is displayed, the user is then offered a download link.
+	 * Use this for exports that take long enough that the download would time
+	 * out.
+	 */
+	BACKGROUND
+}
@@ -0,0 +1,96 @@
+package au.com.vaadinutils.crud;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Records how long each type of child crud takes to load its rows when its
+ * parent crud changes row, so slow children can be found without turning on
+ * debug logging.
+ */
+public class ChildCrudLoadMetrics
+{
+	private static final ConcurrentMap<String, Timing> timings = new ConcurrentHashMap<>();
+
+	private ChildCrudLoadMetrics()
+	{
+	}
+
+	static void record(final Class<?> childCrudClass, final long millis)
+	{
+		final String name = childCrudClass.getName();
+		Timing timing = timings.get(name);
+		if (timing == null)
+		{
+			final Timing newTiming = new Timing();
+			timing = timings.putIfAbsent(name, newTiming);
+			if (timing == null)
+			{
+				timing = newTiming;
+			}
+		}
+		timing.record(millis);
+	}
+
+	/**
+	 * @return the timings keyed by child crud class name
+	 */
+	public static Map<String, Timing> getTimings()
+	{
+		return Collections.unmodifiableMap(new TreeMap<>(timings));
+	}
+
+	public static void reset()
+	{
+		timings.clear();
+	}
+
+	public static class Timing
+	{
+		private final AtomicLong count = new AtomicLong();
+		private final AtomicLong totalMillis = new AtomicLong();
+		private final AtomicLong maxMillis = new AtomicLong();
+
+		private void record(final long millis)
+		{
+			count.incrementAndGet();
+			totalMillis.addAndGet(millis);
+			long max = maxMillis.get();
+			while (millis > max && !maxMillis.compareAndSet(max, millis))
+			{
+				max = maxMillis.get();
+			}
+		}
+
+		public long getCount()
+		{
+			return count.get();
+		}
+
+		public long getTotalMillis()
+		{
+			return totalMillis.get();
+		}
+
+		public long getMaxMillis()
+		{
+			return maxMillis.get();
+		}
+
+		public long getMeanMillis()
+		{
+			final long n = count.get();
+			return n == 0 ? 0 : totalMillis.get() / n;
+		}
+
+		@Override
+		public String toString()
+		{
+			return "count: " + getCount() + " mean: " + getMeanMillis() + "ms max: " + getMaxMillis() + "ms";
+		}
+	}
+}
@@ -0,0 +1,288 @@
+package au.com.vaadinutils.crud;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.google.common.base.Stopwatch;
+import com.vaadin.addon.jpacontainer.EntityItem;
+import com.vaadin.ui.Component;
+import com.vaadin.ui.TabSheet;
+import com.vaadin.ui.TabSheet.SelectedTabChangeEvent;
+import com.vaadin.ui.TabSheet.SelectedTabChangeListener;
+import com.vaadin.ui.UI;
+import com.vaadin.ui.UIDetachedException;
+
+import au.com.vaadinutils.dao.BackgroundExecutor;
+
+/**
+ * Tells a crud's children that the parent row has changed.
+ *
+ * When lazy loading is on, children that are hidden on an unselected tab
+ * aren't loaded until their tab is shown.
+ *
+ * When parallel loading is on, the visible ChildCrudViews run their queries
+ * at the same time on the BackgroundExecutor, each with its own
+ * EntityManager, and their rows are handed to their containers on the UI
+ * thread via UI.access() as each query completes. Push or polling must be
+ * enabled for the rows to appear before the next round trip. A child is
+ * disabled while its rows are loading, and rows for a parent row that has
+ * since changed again are discarded.
+ *
+ * The time each child takes to load is recorded in ChildCrudLoadMetrics.
+ */
+class ChildCrudLoader<E extends CrudEntity> implements Serializable
+{
+	private static final long serialVersionUID = 1L;
+
+	private static transient Logger logger = LogManager.getLogger(ChildCrudLoader.class);
+
+	private boolean lazy = false;
+	private boolean parallel = false;
+
+	/**
+	 * children on hidden tabs, with the parent row they need to load
+	 */
+	private final Map<ChildCrudListener<E>, EntityItem<E>> pending = new HashMap<>();
+	private final Set<TabSheet> watchedTabSheets = new HashSet<>();
+
+	/**
+	 * children whose rows are being prefetched
+	 */
+	private final Map<ChildCrudListener<E>, Prefetch> prefetching = new HashMap<>();
+
+	private long lastPrefetchId = 0;
+
+	private static class Prefetch implements Serializable
+	{
+		private static final long serialVersionUID = 1L;
+
+		final long id;
+		final boolean wasEnabled;
+
+		Prefetch(final long id, final boolean wasEnabled)
+		{
+			this.id = id;
+			this.wasEnabled = wasEnabled;
+		}
+	}
+
+	void setLazy(final boolean lazy)
+	{
+		this.lazy = lazy;
+		if (!lazy)
+		{
+			loadPending(true);
+		}
+	}
+
+	void setParallel(final boolean parallel)
+	{
+		this.parallel = parallel;
+	}
+
+	void parentRowChanged(final Collection<ChildCrudListener<E>> children, final EntityItem<E> item)
+	{
+		final List<ChildCrudListener<E>> visible = new ArrayList<>();
+		for (ChildCrudListener<E> child : children)
+		{
+			// any rows still loading are for the previous parent row
+			stopPrefetching(child);
+
+			final TabSheet hiddenBy = lazy ? getHidingTabSheet(child) : null;
+			if (hiddenBy != null && !child.isDirty())
+			{
+				watch(hiddenBy);
+				pending.put(child, item);
+			}
+			else
+			{
+				pending.remove(child);
+				visible.add(child);
+			}
+		}
+
+		for (ChildCrudListener<E> child : visible)
+		{
+			if (!parallel || visible.size() < 2 || !prefetch(child, item))
+			{
+				load(child, item);
+			}
+		}
+	}
+
+	private void load(final ChildCrudListener<E> child, final EntityItem<E> item)
+	{
+		stopPrefetching(child);
+		final Stopwatch timer = Stopwatch.createStarted();
+		child.selectedParentRowChanged(item);
+		ChildCrudLoadMetrics.record(child.getClass(), timer.elapsed(TimeUnit.MILLISECONDS));
+	}
+
+	/**
+	 * @return false if the child can't be prefetched and should be loaded on
+	 *         the UI thread
+	 */
+	@SuppressWarnings("unchecked")
+	private boolean prefetch(final ChildCrudListener<E> child, final EntityItem<E> item)
+	{
+		final UI ui = UI.getCurrent();
+		if (ui == null || !(child instanceof ChildCrudView))
+		{
+			return false;
+		}
+		final Callable<Runnable> task = ((ChildCrudView<E, ?>) child).createPrefetch(item);
+		if (task == null)
+		{
+			return false;
+		}
+
+		final Component component = (Component) child;
+		final long prefetchId = ++lastPrefetchId;
+		try
+		{
+			BackgroundExecutor.submit(new Callable<Void>()
+			{
+				@Override
+				public Void call() throws Exception
+				{
+					final Stopwatch timer = Stopwatch.createStarted();
+					Runnable apply;
+					try
+					{
+						apply = task.call();
+					}
+					catch (Exception e)
+					{
+						// the child will load (and report the error) itself
+						logger.warn("Prefetching child rows failed", e);
+						apply = null;
+					}
+					final long queryMillis = timer.elapsed(TimeUnit.MILLISECONDS);
+
+					final Runnable finalApply = apply;
+					try
+					{
+						ui.access(new Runnable()
+						{
+							@Override
+							public void run()
+							{
+								applyPrefetch(child, item, prefetchId, finalApply, queryMillis);
+							}
+						});
+					}
+					catch (UIDetachedException e)
+					{
+						// the user has gone
+					}
+					return null;
+				}
+			});
+		}
+		catch (RejectedExecutionException e)
+		{
+			logger.warn("Background executor is busy, loading child rows on the UI thread");
+			return false;
+		}
+
+		prefetching.put(child, new Prefetch(prefetchId, component.isEnabled()));
+		component.setEnabled(false);
+		return true;
+	}
+
+	private void applyPrefetch(final ChildCrudListener<E> child, final EntityItem<E> item, final long prefetchId,
+			final Runnable apply, final long queryMillis)
+	{
+		final Prefetch current = prefetching.get(child);
+		if (current == null || current.id != prefetchId)
+		{
+			// the parent row has changed again since the prefetch started
+			return;
+		}
+		stopPrefetching(child);
+
+		final Stopwatch timer = Stopwatch.createStarted();
+		if (apply != null)
+		{
+			apply.run();
+		}
+		else
+		{
+			child.selectedParentRowChanged(item);
+		}
+		ChildCrudLoadMetrics.record(child.getClass(), queryMillis + timer.elapsed(TimeUnit.MILLISECONDS));
+	}
+
+	private void stopPrefetching(final ChildCrudListener<E> child)
+	{
+		final Prefetch prefetch = prefetching.remove(child);
+		if (prefetch != null)
+		{
+			((Component) child).setEnabled(prefetch.wasEnabled);
+		}
+	}
+
+	private void loadPending(final boolean all)
+	{
+		for (ChildCrudListener<E> child : new ArrayList<>(pending.keySet()))
+		{
+			if (all || getHidingTabSheet(child) == null)
+			{
+				load(child, pending.remove(child));
+			}
+		}
+	}
+
+	/**
+	 * @return the TabSheet that is hiding the child, or null if the child
+	 *         isn't on an unselected tab
+	 */
+	private TabSheet getHidingTabSheet(final ChildCrudListener<E> child)
+	{
+		if (!(child instanceof Component))
+		{
+			return null;
+		}
+		Component component = (Component) child;
+		Component parent = component.getParent();
+		while (parent != null)
+		{
+			if (parent instanceof TabSheet && ((TabSheet) parent).getSelectedTab() != component)
+			{
+				return (TabSheet) parent;
+			}
+			component = parent;
+			parent = parent.getParent();
+		}
+		return null;
+	}
+
+	private void watch(final TabSheet tabSheet)
+	{
+		if (watchedTabSheets.add(tabSheet))
+		{
+			tabSheet.addSelectedTabChangeListener(new SelectedTabChangeListener()
+			{
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				public void selectedTabChange(SelectedTabChangeEvent event)
+				{
+					loadPending(false);
+				}
+			});
+		}
+	}
+}
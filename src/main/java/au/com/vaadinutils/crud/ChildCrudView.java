@@ -1,8 +1,12 @@
 package au.com.vaadinutils.crud;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.LinkedList;
-import java.util.concurrent.TimeUnit;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
 
 import javax.persistence.PersistenceException;
 import javax.persistence.metamodel.SingularAttribute;
@@ -12,7 +16,6 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import com.google.common.base.Preconditions;
-import com.google.common.base.Stopwatch;
 import com.vaadin.addon.jpacontainer.EntityItem;
 import com.vaadin.addon.jpacontainer.EntityItemProperty;
 import com.vaadin.addon.jpacontainer.EntityProviderChangeEvent;
@@ -21,6 +24,9 @@ import com.vaadin.addon.jpacontainer.EntityProviderChangeEvent.EntitiesRemovedEv
 import com.vaadin.addon.jpacontainer.EntityProviderChangeEvent.EntitiesUpdatedEvent;
 import com.vaadin.addon.jpacontainer.JPAContainer;
 import com.vaadin.addon.jpacontainer.JPAContainer.ProviderChangedEvent;
+import com.vaadin.addon.jpacontainer.QueryModifierDelegate;
+import com.vaadin.addon.jpacontainer.SortBy;
+import com.vaadin.addon.jpacontainer.provider.LocalEntityProvider;
 import com.vaadin.data.Container.Filter;
 import com.vaadin.data.Container.ItemSetChangeEvent;
 import com.vaadin.data.Container.ItemSetChangeListener;
@@ -32,6 +38,7 @@ import com.vaadin.ui.Component;
 import com.vaadin.ui.Notification;
 import com.vaadin.ui.Notification.Type;
 
+import au.com.vaadinutils.dao.BatchingPerRequestEntityProvider;
 import au.com.vaadinutils.dao.EntityManagerProvider;
 import au.com.vaadinutils.dao.JpaBaseDao;
 import au.com.vaadinutils.errorHandling.ErrorWindow;
@@ -840,6 +847,21 @@ public abstract class ChildCrudView<P extends CrudEntity, E extends ChildCrudEnt
 	 */
 	@Override
 	public void selectedParentRowChanged(EntityItem<P> item)
+	{
+		final BatchingPerRequestEntityProvider<E> provider = getPrefetchingProvider();
+		if (provider != null)
+		{
+			provider.clearPrefetched();
+		}
+		parentRowChanged(item, null);
+	}
+
+	/**
+	 * @param prefetchedFilter
+	 *            the parent filter the prefetched rows were loaded with, or
+	 *            null
+	 */
+	private void parentRowChanged(EntityItem<P> item, Filter prefetchedFilter)
 	{
 		try
 		{
@@ -857,6 +879,11 @@ public abstract class ChildCrudView<P extends CrudEntity, E extends ChildCrudEnt
 				saveEditsToTemp();
 			}
 			createParentFilter(item);
+			if (prefetchedFilter != null)
+			{
+				// the provider recognises the prefetched rows by their filter
+				parentFilter = prefetchedFilter;
+			}
 			currentParent = null;
 			if (item != null)
 			{
@@ -869,8 +896,6 @@ public abstract class ChildCrudView<P extends CrudEntity, E extends ChildCrudEnt
 			}
 			dirty = false;
 
-			Stopwatch timer = Stopwatch.createUnstarted();
-			timer.start();
 			resetFiltersWithoutChangeEvents();
 			triggerFilter();
 			if (!isInitialised)
@@ -883,8 +908,6 @@ public abstract class ChildCrudView<P extends CrudEntity, E extends ChildCrudEnt
 
 				isInitialised = true;
 			}
-			loggerChildCrud.debug("Child crud load {} took {}", this.getClass().getSimpleName(),
-					timer.elapsed(TimeUnit.MILLISECONDS));
 
 			Object id = entityTable.firstItemId();
 			if (id != null)
@@ -924,6 +947,108 @@ public abstract class ChildCrudView<P extends CrudEntity, E extends ChildCrudEnt
 
 	}
 
+	/**
+	 * Returns a task that runs this child's query for the given parent row on
+	 * a background EntityManager. The task returns the work to be done on the
+	 * UI thread, which hands the rows to the container's provider and then
+	 * changes row as selectedParentRowChanged() does, without querying the
+	 * rows again. Called when the parent crud loads its children in parallel.
+	 *
+	 * The ids of all of the child rows are loaded, along with the entities for
+	 * the first getPrefetchLimit() rows.
+	 *
+	 * Returns null, so the child is loaded on the UI thread, if the container
+	 * doesn't use a BatchingPerRequestEntityProvider or hasn't been displayed
+	 * yet. Override and return null to disable prefetching for this child.
+	 *
+	 * @param item
+	 *            the new parent row
+	 * @return the prefetch task or null
+	 */
+	protected Callable<Runnable> createPrefetch(final EntityItem<P> item)
+	{
+		final BatchingPerRequestEntityProvider<E> provider = getPrefetchingProvider();
+		if (provider == null || !isInitialised || item == null || item.getItemProperty(parentKey) == null
+				|| item.getItemProperty(parentKey).getValue() == null)
+		{
+			return null;
+		}
+		// the rows are only useful if they are in the order the container
+		// will ask for them
+		final List<SortBy> sortBy = provider.getLastSortBy();
+		if (sortBy == null)
+		{
+			return null;
+		}
+
+		final Filter filter;
+		try
+		{
+			filter = new Compare.Equal(childKey, translateParentId(item.getItemProperty(parentKey).getValue()));
+		}
+		catch (InstantiationException | IllegalAccessException e)
+		{
+			loggerChildCrud.warn("Unable to prefetch " + childType + ", " + e.getMessage());
+			return null;
+		}
+
+		final QueryModifierDelegate queryModifierDelegate = provider.getQueryModifierDelegate();
+		final int limit = getPrefetchLimit();
+		return new Callable<Runnable>()
+		{
+			@Override
+			public Runnable call() throws Exception
+			{
+				// the same query as the container's provider, without its
+				// cache which belongs to the UI thread
+				final LocalEntityProvider<E> query = new LocalEntityProvider<>(childType,
+						EntityManagerProvider.getEntityManager());
+				query.setQueryModifierDelegate(queryModifierDelegate);
+				final List<Object> ids = query.getAllEntityIdentifiers(container, filter, sortBy);
+
+				final List<Long> loadIds = new ArrayList<>();
+				for (Object id : ids.subList(0, Math.min(limit, ids.size())))
+				{
+					loadIds.add((Long) id);
+				}
+				final Map<Object, E> entities = new HashMap<>();
+				for (E entity : JpaBaseDao.getGenericDao(childType).findByIds(loadIds))
+				{
+					entities.put(entity.getId(), entity);
+				}
+
+				return new Runnable()
+				{
+					@Override
+					public void run()
+					{
+						provider.setPrefetched(filter, sortBy, ids, entities);
+						parentRowChanged(item, filter);
+					}
+				};
+			}
+		};
+	}
+
+	/**
+	 * the maximum number of child entities loaded by the prefetch, the rest
+	 * are loaded by the container as they are displayed
+	 */
+	protected int getPrefetchLimit()
+	{
+		return 200;
+	}
+
+	@SuppressWarnings("unchecked")
+	private BatchingPerRequestEntityProvider<E> getPrefetchingProvider()
+	{
+		if (container != null && container.getEntityProvider() instanceof BatchingPerRequestEntityProvider)
+		{
+			return (BatchingPerRequestEntityProvider<E>) container.getEntityProvider();
+		}
+		return null;
+	}
+
 	private void notifyParentRowChangeListeners(P entity)
 	{
 		for (RowChangedListener<P> listener : parentRowChangeListeners)
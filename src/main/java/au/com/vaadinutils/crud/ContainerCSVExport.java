@@ -5,14 +5,18 @@ import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.Writer;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.logging.log4j.Logger;
 import org.jsoup.Jsoup;
@@ -38,23 +42,59 @@ import com.vaadin.ui.Window;
 import au.com.bytecode.opencsv.CSVWriter;
 import au.com.vaadinutils.fields.ClickableLabel;
 import au.com.vaadinutils.jasper.AttachmentType;
-import au.com.vaadinutils.util.PipedOutputStreamWrapper;
+import au.com.vaadinutils.listener.ProgressListener;
+import au.com.vaadinutils.util.ExportJob;
+import au.com.vaadinutils.util.ExportJobService;
 
 public class ContainerCSVExport<E>
 {
 	// Logger logger = org.apache.logging.log4j.LogManager.getLogger();
 
-	PipedOutputStreamWrapper stream = new PipedOutputStreamWrapper();
 	Logger logger = org.apache.logging.log4j.LogManager.getLogger();
 	private HeadingPropertySet headingsSet;
 	private Table table;
 	private LinkedHashMap<String, Object> extraColumnHeadersAndPropertyIds;
+	private final CSVExportMode mode;
+
+	/**
+	 * used to read values straight from the entities where possible, null if
+	 * the container isn't a JPAContainer
+	 */
+	private EntityExportValueResolver entityResolver;
+	private final Map<Object, ExportValueGenerator<?>> exportValueGenerators = new HashMap<>();
+	private final Set<Object> entityProperties = new HashSet<>();
 
 	public ContainerCSVExport(final String fileName, final Table table, final HeadingPropertySet headingsSet)
+	{
+		this(fileName, table, headingsSet, CSVExportMode.IN_MEMORY);
+	}
+
+	/**
+	 * 
+	 * @param fileName
+	 * @param table
+	 * @param headingsSet
+	 * @param mode
+	 *            - STREAMING and BACKGROUND read the rows from the container in
+	 *            chunks, so memory use doesn't grow with the number of rows
+	 *            and there is no limit on the number of rows exported. Note
+	 *            that in these modes getValueForExtraColumn will be called on
+	 *            a background thread (while holding the UI lock).
+	 */
+	public ContainerCSVExport(final String fileName, final Table table, final HeadingPropertySet headingsSet,
+			final CSVExportMode mode)
 	{
 
 		this.table = table;
 		this.headingsSet = headingsSet;
+		this.mode = mode;
+
+		if (mode == CSVExportMode.BACKGROUND)
+		{
+			exportInBackground(fileName);
+			return;
+		}
+
 		final Window window = new Window();
 		window.setCaption("Download " + fileName + " CSV data");
 		window.center();
@@ -84,6 +124,27 @@ public class ContainerCSVExport<E>
 		final Button downloadButton = new Button("Download CSV Data");
 		downloadButton.setDisableOnClick(true);
 
+		final StreamSource source;
+		if (mode == CSVExportMode.STREAMING)
+		{
+			source = createStreamingSource(window);
+		}
+		else
+		{
+			source = createSource(window);
+		}
+
+		StreamResource resource = new StreamResource(source, fileName + AttachmentType.CSV.getFileExtension());
+		resource.setMIMEType(AttachmentType.CSV.getMIMETypeString());
+
+		FileDownloader fileDownloader = new FileDownloader(resource);
+		fileDownloader.setOverrideContentType(false);
+		fileDownloader.extend(downloadButton);
+		return downloadButton;
+	}
+
+	private StreamSource createSource(final Window window)
+	{
 		@SuppressWarnings("serial")
 		StreamSource source = new StreamSource()
 		{
@@ -107,47 +168,103 @@ public class ContainerCSVExport<E>
 				}
 				finally
 				{
-					Runnable runner = new Runnable()
-					{
+					closeWindowLater(window);
+				}
+				return null;
+			}
+		};
+		return source;
+	}
 
-						@Override
-						public void run()
-						{
-							try
-							{
-								Thread.sleep(500);
-
-								UI.getCurrent().access(new Runnable()
-								{
-
-									@Override
-									public void run()
-									{
-										window.close();
-
-									}
-								});
-							}
-							catch (InterruptedException e)
-							{
-								logger.error(e, e);
-							}
+	private StreamSource createStreamingSource(final Window window)
+	{
+		final Set<Object> properties = new LinkedHashSet<>();
 
-						}
-					};
-					new Thread(runner, "Dialog closer").start();
+		@SuppressWarnings("serial")
+		StreamSource source = new StreamingCSVExportSource(UI.getCurrent(), table.getContainerDataSource())
+		{
+
+			@Override
+			String[] getHeaders()
+			{
+				try
+				{
+					properties.clear();
+					return buildHeaders(table, headingsSet, properties);
 				}
-				return null;
+				finally
+				{
+					closeWindowLater(window);
+				}
+			}
+
+			@Override
+			String[] getRowValues(Object id)
+			{
+				return ContainerCSVExport.this.getRowValues(table, id, properties);
 			}
 		};
+		return source;
+	}
 
-		StreamResource resource = new StreamResource(source, fileName + AttachmentType.CSV.getFileExtension());
-		resource.setMIMEType(AttachmentType.CSV.getMIMETypeString());
+	private void exportInBackground(final String fileName)
+	{
+		final Set<Object> properties = new LinkedHashSet<>();
+		final String[] headers = buildHeaders(table, headingsSet, properties);
 
-		FileDownloader fileDownloader = new FileDownloader(resource);
-		fileDownloader.setOverrideContentType(false);
-		fileDownloader.extend(downloadButton);
-		return downloadButton;
+		@SuppressWarnings("serial")
+		final StreamingCSVExportSource source = new StreamingCSVExportSource(UI.getCurrent(),
+				table.getContainerDataSource())
+		{
+
+			@Override
+			String[] getHeaders()
+			{
+				return headers;
+			}
+
+			@Override
+			String[] getRowValues(Object id)
+			{
+				return ContainerCSVExport.this.getRowValues(table, id, properties);
+			}
+		};
+		source.snapshotItemIds();
+
+		ExportJobService.export(fileName, AttachmentType.CSV, new ExportJob()
+		{
+
+			@Override
+			public void export(OutputStream out, ProgressListener<String> progress) throws Exception
+			{
+				source.writeCSV(out, headers, progress);
+			}
+		});
+	}
+
+	private void closeWindowLater(final Window window)
+	{
+		// UI.getCurrent() isn't available on the scheduler thread
+		final UI ui = UI.getCurrent();
+		Runnable runner = new Runnable()
+		{
+
+			@Override
+			public void run()
+			{
+				ui.access(new Runnable()
+				{
+
+					@Override
+					public void run()
+					{
+						window.close();
+
+					}
+				});
+			}
+		};
+		ExportJobService.schedule(runner, 500, TimeUnit.MILLISECONDS);
 	}
 
 	public void export(Table table, Writer stream, HeadingPropertySet headingsSet) throws IOException
@@ -155,12 +272,46 @@ public class ContainerCSVExport<E>
 
 		CSVWriter writer = new CSVWriter(stream);
 
+		Set<Object> properties = new LinkedHashSet<>();
+		writer.writeNext(buildHeaders(table, headingsSet, properties));
+
+		int ctr = 0;
+		for (Object id : table.getContainerDataSource().getItemIds())
+		{
+			writeRow(writer, table, id, properties);
+			ctr++;
+			if (ctr > 100000)
+			{
+				writer.writeNext(new String[] { "Export stopped at 100,000 lines." });
+				break;
+			}
+		}
+
+		writer.flush();
+
+	}
+
+	/**
+	 * 
+	 * @param headingsSet
+	 * @param properties
+	 *            - populated with the propertyIds of the columns in the same
+	 *            order as the returned headers
+	 * @return the headers, including the extra columns
+	 */
+	private String[] buildHeaders(Table table, HeadingPropertySet headingsSet, Set<Object> properties)
+	{
 		Map<String, Object> headerPropertyMap = new LinkedHashMap<>();
+		exportValueGenerators.clear();
 
 		List<HeadingToPropertyId> cols = headingsSet.getColumns();
 		for (HeadingToPropertyId col : cols)
 		{
 			headerPropertyMap.put(col.getHeader(), col.getPropertyId());
+			if (col.getExportValueGenerator() != null)
+			{
+				exportValueGenerators.put(col.getPropertyId(), col.getExportValueGenerator());
+			}
 		}
 
 		List<String> headerList = new LinkedList<>();
@@ -168,137 +319,167 @@ public class ContainerCSVExport<E>
 		extraColumnHeadersAndPropertyIds = getExtraColumnHeadersAndPropertyIds();
 		headerList.addAll(extraColumnHeadersAndPropertyIds.keySet());
 
-		writeHeaders(writer, headerList);
-
-		Set<Object> properties = new LinkedHashSet<>();
 		properties.addAll(headerPropertyMap.values());
 
-		int ctr = 0;
-		for (Object id : table.getContainerDataSource().getItemIds())
+		// work out which columns can be read straight from the entity rather
+		// than via the Item, generated columns without an
+		// ExportValueGenerator still have to go through the column generator.
+		entityProperties.clear();
+		entityResolver = EntityExportValueResolver.create(table.getContainerDataSource());
+		if (entityResolver != null)
 		{
-			writeRow(writer, table, id, properties);
-			ctr++;
-			if (ctr > 100000)
+			for (Object propertyId : properties)
 			{
-				writer.writeNext(new String[] { "Export stopped at 100,000 lines." });
-				break;
+				if (table.getColumnGenerator(propertyId) == null && entityResolver.canResolve(propertyId))
+				{
+					entityProperties.add(propertyId);
+				}
 			}
 		}
 
-		writer.flush();
-
+		return headerList.toArray(new String[] {});
 	}
 
 	private void writeRow(CSVWriter writer, Table table, Object id, Set<Object> properties)
 	{
-		Item item = table.getItem(id);
+		writer.writeNext(getRowValues(table, id, properties));
+	}
+
+	private String[] getRowValues(Table table, Object id, Set<Object> properties)
+	{
+		final Object entity = entityResolver != null ? entityResolver.getEntity(id) : null;
+		Item item = null;
 		String[] values = new String[properties.size() + extraColumnHeadersAndPropertyIds.size()];
 		int i = 0;
 		for (Object propertyId : properties)
 		{
-			@SuppressWarnings("rawtypes")
-			final Property itemProperty = item.getItemProperty(propertyId);
-			if (itemProperty != null && itemProperty.getValue() != null)
+			if (entity != null && exportValueGenerators.containsKey(propertyId))
+			{
+				@SuppressWarnings("unchecked")
+				final String value = ((ExportValueGenerator<Object>) exportValueGenerators.get(propertyId))
+						.getExportValue(entity);
+				values[i++] = value == null ? "" : value;
+			}
+			else if (entity != null && entityProperties.contains(propertyId))
+			{
+				final Object value = entityResolver.getValue(entity, propertyId);
+				values[i++] = value == null ? "" : value.toString();
+			}
+			else
+			{
+				if (item == null)
+				{
+					item = table.getItem(id);
+				}
+				values[i++] = getCellValue(table, item, id, propertyId);
+			}
+		}
+
+		if (!extraColumnHeadersAndPropertyIds.isEmpty() && item == null)
+		{
+			item = table.getItem(id);
+		}
+		for (Object columnId : extraColumnHeadersAndPropertyIds.values())
+		{
+			String value = getValueForExtraColumn(item, columnId);
+			if (value == null)
 			{
-				ColumnGenerator generator = table.getColumnGenerator(propertyId);
+				value = "";
+			}
+			values[i++] = value;
+		}
+		return values;
+
+	}
+
+	private String getCellValue(Table table, Item item, Object id, Object propertyId)
+	{
+		@SuppressWarnings("rawtypes")
+		final Property itemProperty = item.getItemProperty(propertyId);
+		if (itemProperty != null && itemProperty.getValue() != null)
+		{
+			ColumnGenerator generator = table.getColumnGenerator(propertyId);
 
-				// added handling for generated Boolean columns, - just using
-				// the default property toString()
+			// added handling for generated Boolean columns, - just using
+			// the default property toString()
 
-				if (generator != null && itemProperty.getType() != Boolean.class)
+			if (generator != null && itemProperty.getType() != Boolean.class)
+			{
+				Object value = generator.generateCell(table, id, propertyId);
+				if (value instanceof Label)
 				{
-					Object value = generator.generateCell(table, id, propertyId);
-					if (value instanceof Label)
-					{
-						value = new HtmlToPlainText().getPlainText(Jsoup.parse(((Label) value).getValue()));
-					}
-					if (value instanceof AbstractLayout)
-					{
-						value = new HtmlToPlainText().getPlainText(Jsoup.parse(itemProperty.getValue().toString()));
-					}
-					if(value instanceof Link)
-					{
-					    value = new HtmlToPlainText().getPlainText(Jsoup.parse(itemProperty.getValue().toString()));
-					}
-					if (value != null)
-					{
-						values[i++] = value.toString();
-					}
+					value = new HtmlToPlainText().getPlainText(Jsoup.parse(((Label) value).getValue()));
+				}
+				if (value instanceof AbstractLayout)
+				{
+					value = new HtmlToPlainText().getPlainText(Jsoup.parse(itemProperty.getValue().toString()));
 				}
-				else
+				if(value instanceof Link)
 				{
-					values[i++] = itemProperty.getValue().toString();
+				    value = new HtmlToPlainText().getPlainText(Jsoup.parse(itemProperty.getValue().toString()));
+				}
+				if (value != null)
+				{
+					return value.toString();
 				}
 			}
 			else
 			{
-				ColumnGenerator generator = table.getColumnGenerator(propertyId);
-				if (generator != null)
+				return itemProperty.getValue().toString();
+			}
+		}
+		else
+		{
+			ColumnGenerator generator = table.getColumnGenerator(propertyId);
+			if (generator != null)
+			{
+				Object value = generator.generateCell(table, id, propertyId);
+				if (value != null)
 				{
-					Object value = generator.generateCell(table, id, propertyId);
-					if (value != null)
+					if (value instanceof ClickableLabel)
 					{
-						if (value instanceof ClickableLabel)
-						{
-							value = new HtmlToPlainText()
-									.getPlainText(Jsoup.parse(((ClickableLabel) value).getValue()));
-						}
+						value = new HtmlToPlainText()
+								.getPlainText(Jsoup.parse(((ClickableLabel) value).getValue()));
+					}
 
-						if (value instanceof Label)
-						{
-							value = new HtmlToPlainText().getPlainText(Jsoup.parse(((Label) value).getValue()));
-							// value = ((Label) value).getValue();
-						}
+					if (value instanceof Label)
+					{
+						value = new HtmlToPlainText().getPlainText(Jsoup.parse(((Label) value).getValue()));
+						// value = ((Label) value).getValue();
+					}
 
-						if (value instanceof AbstractLayout)
-						{
+					if (value instanceof AbstractLayout)
+					{
 
-							// if you want your generated field to be exported,
-							// set a string using setData() on the layout.
-							if (((AbstractLayout) value).getData() instanceof ContainerCSVExportData)
-							{
-								value = ((AbstractLayout) value).getData().toString();
-							}
-							else
-							{
-								value = "";
-							}
+						// if you want your generated field to be exported,
+						// set a string using setData() on the layout.
+						if (((AbstractLayout) value).getData() instanceof ContainerCSVExportData)
+						{
+							value = ((AbstractLayout) value).getData().toString();
 						}
-						if(value instanceof Link)
+						else
 						{
-						    value = new HtmlToPlainText().getPlainText(Jsoup.parse(((Link) value).getCaption()));
+							value = "";
 						}
 					}
-					if (value == null)
+					if(value instanceof Link)
 					{
-						value = "";
+					    value = new HtmlToPlainText().getPlainText(Jsoup.parse(((Link) value).getCaption()));
 					}
-					values[i++] = value.toString();
-
 				}
-				else
+				if (value == null)
 				{
-					values[i++] = "";
+					value = "";
 				}
-			}
-		}
+				return value.toString();
 
-		for (Object columnId : extraColumnHeadersAndPropertyIds.values())
-		{
-			String value = getValueForExtraColumn(item, columnId);
-			if (value == null)
+			}
+			else
 			{
-				value = "";
+				return "";
 			}
-			values[i++] = value;
 		}
-		writer.writeNext(values);
-
-	}
-
-	private void writeHeaders(CSVWriter writer, List<String> headers)
-	{
-		writer.writeNext(headers.toArray(new String[] {}));
+		return null;
 	}
 
 	/**
@@ -0,0 +1,65 @@
+package au.com.vaadinutils.crud;
+
+import com.vaadin.addon.jpacontainer.EntityProvider;
+import com.vaadin.addon.jpacontainer.JPAContainer;
+import com.vaadin.data.Container;
+import com.vaadin.data.util.GeneratedPropertyContainer;
+
+import au.com.vaadinutils.dao.EntityAttributeAccessor;
+
+/**
+ * Used by the csv exports to read the row values straight from the entities in
+ * a JPAContainer, bypassing the Item and Property wrappers.
+ */
+class EntityExportValueResolver
+{
+	private final JPAContainer<?> container;
+
+	private EntityExportValueResolver(final JPAContainer<?> container)
+	{
+		this.container = container;
+	}
+
+	/**
+	 *
+	 * @param container
+	 * @return null if the container (or the container it wraps) isn't a
+	 *         JPAContainer
+	 */
+	static EntityExportValueResolver create(final Container container)
+	{
+		Container unwrapped = container;
+		if (unwrapped instanceof GeneratedPropertyContainer)
+		{
+			unwrapped = ((GeneratedPropertyContainer) unwrapped).getWrappedContainer();
+		}
+		if (unwrapped instanceof JPAContainer)
+		{
+			return new EntityExportValueResolver((JPAContainer<?>) unwrapped);
+		}
+		return null;
+	}
+
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	Object getEntity(final Object itemId)
+	{
+		final EntityProvider provider = container.getEntityProvider();
+		return provider.getEntity((JPAContainer) container, itemId);
+	}
+
+	/**
+	 *
+	 * @param propertyId
+	 * @return true if the property can be read directly from the entity
+	 */
+	boolean canResolve(final Object propertyId)
+	{
+		return EntityAttributeAccessor.getAccessor(container.getEntityClass(), propertyId.toString()) != null;
+	}
+
+	Object getValue(final Object entity, final Object propertyId)
+	{
+		return EntityAttributeAccessor.getAccessor(container.getEntityClass(), propertyId.toString())
+				.getValue(entity);
+	}
+}
@@ -0,0 +1,17 @@
+package au.com.vaadinutils.crud;
+
+import java.io.Serializable;
+
+/**
+ * Provides the plain text value of a generated column when the column is
+ * exported (e.g. by ContainerCSVExport), so the export can read the value
+ * straight from the entity rather than calling the column generator and
+ * stripping the html out of the component it returns.
+ *
+ * @param <E>
+ *            the entity type displayed in the table/grid
+ */
+public interface ExportValueGenerator<E> extends Serializable
+{
+	String getExportValue(E entity);
+}
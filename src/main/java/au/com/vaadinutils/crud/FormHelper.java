@@ -58,6 +58,7 @@ import com.vaadin.ui.TextField;
 
 import au.com.vaadinutils.converter.ContainerAdaptor;
 import au.com.vaadinutils.converter.ContainerAdaptorFactory;
+import au.com.vaadinutils.converter.LookupSelectConverter;
 import au.com.vaadinutils.converter.MultiSelectConverter;
 import au.com.vaadinutils.crud.GridHeadingPropertySet.Builder;
 import au.com.vaadinutils.crud.splitFields.SplitCheckBox;
@@ -72,6 +73,7 @@ import au.com.vaadinutils.crud.splitFields.SplitTextField;
 import au.com.vaadinutils.crud.splitFields.SplitTwinColSelect;
 import au.com.vaadinutils.crud.splitFields.legacy.LegacySplitComboBox;
 import au.com.vaadinutils.dao.JpaBaseDao;
+import au.com.vaadinutils.dao.LookupCache;
 import au.com.vaadinutils.dao.Path;
 import au.com.vaadinutils.domain.iColor;
 import au.com.vaadinutils.domain.iColorFactory;
@@ -872,8 +874,17 @@ public class FormHelper<E> implements Serializable
 			if (container == null)
 			{
 				Preconditions.checkNotNull(listClazz, "listClazz may not be null");
-				container = JpaBaseDao.getGenericDao(listClazz).createVaadinContainer();
-
+				// small lookup tables can be shared rather than queried for
+				// every form
+				final List<L> lookup = LookupCache.get(listClazz);
+				if (lookup != null)
+				{
+					container = new BeanItemContainer<>(listClazz, lookup);
+				}
+				else
+				{
+					container = JpaBaseDao.getGenericDao(listClazz).createVaadinContainer();
+				}
 			}
 
 			// Preconditions.checkState(container.getContainerPropertyIds().contains(listField),
@@ -889,8 +900,15 @@ public class FormHelper<E> implements Serializable
 
 			component.setItemCaptionPropertyId(listField);
 			component.setContainerDataSource(container);
-			SingleSelectConverter<L> converter = new SingleSelectConverter<>(component);
-			component.setConverter(converter);
+			if (container instanceof BeanItemContainer)
+			{
+				component.setConverter(new LookupSelectConverter<>(component, listClazz));
+			}
+			else
+			{
+				SingleSelectConverter<L> converter = new SingleSelectConverter<>(component);
+				component.setConverter(converter);
+			}
 			component.setNewItemsAllowed(false);
 			component.setNullSelectionAllowed(false);
 			component.setTextInputAllowed(true);
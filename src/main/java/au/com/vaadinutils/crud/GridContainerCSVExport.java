@@ -5,14 +5,18 @@ import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.Writer;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.logging.log4j.Logger;
 import org.jsoup.Jsoup;
@@ -33,21 +37,57 @@ import com.vaadin.ui.Window;
 
 import au.com.bytecode.opencsv.CSVWriter;
 import au.com.vaadinutils.jasper.AttachmentType;
-import au.com.vaadinutils.util.PipedOutputStreamWrapper;
+import au.com.vaadinutils.listener.ProgressListener;
+import au.com.vaadinutils.util.ExportJob;
+import au.com.vaadinutils.util.ExportJobService;
 
 public class GridContainerCSVExport<E>
 {
-	PipedOutputStreamWrapper stream = new PipedOutputStreamWrapper();
 	Logger logger = org.apache.logging.log4j.LogManager.getLogger();
 	private GridHeadingPropertySet<E> headingsSet;
 	private Grid grid;
 	private LinkedHashMap<String, Object> extraColumnHeadersAndPropertyIds;
+	private final CSVExportMode mode;
+
+	/**
+	 * used to read values straight from the entities where possible, null if
+	 * the container isn't a JPAContainer
+	 */
+	private EntityExportValueResolver entityResolver;
+	private final Map<Object, ExportValueGenerator<?>> exportValueGenerators = new HashMap<>();
+	private final Set<Object> entityProperties = new HashSet<>();
 
 	public GridContainerCSVExport(final String fileName, final Grid grid, final GridHeadingPropertySet<E> headingsSet)
+	{
+		this(fileName, grid, headingsSet, CSVExportMode.IN_MEMORY);
+	}
+
+	/**
+	 * 
+	 * @param fileName
+	 * @param grid
+	 * @param headingsSet
+	 * @param mode
+	 *            - STREAMING and BACKGROUND read the rows from the container in
+	 *            chunks, so memory use doesn't grow with the number of rows
+	 *            and there is no limit on the number of rows exported. Note
+	 *            that in these modes getValueForExtraColumn will be called on
+	 *            a background thread (while holding the UI lock).
+	 */
+	public GridContainerCSVExport(final String fileName, final Grid grid, final GridHeadingPropertySet<E> headingsSet,
+			final CSVExportMode mode)
 	{
 
 		this.grid = grid;
 		this.headingsSet = headingsSet;
+		this.mode = mode;
+
+		if (mode == CSVExportMode.BACKGROUND)
+		{
+			exportInBackground(fileName);
+			return;
+		}
+
 		final Window window = new Window();
 		window.setCaption("Download " + fileName + " CSV data");
 		window.center();
@@ -76,6 +116,27 @@ public class GridContainerCSVExport<E>
 		final Button downloadButton = new Button("Download CSV Data");
 		downloadButton.setDisableOnClick(true);
 
+		final StreamSource source;
+		if (mode == CSVExportMode.STREAMING)
+		{
+			source = createStreamingSource(window);
+		}
+		else
+		{
+			source = createSource(window);
+		}
+
+		StreamResource resource = new StreamResource(source, fileName + AttachmentType.CSV.getFileExtension());
+		resource.setMIMEType(AttachmentType.CSV.getMIMETypeString());
+
+		FileDownloader fileDownloader = new FileDownloader(resource);
+		fileDownloader.setOverrideContentType(false);
+		fileDownloader.extend(downloadButton);
+		return downloadButton;
+	}
+
+	private StreamSource createSource(final Window window)
+	{
 		@SuppressWarnings("serial")
 		StreamSource source = new StreamSource()
 		{
@@ -99,47 +160,103 @@ public class GridContainerCSVExport<E>
 				}
 				finally
 				{
-					Runnable runner = new Runnable()
-					{
-
-						@Override
-						public void run()
-						{
-							try
-							{
-								Thread.sleep(500);
-
-								UI.getCurrent().access(new Runnable()
-								{
-
-									@Override
-									public void run()
-									{
-										window.close();
-
-									}
-								});
-							}
-							catch (InterruptedException e)
-							{
-								logger.error(e, e);
-							}
-
-						}
-					};
-					new Thread(runner, "Dialog closer").start();
+					closeWindowLater(window);
 				}
 				return null;
 			}
 		};
+		return source;
+	}
 
-		StreamResource resource = new StreamResource(source, fileName + AttachmentType.CSV.getFileExtension());
-		resource.setMIMEType(AttachmentType.CSV.getMIMETypeString());
+	private StreamSource createStreamingSource(final Window window)
+	{
+		final Set<Object> properties = new LinkedHashSet<>();
 
-		FileDownloader fileDownloader = new FileDownloader(resource);
-		fileDownloader.setOverrideContentType(false);
-		fileDownloader.extend(downloadButton);
-		return downloadButton;
+		@SuppressWarnings("serial")
+		StreamSource source = new StreamingCSVExportSource(UI.getCurrent(), grid.getContainerDataSource())
+		{
+
+			@Override
+			String[] getHeaders()
+			{
+				try
+				{
+					properties.clear();
+					return buildHeaders(grid, headingsSet, properties);
+				}
+				finally
+				{
+					closeWindowLater(window);
+				}
+			}
+
+			@Override
+			String[] getRowValues(Object id)
+			{
+				return GridContainerCSVExport.this.getRowValues(grid, id, properties);
+			}
+		};
+		return source;
+	}
+
+	private void exportInBackground(final String fileName)
+	{
+		final Set<Object> properties = new LinkedHashSet<>();
+		final String[] headers = buildHeaders(grid, headingsSet, properties);
+
+		@SuppressWarnings("serial")
+		final StreamingCSVExportSource source = new StreamingCSVExportSource(UI.getCurrent(),
+				grid.getContainerDataSource())
+		{
+
+			@Override
+			String[] getHeaders()
+			{
+				return headers;
+			}
+
+			@Override
+			String[] getRowValues(Object id)
+			{
+				return GridContainerCSVExport.this.getRowValues(grid, id, properties);
+			}
+		};
+		source.snapshotItemIds();
+
+		ExportJobService.export(fileName, AttachmentType.CSV, new ExportJob()
+		{
+
+			@Override
+			public void export(OutputStream out, ProgressListener<String> progress) throws Exception
+			{
+				source.writeCSV(out, headers, progress);
+			}
+		});
+	}
+
+	private void closeWindowLater(final Window window)
+	{
+		// UI.getCurrent() isn't available on the scheduler thread
+		final UI ui = UI.getCurrent();
+		Runnable runner = new Runnable()
+		{
+
+			@Override
+			public void run()
+			{
+				ui.access(new Runnable()
+				{
+
+					@Override
+					public void run()
+					{
+						window.close();
+
+					}
+				});
+			}
+		};
+		ExportJobService.schedule(runner, 500, TimeUnit.MILLISECONDS);
 	}
 
 	public void export(Grid grid, Writer stream, GridHeadingPropertySet<E> headingsSet) throws IOException
@@ -147,12 +264,44 @@ public class GridContainerCSVExport<E>
 
 		CSVWriter writer = new CSVWriter(stream);
 
+		Set<Object> properties = new LinkedHashSet<>();
+		writer.writeNext(buildHeaders(grid, headingsSet, properties));
+
+		for (Object id : grid.getContainerDataSource().getItemIds())
+		{
+			writeRow(writer, grid, id, properties);
+		}
+
+		writer.flush();
+
+	}
+
+	/**
+	 * 
+	 * @param headingsSet
+	 * @param properties
+	 *            - populated with the propertyIds of the columns in the same
+	 *            order as the returned headers
+	 * @return the headers, including the extra columns
+	 */
+	private String[] buildHeaders(Grid grid, GridHeadingPropertySet<E> headingsSet, Set<Object> properties)
+	{
 		Map<String, Object> headerPropertyMap = new LinkedHashMap<>();
+		Set<Object> generatedProperties = new HashSet<>();
+		exportValueGenerators.clear();
 
 		List<GridHeadingToPropertyId> cols = headingsSet.getColumns();
 		for (GridHeadingToPropertyId col : cols)
 		{
 			headerPropertyMap.put(col.getHeader(), col.getPropertyId());
+			if (col.isGenerated())
+			{
+				generatedProperties.add(col.getPropertyId());
+			}
+			if (col.getExportValueGenerator() != null)
+			{
+				exportValueGenerators.put(col.getPropertyId(), col.getExportValueGenerator());
+			}
 		}
 
 		List<String> headerList = new LinkedList<>();
@@ -160,51 +309,70 @@ public class GridContainerCSVExport<E>
 		extraColumnHeadersAndPropertyIds = getExtraColumnHeadersAndPropertyIds();
 		headerList.addAll(extraColumnHeadersAndPropertyIds.keySet());
 
-		writeHeaders(writer, headerList);
-
-		Set<Object> properties = new LinkedHashSet<>();
 		properties.addAll(headerPropertyMap.values());
 
-		for (Object id : grid.getContainerDataSource().getItemIds())
+		// work out which columns can be read straight from the entity rather
+		// than via the Item, generated columns without an
+		// ExportValueGenerator still have to go through the container.
+		entityProperties.clear();
+		entityResolver = EntityExportValueResolver.create(grid.getContainerDataSource());
+		if (entityResolver != null)
 		{
-			writeRow(writer, grid, id, properties);
+			for (Object propertyId : properties)
+			{
+				if (!generatedProperties.contains(propertyId) && entityResolver.canResolve(propertyId))
+				{
+					entityProperties.add(propertyId);
+				}
+			}
 		}
 
-		writer.flush();
-
+		return headerList.toArray(new String[] {});
 	}
 
 	private void writeRow(CSVWriter writer, Grid grid, Object id, Set<Object> properties)
 	{
-		Item item = grid.getContainerDataSource().getItem(id);
+		writer.writeNext(getRowValues(grid, id, properties));
+	}
+
+	private String[] getRowValues(Grid grid, Object id, Set<Object> properties)
+	{
+		final Object entity = entityResolver != null ? entityResolver.getEntity(id) : null;
+		Item item = null;
 		String[] values = new String[properties.size() + extraColumnHeadersAndPropertyIds.size()];
 		int i = 0;
 		for (Object propertyId : properties)
 		{
-			@SuppressWarnings("rawtypes")
-			final Property itemProperty = item.getItemProperty(propertyId);
-			if (itemProperty != null)
+			if (entity != null && exportValueGenerators.containsKey(propertyId))
+			{
+				@SuppressWarnings("unchecked")
+				final String value = ((ExportValueGenerator<Object>) exportValueGenerators.get(propertyId))
+						.getExportValue(entity);
+				values[i++] = value == null ? "" : value;
+			}
+			else if (entity != null && entityProperties.contains(propertyId))
 			{
-				Object value = itemProperty.getValue();
-				if (value != null)
+				values[i++] = getExportValue(entityResolver.getValue(entity, propertyId));
+			}
+			else
+			{
+				if (item == null)
 				{
-					final Object convertedValue = convert(value);
-					if (convertedValue != null)
-					{
-						values[i++] = sanitiseValue(convertedValue);
-					}
-					else
-					{
-						values[i++] = "";
-					}
+					item = grid.getContainerDataSource().getItem(id);
 				}
-				else
+				@SuppressWarnings("rawtypes")
+				final Property itemProperty = item.getItemProperty(propertyId);
+				if (itemProperty != null)
 				{
-					values[i++] = "";
+					values[i++] = getExportValue(itemProperty.getValue());
 				}
 			}
 		}
 
+		if (!extraColumnHeadersAndPropertyIds.isEmpty() && item == null)
+		{
+			item = grid.getContainerDataSource().getItem(id);
+		}
 		for (Object columnId : extraColumnHeadersAndPropertyIds.values())
 		{
 			String value = getValueForExtraColumn(item, columnId);
@@ -214,10 +382,23 @@ public class GridContainerCSVExport<E>
 			}
 			values[i++] = value;
 		}
-		writer.writeNext(values);
+		return values;
 
 	}
 
+	private String getExportValue(Object value)
+	{
+		if (value != null)
+		{
+			final Object convertedValue = convert(value);
+			if (convertedValue != null)
+			{
+				return sanitiseValue(convertedValue);
+			}
+		}
+		return "";
+	}
+
 	public Object convert(Object value)
 	{
 		return value;
@@ -244,11 +425,6 @@ public class GridContainerCSVExport<E>
 		return sanitisedValue;
 	}
 
-	private void writeHeaders(CSVWriter writer, List<String> headers)
-	{
-		writer.writeNext(headers.toArray(new String[] {}));
-	}
-
 	/**
 	 * propertyId's will later be passed to getValueForExtraColumn so it can
 	 * generate the data for a column
@@ -85,6 +85,8 @@ public class GridHeadingPropertySet<E> implements GridHeadingPropertySetIfc<E>
 
 		public AddingColumn<E> setConverter(Converter<String, ?> converter);
 
+		public AddingColumn<E> setExportValueGenerator(ExportValueGenerator<E> exportValueGenerator);
+
 		public Builder<E> addColumn();
 
 	}
@@ -121,6 +123,13 @@ public class GridHeadingPropertySet<E> implements GridHeadingPropertySetIfc<E>
 			return this;
 		}
 
+		@Override
+		public AddingColumn<E> setExportValueGenerator(ExportValueGenerator<E> exportValueGenerator)
+		{
+			columnBuilder.setExportValueGenerator(exportValueGenerator);
+			return this;
+		}
+
 		public void setEraseSavedConfig()
 		{
 			eraseSavedConfig = true;
@@ -583,6 +592,7 @@ public class GridHeadingPropertySet<E> implements GridHeadingPropertySetIfc<E>
 
 			if (!deferLoadSettings)
 			{
+				UserSettingsStorageFactory.prefetch(uniqueId + "-");
 				configureSaveColumnWidths(grid, uniqueId);
 				configureSaveColumnOrder(grid, uniqueId);
 				configureSaveColumnVisible(grid, uniqueId);
@@ -623,6 +633,7 @@ public class GridHeadingPropertySet<E> implements GridHeadingPropertySetIfc<E>
 	{
 		Preconditions.checkState(grid != null, "You must call applytoGrid first");
 
+		UserSettingsStorageFactory.prefetch(uniqueId + "-");
 		configureSaveColumnWidths(grid, uniqueId);
 		configureSaveColumnOrder(grid, uniqueId);
 		configureSaveColumnVisible(grid, uniqueId);
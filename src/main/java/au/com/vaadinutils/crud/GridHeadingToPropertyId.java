@@ -13,6 +13,7 @@ public class GridHeadingToPropertyId
 	private Integer width;
 	private boolean defaultVisibleState = true;
 	private boolean lockedState = false;
+	private ExportValueGenerator<?> exportValueGenerator;
 
 	private AbstractRenderer<?> renderer = null;
 	private Converter<String, ?> converter;
@@ -54,6 +55,7 @@ public class GridHeadingToPropertyId
 		private Integer width;
 		private boolean defaultVisibleState = true;
 		private boolean lockedState = false;
+		private ExportValueGenerator<?> exportValueGenerator = null;
 		private AbstractRenderer<?> renderer = null;
 		private Converter<String, ?> converter = null;
 
@@ -69,6 +71,7 @@ public class GridHeadingToPropertyId
 					defaultVisibleState, lockedState, width);
 			tmp.setRenderer(renderer);
 			tmp.setConverter(converter);
+			tmp.setExportValueGenerator(exportValueGenerator);
 			return tmp;
 		}
 
@@ -110,6 +113,13 @@ public class GridHeadingToPropertyId
 
 		}
 
+		public Builder setExportValueGenerator(ExportValueGenerator<?> exportValueGenerator)
+		{
+			this.exportValueGenerator = exportValueGenerator;
+			return this;
+
+		}
+
 	}
 
 	public GridHeadingToPropertyId setVisibleByDefault(final boolean defaultVisibleState)
@@ -130,6 +140,20 @@ public class GridHeadingToPropertyId
 
 	}
 
+	/**
+	 * Set the function used to get the plain text value of this column when it
+	 * is exported, this saves the export from reading the value through the
+	 * container and parsing the html out of it.
+	 * 
+	 * @param exportValueGenerator
+	 * @return
+	 */
+	public GridHeadingToPropertyId setExportValueGenerator(final ExportValueGenerator<?> exportValueGenerator)
+	{
+		this.exportValueGenerator = exportValueGenerator;
+		return this;
+	}
+
 	public GridHeadingToPropertyId setLocked()
 	{
 		lockedState = true;
@@ -192,4 +216,9 @@ public class GridHeadingToPropertyId
 	{
 		return converter;
 	}
+
+	public ExportValueGenerator<?> getExportValueGenerator()
+	{
+		return exportValueGenerator;
+	}
 }
@@ -70,6 +70,8 @@ public class HeadingPropertySet
 
 		public AddingColumn<E> setColumnGenerator(ColumnGenerator columnGenerator);
 
+		public AddingColumn<E> setExportValueGenerator(ExportValueGenerator<E> exportValueGenerator);
+
 	}
 
 	public static class Builder<E> implements AddingColumn<E>, Start<E>
@@ -177,6 +179,13 @@ public class HeadingPropertySet
 			return this;
 		}
 
+		@Override
+		public AddingColumn<E> setExportValueGenerator(ExportValueGenerator<E> exportValueGenerator)
+		{
+			columnBuilder.setExportValueGenerator(exportValueGenerator);
+			return this;
+		}
+
 		public <T extends Object> Builder<E> addColumn(final String heading,
 				final SingularAttribute<? super E, T> headingPropertyId, final boolean defaultVisibleState,
 				final boolean lockedState, int width)
@@ -638,6 +647,7 @@ public class HeadingPropertySet
 				eraseSavedConfig(uniqueTableId);
 			}
 
+			UserSettingsStorageFactory.prefetch(uniqueTableId + "-");
 			configureSaveColumnWidths(table, uniqueTableId);
 			configureSaveColumnOrder(table, uniqueTableId);
 			configureSaveColumnVisible(table, uniqueTableId);
@@ -13,6 +13,7 @@ public class HeadingToPropertyId
 	private Integer width;
 	private boolean defaultVisibleState = true;
 	private boolean lockedState = false;
+	private ExportValueGenerator<?> exportValueGenerator;
 
 	/**
 	 * Instantiates a new heading to property id.
@@ -50,6 +51,7 @@ public class HeadingToPropertyId
 		private Integer width;
 		private boolean defaultVisibleState = true;
 		private boolean lockedState = false;
+		private ExportValueGenerator<?> exportValueGenerator = null;
 
 		Builder(String heading, String propertyId)
 		{
@@ -59,8 +61,10 @@ public class HeadingToPropertyId
 
 		HeadingToPropertyId build()
 		{
-			return new HeadingToPropertyId(heading, propertyId, columnGenerator, defaultVisibleState, lockedState,
-					width);
+			HeadingToPropertyId tmp = new HeadingToPropertyId(heading, propertyId, columnGenerator,
+					defaultVisibleState, lockedState, width);
+			tmp.setExportValueGenerator(exportValueGenerator);
+			return tmp;
 		}
 
 		public Builder setLockedState(boolean lockedState)
@@ -87,6 +91,12 @@ public class HeadingToPropertyId
 			return this;
 		}
 
+		public Builder setExportValueGenerator(ExportValueGenerator<?> exportValueGenerator)
+		{
+			this.exportValueGenerator = exportValueGenerator;
+			return this;
+		}
+
 	}
 
 	public HeadingToPropertyId setVisibleByDefault(final boolean defaultVisibleState)
@@ -95,6 +105,20 @@ public class HeadingToPropertyId
 		return this;
 	}
 
+	/**
+	 * Set the function used to get the plain text value of this column when it
+	 * is exported, this saves the export from calling the column generator and
+	 * parsing the html out of the generated component.
+	 * 
+	 * @param exportValueGenerator
+	 * @return
+	 */
+	public HeadingToPropertyId setExportValueGenerator(final ExportValueGenerator<?> exportValueGenerator)
+	{
+		this.exportValueGenerator = exportValueGenerator;
+		return this;
+	}
+
 	public HeadingToPropertyId setLocked()
 	{
 		lockedState = true;
@@ -148,4 +172,9 @@ public class HeadingToPropertyId
 	{
 		return lockedState;
 	}
+
+	public ExportValueGenerator<?> getExportValueGenerator()
+	{
+		return exportValueGenerator;
+	}
 }
@@ -0,0 +1,260 @@
+package au.com.vaadinutils.crud;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.apache.logging.log4j.Logger;
+
+import com.vaadin.data.Container;
+import com.vaadin.server.StreamResource.StreamSource;
+import com.vaadin.ui.Notification;
+import com.vaadin.ui.Notification.Type;
+import com.vaadin.ui.UI;
+
+import au.com.bytecode.opencsv.CSVWriter;
+import au.com.vaadinutils.listener.ProgressListener;
+import au.com.vaadinutils.util.ExportJobService;
+import au.com.vaadinutils.util.PipedOutputStreamWrapper;
+
+/**
+ * A StreamSource that writes the csv rows straight into the download response
+ * via a PipedOutputStreamWrapper rather than building the whole file in memory
+ * first, so memory use stays flat regardless of the number of rows exported.
+ *
+ * The rows are read from the container in chunks of CHUNK_SIZE. Each chunk is
+ * rendered while holding the UI lock (so generated columns still see
+ * UI.getCurrent()), the lock is then released while the chunk is written to
+ * the pipe, so a slow client doesn't hold up the UI.
+ *
+ * getStream() is called by the FileDownloader while the session is locked, so
+ * the headers are rendered there and the rows are rendered on an
+ * ExportJobService download thread once the session has been released. The
+ * download pool doesn't queue, so the session is only held until the writer
+ * has written the headers, if the pool is full the download fails rather than
+ * waiting with the session locked.
+ *
+ * writeCSV() can also be called directly to write the csv to some other
+ * stream, e.g. from an ExportJob running in the background.
+ */
+abstract class StreamingCSVExportSource implements StreamSource
+{
+	private static final long serialVersionUID = 1L;
+
+	static final int CHUNK_SIZE = 500;
+
+	/**
+	 * how long getStream() waits, with the session locked, for the writer to
+	 * start
+	 */
+	static final int WRITER_START_SECONDS = 30;
+
+	private static final Logger logger = org.apache.logging.log4j.LogManager.getLogger();
+
+	private final UI ui;
+	private final Container container;
+
+	/**
+	 * only used for containers that aren't Container.Indexed, in which case we
+	 * can't page through the container so we take a copy of the ids up front.
+	 */
+	private List<?> itemIdSnapshot;
+
+	StreamingCSVExportSource(final UI ui, final Container container)
+	{
+		this.ui = ui;
+		this.container = container;
+	}
+
+	/**
+	 * called on the request thread while the session is locked
+	 */
+	abstract String[] getHeaders();
+
+	/**
+	 * called on the writer thread while the session is locked
+	 */
+	abstract String[] getRowValues(Object id);
+
+	@Override
+	public InputStream getStream()
+	{
+		final String[] headers = getHeaders();
+		snapshotItemIds();
+
+		final PipedOutputStreamWrapper pipe = new PipedOutputStreamWrapper();
+		final Future<?> writer;
+		try
+		{
+			writer = ExportJobService.stream(new Runnable()
+			{
+
+				@Override
+				public void run()
+				{
+					writeRows(pipe, headers);
+				}
+			});
+		}
+		catch (RejectedExecutionException e)
+		{
+			logger.warn("Export rejected, too many downloads are running");
+			Notification.show("There are too many exports running, please try again in a few minutes.",
+					Type.WARNING_MESSAGE);
+			return null;
+		}
+
+		try
+		{
+			pipe.waitForOutputToBeReady(WRITER_START_SECONDS, TimeUnit.SECONDS);
+			return pipe.getInputStream();
+		}
+		catch (TimeoutException e)
+		{
+			writer.cancel(true);
+			logger.error("The export's writer didn't start within {} seconds", WRITER_START_SECONDS);
+			return null;
+		}
+		catch (InterruptedException e)
+		{
+			writer.cancel(true);
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * must be called on the UI thread before calling writeCSV()
+	 */
+	void snapshotItemIds()
+	{
+		if (!(container instanceof Container.Indexed))
+		{
+			itemIdSnapshot = new ArrayList<>(container.getItemIds());
+		}
+	}
+
+	private void writeRows(final PipedOutputStreamWrapper pipe, final String[] headers)
+	{
+		try
+		{
+			writeCSV(pipe, headers, null);
+		}
+		catch (Throwable e)
+		{
+			// the download will be truncated, nothing more we can do as the
+			// response has already started.
+			logger.error(e, e);
+		}
+		finally
+		{
+			try
+			{
+				pipe.close();
+			}
+			catch (IOException e)
+			{
+				logger.error(e, e);
+			}
+			finally
+			{
+				pipe.writerFinished();
+			}
+		}
+	}
+
+	/**
+	 * Writes the headers and then the rows, a chunk at a time. Must not be
+	 * called while holding the UI lock. The stream is flushed but not closed.
+	 *
+	 * @param out
+	 * @param headers
+	 * @param progress
+	 *            - may be null, otherwise notified after each chunk
+	 * @throws IOException
+	 *             InterruptedIOException if the thread is interrupted
+	 */
+	void writeCSV(final OutputStream out, final String[] headers, final ProgressListener<String> progress)
+			throws IOException
+	{
+		@SuppressWarnings("resource")
+		final CSVWriter writer = new CSVWriter(new BufferedWriter(new OutputStreamWriter(out)));
+
+		// the reader is waiting for the first byte, so get the headers out
+		// before we go looking for the UI lock.
+		writer.writeNext(headers);
+		writer.flush();
+
+		final int[] total = new int[1];
+		int start = 0;
+		int rowsInChunk;
+		do
+		{
+			if (Thread.currentThread().isInterrupted())
+			{
+				throw new InterruptedIOException("Export cancelled after " + start + " rows");
+			}
+
+			final List<String[]> chunk = new ArrayList<>(CHUNK_SIZE);
+			final int chunkStart = start;
+			ui.accessSynchronously(new Runnable()
+			{
+
+				@Override
+				public void run()
+				{
+					total[0] = itemIdSnapshot != null ? itemIdSnapshot.size() : container.size();
+					for (Object id : getItemIds(chunkStart, CHUNK_SIZE))
+					{
+						chunk.add(getRowValues(id));
+					}
+				}
+			});
+
+			for (String[] row : chunk)
+			{
+				writer.writeNext(row);
+			}
+			rowsInChunk = chunk.size();
+			start += rowsInChunk;
+
+			if (progress != null)
+			{
+				progress.progress(start, total[0], "Exported " + start + " of " + total[0] + " rows");
+			}
+		}
+		while (rowsInChunk == CHUNK_SIZE);
+
+		writer.flush();
+		logger.info("Exported {} rows", start);
+	}
+
+	private List<?> getItemIds(final int start, final int count)
+	{
+		if (itemIdSnapshot != null)
+		{
+			if (start >= itemIdSnapshot.size())
+			{
+				return Collections.emptyList();
+			}
+			return itemIdSnapshot.subList(start, Math.min(itemIdSnapshot.size(), start + count));
+		}
+
+		final int size = container.size();
+		if (start >= size)
+		{
+			return Collections.emptyList();
+		}
+		return ((Container.Indexed) container).getItemIds(start, Math.min(count, size - start));
+	}
+}
@@ -1,7 +1,9 @@
 package au.com.vaadinutils.crud.events;
 
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import au.com.vaadinutils.audit.AuditFactory;
 import au.com.vaadinutils.crud.BaseCrudView;
@@ -17,6 +19,11 @@ public enum CrudEventDistributer
 
 	Map<Class<? extends BaseCrudView<?>>, ListenerManager<CrudEventListener>> listeners = new ConcurrentHashMap<>();
 
+	/**
+	 * notified of the events published by every view
+	 */
+	List<CrudEventListener> globalListeners = new CopyOnWriteArrayList<>();
+
 	public static synchronized void addListener(Class<? extends BaseCrudView<?>> type, CrudEventListener listener)
 	{
 		ListenerManager<CrudEventListener> list = SELF.listeners.get(type);
@@ -39,6 +46,21 @@ public enum CrudEventDistributer
 
 	}
 
+	/**
+	 * Add a listener that is notified of events from all views, e.g. to
+	 * invalidate a cache of the entity type. The listener is called on the
+	 * publishing thread so it should return quickly.
+	 */
+	public static void addGlobalListener(CrudEventListener listener)
+	{
+		SELF.globalListeners.add(listener);
+	}
+
+	public static void removeGlobalListener(CrudEventListener listener)
+	{
+		SELF.globalListeners.remove(listener);
+	}
+
 	public static <T extends CrudEntity> void publishEvent(BaseCrudView<T> view, final CrudEventType event,
 			final T entity)
 	{
@@ -57,6 +79,11 @@ public enum CrudEventDistributer
 
 		}
 
+		for (CrudEventListener listener : SELF.globalListeners)
+		{
+			listener.crudEvent(event, entity);
+		}
+
 		AuditFactory.getAuditor().audit(event, entity);
 	}
 }
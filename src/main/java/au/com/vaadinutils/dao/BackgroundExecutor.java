@@ -0,0 +1,242 @@
+package au.com.vaadinutils.dao;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.logging.log4j.Logger;
+
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * A single, bounded pool shared by all of the background work started by
+ * VaadinUtils (EntityManagerThread, WorkingDialog, PooledProgressBarWorker and
+ * post transaction actions) so that we don't create and destroy a thread for
+ * every unit of work.
+ *
+ * Tasks passed to submit() run with their own EntityManager and transaction,
+ * tasks passed to execute() run as is.
+ *
+ * The pool can be sized by calling configure() during application startup.
+ * Once all threads are busy and the queue is full new tasks are rejected with
+ * a RejectedExecutionException, which callers pass on to their caller.
+ * When running on a JDK that has virtual threads they can be used in place of
+ * platform threads by calling setUseVirtualThreads(true), the pool still
+ * bounds the number of tasks running at once.
+ *
+ * The pool should be shutdown from your ServletContextListener (
+ * VUEntityManagerContextListener does this for you).
+ */
+public enum BackgroundExecutor
+{
+	INSTANCE;
+
+	private static final Logger logger = org.apache.logging.log4j.LogManager.getLogger();
+
+	public static final int DEFAULT_MAX_THREADS = 20;
+	public static final int DEFAULT_MAX_QUEUED_TASKS = 500;
+
+	private static final String THREAD_NAME = "Background Worker-";
+
+	/**
+	 * what to do with a task when all threads are busy and the queue is full
+	 */
+	public enum RejectionPolicy
+	{
+		/**
+		 * throw a RejectedExecutionException, the default
+		 */
+		ABORT,
+		/**
+		 * run the task on the thread that submitted it. Beware that this is
+		 * often a UI thread holding the session lock, and that a task passed
+		 * to submit() then shares the caller's EntityManager and transaction.
+		 */
+		CALLER_RUNS;
+
+		RejectedExecutionHandler getHandler()
+		{
+			if (this == CALLER_RUNS)
+			{
+				return new ThreadPoolExecutor.CallerRunsPolicy();
+			}
+			return new ThreadPoolExecutor.AbortPolicy();
+		}
+	}
+
+	private int maxThreads = DEFAULT_MAX_THREADS;
+	private int maxQueuedTasks = DEFAULT_MAX_QUEUED_TASKS;
+	private RejectionPolicy rejectionPolicy = RejectionPolicy.ABORT;
+	private boolean useVirtualThreads = false;
+
+	private ThreadPoolExecutor executor;
+
+	/**
+	 * Set the size of the pool, the number of tasks that may wait for a thread
+	 * and what happens to tasks once the queue is full. Tasks that are already
+	 * running or queued are not affected.
+	 *
+	 * @param maxThreads
+	 * @param maxQueuedTasks
+	 * @param rejectionPolicy
+	 */
+	public static void configure(int maxThreads, int maxQueuedTasks, RejectionPolicy rejectionPolicy)
+	{
+		Preconditions.checkArgument(maxThreads > 0, "maxThreads must be greater than zero");
+		Preconditions.checkArgument(maxQueuedTasks > 0, "maxQueuedTasks must be greater than zero");
+		Preconditions.checkNotNull(rejectionPolicy, "rejectionPolicy may not be null");
+		synchronized (INSTANCE)
+		{
+			INSTANCE.maxThreads = maxThreads;
+			INSTANCE.maxQueuedTasks = maxQueuedTasks;
+			INSTANCE.rejectionPolicy = rejectionPolicy;
+			INSTANCE.discardExecutor();
+		}
+	}
+
+	/**
+	 * Use virtual threads if the JDK supports them, otherwise this is ignored
+	 * and platform threads are used.
+	 *
+	 * @param useVirtualThreads
+	 */
+	public static void setUseVirtualThreads(boolean useVirtualThreads)
+	{
+		synchronized (INSTANCE)
+		{
+			INSTANCE.useVirtualThreads = useVirtualThreads;
+			INSTANCE.discardExecutor();
+		}
+	}
+
+	/**
+	 * stops accepting new tasks, running and queued tasks are allowed to
+	 * finish.
+	 */
+	public static void shutdown()
+	{
+		synchronized (INSTANCE)
+		{
+			INSTANCE.discardExecutor();
+		}
+	}
+
+	/**
+	 * Run the callable on the pool with its own EntityManager and transaction.
+	 *
+	 * @param callable
+	 * @return
+	 * @throws RejectedExecutionException
+	 *             if the pool and its queue are full and the rejection policy
+	 *             is ABORT
+	 */
+	public static <T> Future<T> submit(final Callable<T> callable) throws RejectedExecutionException
+	{
+		return INSTANCE.getExecutor().submit(EntityManagerProvider.setThreadLocalEntityManager(callable));
+	}
+
+	/**
+	 * Run the runnable on the pool with its own EntityManager and transaction.
+	 *
+	 * @param runnable
+	 * @return
+	 * @throws RejectedExecutionException
+	 *             if the pool and its queue are full and the rejection policy
+	 *             is ABORT
+	 */
+	public static Future<?> submit(final Runnable runnable) throws RejectedExecutionException
+	{
+		return INSTANCE.getExecutor().submit(EntityManagerProvider.setThreadLocalEntityManager(runnable));
+	}
+
+	/**
+	 * Run the runnable on the pool without setting up an EntityManager, use
+	 * this when the runnable manages its own (e.g. an EntityManagerRunnable).
+	 *
+	 * @param runnable
+	 * @throws RejectedExecutionException
+	 *             if the pool and its queue are full and the rejection policy
+	 *             is ABORT
+	 */
+	public static void execute(final Runnable runnable) throws RejectedExecutionException
+	{
+		INSTANCE.getExecutor().execute(runnable);
+	}
+
+	/**
+	 * the number of tasks waiting for a thread
+	 */
+	public static int getQueueDepth()
+	{
+		synchronized (INSTANCE)
+		{
+			return INSTANCE.executor == null ? 0 : INSTANCE.executor.getQueue().size();
+		}
+	}
+
+	/**
+	 * the number of threads currently running a task
+	 */
+	public static int getActiveCount()
+	{
+		synchronized (INSTANCE)
+		{
+			return INSTANCE.executor == null ? 0 : INSTANCE.executor.getActiveCount();
+		}
+	}
+
+	private ThreadPoolExecutor getExecutor()
+	{
+		synchronized (INSTANCE)
+		{
+			if (executor == null)
+			{
+				executor = new ThreadPoolExecutor(maxThreads, maxThreads, 60, TimeUnit.SECONDS,
+						new ArrayBlockingQueue<Runnable>(maxQueuedTasks), createThreadFactory(),
+						rejectionPolicy.getHandler());
+				executor.allowCoreThreadTimeOut(true);
+			}
+			return executor;
+		}
+	}
+
+	private void discardExecutor()
+	{
+		if (executor != null)
+		{
+			executor.shutdown();
+			executor = null;
+		}
+	}
+
+	private ThreadFactory createThreadFactory()
+	{
+		if (useVirtualThreads)
+		{
+			// Thread.ofVirtual() only exists from java 21, we compile against
+			// java 8 so look it up reflectively.
+			try
+			{
+				final Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+				Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+				builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, THREAD_NAME, 0L);
+				return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+			}
+			catch (ClassNotFoundException | NoSuchMethodException e)
+			{
+				logger.warn("Virtual threads are not supported by this JDK, using platform threads");
+			}
+			catch (Exception e)
+			{
+				logger.error("Unable to create virtual thread factory, using platform threads", e);
+			}
+		}
+		return new ThreadFactoryBuilder().setNameFormat(THREAD_NAME + "%d").setDaemon(true).build();
+	}
+}
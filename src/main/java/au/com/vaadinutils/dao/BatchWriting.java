@@ -0,0 +1,290 @@
+package au.com.vaadinutils.dao;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+import javax.persistence.EntityManagerFactory;
+
+import org.apache.logging.log4j.Logger;
+import org.eclipse.persistence.config.PersistenceUnitProperties;
+import org.eclipse.persistence.descriptors.ClassDescriptor;
+import org.eclipse.persistence.descriptors.DescriptorEvent;
+import org.eclipse.persistence.descriptors.DescriptorEventAdapter;
+import org.eclipse.persistence.jpa.JpaHelper;
+import org.eclipse.persistence.sessions.server.Server;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Groups the inserts, updates and deletes made while saving a crud and its
+ * children into JDBC batches.
+ *
+ * Pass getProperties() to Persistence.createEntityManagerFactory() to turn on
+ * EclipseLink batch writing (or set eclipselink.jdbc.batch-writing to JDBC in
+ * persistence.xml), then call enable() once the EntityManagerFactory has been
+ * created. Then wrap the writes in a scope:
+ *
+ * <pre>
+ * <code>
+ * try (BatchWriting.Scope batch = BatchWriting.begin())
+ * {
+ *     ... commit the containers
+ *     EntityManagerProvider.getEntityManager().flush();
+ *     logger.info(batch.getStatistics());
+ * }
+ * </code>
+ * </pre>
+ *
+ * While a scope is open BatchingPerRequestEntityProvider writes into the
+ * current transaction without flushing each row, so EclipseLink can send the
+ * rows for each table as one batch when the transaction is flushed.
+ *
+ * Entities whose id is generated by an IDENTITY column can't be batch inserted,
+ * EclipseLink has to insert them one at a time to get the id. They are flushed
+ * as they are added, as the container needs their id.
+ *
+ * If enable() hasn't been called begin() returns a scope that does nothing.
+ */
+public class BatchWriting
+{
+	private static final Logger logger = org.apache.logging.log4j.LogManager.getLogger();
+
+	public static final int DEFAULT_BATCH_SIZE = 100;
+
+	private static volatile boolean enabled = false;
+
+	private static final Set<EntityManagerFactory> configured = Collections
+			.newSetFromMap(new WeakHashMap<EntityManagerFactory, Boolean>());
+
+	private static final ThreadLocal<Statistics> currentScope = new ThreadLocal<>();
+
+	private BatchWriting()
+	{
+	}
+
+	public static Map<String, Object> getProperties()
+	{
+		return getProperties(DEFAULT_BATCH_SIZE);
+	}
+
+	/**
+	 * the persistence unit properties that turn on JDBC batch writing, pass
+	 * them to Persistence.createEntityManagerFactory()
+	 *
+	 * @param batchSize
+	 *            the maximum number of statements sent in one batch
+	 */
+	public static Map<String, Object> getProperties(final int batchSize)
+	{
+		Preconditions.checkArgument(batchSize > 1, "batchSize must be greater than one");
+
+		final Map<String, Object> properties = new HashMap<>();
+		properties.put(PersistenceUnitProperties.BATCH_WRITING, org.eclipse.persistence.config.BatchWriting.JDBC);
+		properties.put(PersistenceUnitProperties.BATCH_WRITING_SIZE, Integer.toString(batchSize));
+		return properties;
+	}
+
+	/**
+	 * starts counting the rows written inside a scope and lets
+	 * BatchingPerRequestEntityProvider defer its writes to the scope's flush.
+	 *
+	 * @param emf
+	 *            created with batch writing turned on, see getProperties()
+	 */
+	public static void enable(final EntityManagerFactory emf)
+	{
+		Preconditions.checkNotNull(emf, "emf may not be null");
+
+		final Server session = JpaHelper.getServerSession(emf);
+		if (!session.getLogin().isJDBCBatchWriting())
+		{
+			logger.warn("JDBC batch writing isn't turned on for the EntityManagerFactory, set "
+					+ PersistenceUnitProperties.BATCH_WRITING + " to JDBC");
+		}
+
+		synchronized (configured)
+		{
+			if (configured.add(emf))
+			{
+				final StatementCounter counter = new StatementCounter();
+				for (ClassDescriptor descriptor : session.getDescriptors().values())
+				{
+					descriptor.getEventManager().addListener(counter);
+				}
+			}
+		}
+		enabled = true;
+		logger.info("Batch writing enabled, batch size {}", session.getLogin().getMaxBatchWritingSize());
+	}
+
+	public static boolean isEnabled()
+	{
+		return enabled;
+	}
+
+	/**
+	 * opens a scope on the current thread, scopes may be nested in which case
+	 * the inner scope shares the outer scope's statistics.
+	 */
+	public static Scope begin()
+	{
+		if (!enabled)
+		{
+			return new Scope(null, false);
+		}
+		final Statistics outer = currentScope.get();
+		if (outer != null)
+		{
+			return new Scope(outer, false);
+		}
+		final Statistics statistics = new Statistics();
+		currentScope.set(statistics);
+		return new Scope(statistics, true);
+	}
+
+	/**
+	 * true if a scope is open on the current thread, so writes should be left
+	 * for the scope's flush rather than being flushed one at a time.
+	 */
+	static boolean isDeferringWrites()
+	{
+		return currentScope.get() != null;
+	}
+
+	public static class Scope implements AutoCloseable
+	{
+		private final Statistics statistics;
+		private final boolean owner;
+
+		private Scope(final Statistics statistics, final boolean owner)
+		{
+			this.statistics = statistics;
+			this.owner = owner;
+		}
+
+		/**
+		 * @return the rows written so far, null if batch writing isn't
+		 *         enabled
+		 */
+		public Statistics getStatistics()
+		{
+			return statistics;
+		}
+
+		@Override
+		public void close()
+		{
+			if (owner)
+			{
+				currentScope.remove();
+			}
+		}
+	}
+
+	/**
+	 * The number of insert, update and delete statements issued for each
+	 * entity type within a scope.
+	 */
+	public static class Statistics
+	{
+		private final Map<Class<?>, int[]> counts = new LinkedHashMap<>();
+
+		private static final int INSERT = 0;
+		private static final int UPDATE = 1;
+		private static final int DELETE = 2;
+
+		private void increment(final Class<?> entityClass, final int type)
+		{
+			int[] count = counts.get(entityClass);
+			if (count == null)
+			{
+				count = new int[3];
+				counts.put(entityClass, count);
+			}
+			count[type]++;
+		}
+
+		public int getInserts(final Class<?> entityClass)
+		{
+			return get(entityClass, INSERT);
+		}
+
+		public int getUpdates(final Class<?> entityClass)
+		{
+			return get(entityClass, UPDATE);
+		}
+
+		public int getDeletes(final Class<?> entityClass)
+		{
+			return get(entityClass, DELETE);
+		}
+
+		public int getTotal()
+		{
+			int total = 0;
+			for (int[] count : counts.values())
+			{
+				total += count[INSERT] + count[UPDATE] + count[DELETE];
+			}
+			return total;
+		}
+
+		private int get(final Class<?> entityClass, final int type)
+		{
+			final int[] count = counts.get(entityClass);
+			return count == null ? 0 : count[type];
+		}
+
+		@Override
+		public String toString()
+		{
+			final StringBuilder sb = new StringBuilder();
+			for (Entry<Class<?>, int[]> entry : counts.entrySet())
+			{
+				if (sb.length() > 0)
+				{
+					sb.append(", ");
+				}
+				sb.append(entry.getKey().getSimpleName()).append(": ").append(entry.getValue()[INSERT])
+						.append(" inserts ").append(entry.getValue()[UPDATE]).append(" updates ")
+						.append(entry.getValue()[DELETE]).append(" deletes");
+			}
+			return sb.toString();
+		}
+	}
+
+	private static class StatementCounter extends DescriptorEventAdapter
+	{
+		@Override
+		public void postInsert(final DescriptorEvent event)
+		{
+			count(event, Statistics.INSERT);
+		}
+
+		@Override
+		public void postUpdate(final DescriptorEvent event)
+		{
+			count(event, Statistics.UPDATE);
+		}
+
+		@Override
+		public void postDelete(final DescriptorEvent event)
+		{
+			count(event, Statistics.DELETE);
+		}
+
+		private void count(final DescriptorEvent event, final int type)
+		{
+			final Statistics statistics = currentScope.get();
+			if (statistics != null)
+			{
+				statistics.increment(event.getDescriptor().getJavaClass(), type);
+			}
+		}
+	}
+}
@@ -16,19 +16,32 @@
 
 package au.com.vaadinutils.dao;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
 import javax.persistence.EntityManager;
 
 import com.vaadin.addon.jpacontainer.BatchableEntityProvider;
 import com.vaadin.addon.jpacontainer.CachingEntityProvider;
+import com.vaadin.addon.jpacontainer.EntityContainer;
+import com.vaadin.addon.jpacontainer.SortBy;
 import com.vaadin.addon.jpacontainer.provider.BatchUpdatePerformedEvent;
 import com.vaadin.addon.jpacontainer.provider.BatchableLocalEntityProvider;
 import com.vaadin.addon.jpacontainer.provider.CachingMutableLocalEntityProvider;
+import com.vaadin.data.Container.Filter;
+import com.vaadin.data.util.filter.And;
 
 /**
  * A very simple implementation of {@link BatchableEntityProvider} with caching
  * support that simply passes itself to the {@link BatchUpdateCallback}. No data
  * consistency checks are performed.
  * 
+ * Rows loaded on another thread can be handed to the provider with
+ * setPrefetched(), the container's queries for the same filter and sort order
+ * are then answered from them until the provider is refreshed or written to.
+ * 
  * @see CachingMutableLocalEntityProvider
  * @see BatchableLocalEntityProvider
  * 
@@ -58,14 +71,44 @@ public class BatchingPerRequestEntityProvider<T> extends CachingMutableLocalEnti
 
 
 	static private ThreadLocal<Integer> updating = new ThreadLocal<Integer>();
+
+	/**
+	 * the sort order of the container's last query, so a prefetch can use the
+	 * same order
+	 */
+	private transient List<SortBy> lastSortBy;
+
+	private transient Prefetched<T> prefetched;
+
+	private static class Prefetched<T>
+	{
+		final Filter filter;
+		final List<SortBy> sortBy;
+		final List<Object> ids;
+		final Map<Object, T> entities;
+
+		Prefetched(final Filter filter, final List<SortBy> sortBy, final List<Object> ids, final Map<Object, T> entities)
+		{
+			this.filter = filter;
+			this.sortBy = sortBy;
+			this.ids = ids;
+			this.entities = entities;
+		}
+	}
 	
 	public void batchUpdate(final BatchUpdateCallback<T> callback) throws UnsupportedOperationException
 	{
 		assert callback != null : "callback must not be null";
+		clearPrefetched();
 		if (updating.get()== null)
 		{
 			updating.set(1);
-			getEntityManager().getTransaction().commit();
+			// inside a BatchWriting scope the writes join the current
+			// transaction so they can be batched with the rest of the save
+			if (!BatchWriting.isDeferringWrites())
+			{
+				getEntityManager().getTransaction().commit();
+			}
 		}
 		setFireEntityProviderChangeEvents(false);
 		try
@@ -86,7 +129,10 @@ public class BatchingPerRequestEntityProvider<T> extends CachingMutableLocalEnti
 			updating.set(count);
 			if (count == 0)
 			{
-				getEntityManager().getTransaction().begin();
+				if (!getEntityManager().getTransaction().isActive())
+				{
+					getEntityManager().getTransaction().begin();
+				}
 				updating.set(null);
 			}
 			setFireEntityProviderChangeEvents(true);
@@ -94,6 +140,72 @@ public class BatchingPerRequestEntityProvider<T> extends CachingMutableLocalEnti
 		fireEntityProviderChangeEvent(new BatchUpdatePerformedEvent<T>(this));
 	}
 
+	/**
+	 * inside a BatchWriting scope rows aren't flushed one at a time, they are
+	 * written when the scope flushes so EclipseLink can batch them.
+	 */
+	private boolean isDeferringWrites()
+	{
+		return updating.get() != null && BatchWriting.isDeferringWrites();
+	}
+
+	private void clearEntityCache()
+	{
+		// this clears the provider's cache, it doesn't flush the EntityManager
+		flush();
+	}
+
+	@Override
+	public T addEntity(final T entity)
+	{
+		clearPrefetched();
+		if (!isDeferringWrites())
+		{
+			return super.addEntity(entity);
+		}
+		final EntityManager em = getEntityManager();
+		final T dbEntity = em.merge(entity);
+		if (em.getEntityManagerFactory().getPersistenceUnitUtil().getIdentifier(dbEntity) == null)
+		{
+			// an IDENTITY id is only assigned by the insert, and the container
+			// needs the id of the new item
+			em.flush();
+		}
+		clearEntityCache();
+		return detachEntity(dbEntity);
+	}
+
+	@Override
+	public T updateEntity(final T entity)
+	{
+		clearPrefetched();
+		if (!isDeferringWrites())
+		{
+			return super.updateEntity(entity);
+		}
+		final T dbEntity = getEntityManager().merge(entity);
+		clearEntityCache();
+		return detachEntity(dbEntity);
+	}
+
+	@Override
+	public void removeEntity(final Object entityId)
+	{
+		clearPrefetched();
+		if (!isDeferringWrites())
+		{
+			super.removeEntity(entityId);
+			return;
+		}
+		final EntityManager em = getEntityManager();
+		final T entity = em.find(getEntityClassMetadata().getMappedClass(), entityId);
+		if (entity != null)
+		{
+			em.remove(entity);
+		}
+		clearEntityCache();
+	}
+
 //	protected EntityManager doGetEntityManager() throws IllegalStateException
 //	{
 //		return em;
@@ -104,6 +216,222 @@ public class BatchingPerRequestEntityProvider<T> extends CachingMutableLocalEnti
 //		return em;
 //	}
 
+	/**
+	 * The container's queries for the filter and sort order are answered from
+	 * the ids and entities until clearPrefetched() is called, or the provider
+	 * is refreshed or written to. Call this on the thread that owns the
+	 * container (i.e. from UI.access()).
+	 *
+	 * @param filter
+	 *            the filter the rows were loaded with
+	 * @param sortBy
+	 *            the order of the ids
+	 * @param ids
+	 *            all of the ids that match the filter
+	 * @param entities
+	 *            the entities for some or all of the ids, the rest are loaded
+	 *            as normal
+	 */
+	public void setPrefetched(final Filter filter, final List<SortBy> sortBy, final List<Object> ids,
+			final Map<Object, T> entities)
+	{
+		prefetched = new Prefetched<>(filter, sortBy, new ArrayList<>(ids), entities);
+	}
+
+	public void clearPrefetched()
+	{
+		prefetched = null;
+	}
+
+	/**
+	 * @return the sort order of the container's last query, or null if the
+	 *         container hasn't been queried yet
+	 */
+	public List<SortBy> getLastSortBy()
+	{
+		return lastSortBy;
+	}
+
+	private Prefetched<T> getPrefetched(final Filter filter)
+	{
+		final Prefetched<T> current = prefetched;
+		if (current != null && isSameFilter(current.filter, filter))
+		{
+			return current;
+		}
+		return null;
+	}
+
+	private Prefetched<T> getPrefetched(final Filter filter, final List<SortBy> sortBy)
+	{
+		lastSortBy = sortBy == null ? null : new ArrayList<>(sortBy);
+		final Prefetched<T> current = getPrefetched(filter);
+		if (current != null && isSameSortBy(current.sortBy, sortBy))
+		{
+			return current;
+		}
+		return null;
+	}
+
+	private static boolean isSameFilter(final Filter expected, final Filter filter)
+	{
+		if (expected.equals(filter))
+		{
+			return true;
+		}
+		// a single filter may be passed in a conjunction
+		return filter instanceof And && ((And) filter).getFilters().size() == 1
+				&& expected.equals(((And) filter).getFilters().iterator().next());
+	}
+
+	private static boolean isSameSortBy(final List<SortBy> expected, final List<SortBy> sortBy)
+	{
+		final List<SortBy> a = expected == null ? Collections.<SortBy> emptyList() : expected;
+		final List<SortBy> b = sortBy == null ? Collections.<SortBy> emptyList() : sortBy;
+		if (a.size() != b.size())
+		{
+			return false;
+		}
+		for (int i = 0; i < a.size(); i++)
+		{
+			if (!a.get(i).getPropertyId().equals(b.get(i).getPropertyId())
+					|| a.get(i).isAscending() != b.get(i).isAscending())
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public int getEntityCount(EntityContainer<T> container, Filter filter)
+	{
+		final Prefetched<T> current = getPrefetched(filter);
+		if (current != null)
+		{
+			return current.ids.size();
+		}
+		return super.getEntityCount(container, filter);
+	}
+
+	@Override
+	public List<Object> getAllEntityIdentifiers(EntityContainer<T> container, Filter filter, List<SortBy> sortBy)
+	{
+		final Prefetched<T> current = getPrefetched(filter, sortBy);
+		if (current != null)
+		{
+			return new ArrayList<>(current.ids);
+		}
+		return super.getAllEntityIdentifiers(container, filter, sortBy);
+	}
+
+	@Override
+	public Object getEntityIdentifierAt(EntityContainer<T> container, Filter filter, List<SortBy> sortBy, int index)
+	{
+		final Prefetched<T> current = getPrefetched(filter, sortBy);
+		if (current != null)
+		{
+			return index >= 0 && index < current.ids.size() ? current.ids.get(index) : null;
+		}
+		return super.getEntityIdentifierAt(container, filter, sortBy, index);
+	}
+
+	@Override
+	public Object getFirstEntityIdentifier(EntityContainer<T> container, Filter filter, List<SortBy> sortBy)
+	{
+		final Prefetched<T> current = getPrefetched(filter, sortBy);
+		if (current != null)
+		{
+			return current.ids.isEmpty() ? null : current.ids.get(0);
+		}
+		return super.getFirstEntityIdentifier(container, filter, sortBy);
+	}
+
+	@Override
+	public Object getLastEntityIdentifier(EntityContainer<T> container, Filter filter, List<SortBy> sortBy)
+	{
+		final Prefetched<T> current = getPrefetched(filter, sortBy);
+		if (current != null)
+		{
+			return current.ids.isEmpty() ? null : current.ids.get(current.ids.size() - 1);
+		}
+		return super.getLastEntityIdentifier(container, filter, sortBy);
+	}
+
+	@Override
+	public Object getNextEntityIdentifier(EntityContainer<T> container, Object entityId, Filter filter,
+			List<SortBy> sortBy)
+	{
+		final Prefetched<T> current = getPrefetched(filter, sortBy);
+		if (current != null)
+		{
+			final int index = current.ids.indexOf(entityId);
+			return index < 0 || index + 1 >= current.ids.size() ? null : current.ids.get(index + 1);
+		}
+		return super.getNextEntityIdentifier(container, entityId, filter, sortBy);
+	}
+
+	@Override
+	public Object getPreviousEntityIdentifier(EntityContainer<T> container, Object entityId, Filter filter,
+			List<SortBy> sortBy)
+	{
+		final Prefetched<T> current = getPrefetched(filter, sortBy);
+		if (current != null)
+		{
+			final int index = current.ids.indexOf(entityId);
+			return index <= 0 ? null : current.ids.get(index - 1);
+		}
+		return super.getPreviousEntityIdentifier(container, entityId, filter, sortBy);
+	}
+
+	@Override
+	public boolean containsEntity(EntityContainer<T> container, Object entityId, Filter filter)
+	{
+		final Prefetched<T> current = getPrefetched(filter);
+		if (current != null)
+		{
+			return current.ids.contains(entityId);
+		}
+		return super.containsEntity(container, entityId, filter);
+	}
+
+	@Override
+	public T getEntity(EntityContainer<T> container, Object entityId)
+	{
+		final Prefetched<T> current = prefetched;
+		if (current != null)
+		{
+			final T entity = current.entities.get(entityId);
+			if (entity != null)
+			{
+				return entity;
+			}
+		}
+		return super.getEntity(container, entityId);
+	}
+
+	@Override
+	public void refresh()
+	{
+		clearPrefetched();
+		super.refresh();
+	}
+
+	@Override
+	public T refreshEntity(T entity)
+	{
+		clearPrefetched();
+		return super.refreshEntity(entity);
+	}
+
+	@Override
+	public void updateEntityProperty(Object entityId, String propertyName, Object propertyValue)
+			throws IllegalArgumentException
+	{
+		clearPrefetched();
+		super.updateEntityProperty(entityId, propertyName, propertyValue);
+	}
+
 	protected EntityManager doGetEntityManager() throws IllegalStateException
 	{
 		return EntityManagerProvider.getEntityManager();
@@ -0,0 +1,117 @@
+package au.com.vaadinutils.dao;
+
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.persistence.Cache;
+import javax.persistence.EntityManagerFactory;
+
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Evicts entities from the shared (second level) cache, by id where the ids
+ * are known so that a bulk update of a few rows doesn't empty the cache of
+ * the whole class for every user.
+ *
+ * Keeps counts of the evictions for monitoring.
+ */
+public class CacheEvictor
+{
+	private static final Logger logger = org.apache.logging.log4j.LogManager.getLogger();
+
+	public static final int DEFAULT_MAX_KEY_EVICTIONS = 1000;
+
+	private static volatile int maxKeyEvictions = DEFAULT_MAX_KEY_EVICTIONS;
+
+	private static final AtomicLong keyEvictions = new AtomicLong();
+	private static final AtomicLong classEvictions = new AtomicLong();
+	private static final AtomicLong fullEvictions = new AtomicLong();
+
+	private CacheEvictor()
+	{
+	}
+
+	/**
+	 * above this many ids the whole class is evicted instead, as evicting them
+	 * one at a time would cost more than reloading the class.
+	 *
+	 * @param maxKeyEvictions
+	 */
+	public static void setMaxKeyEvictions(final int maxKeyEvictions)
+	{
+		CacheEvictor.maxKeyEvictions = maxKeyEvictions;
+	}
+
+	public static int getMaxKeyEvictions()
+	{
+		return maxKeyEvictions;
+	}
+
+	/**
+	 * evicts the given ids, or the whole class if ids is null or has more than
+	 * getMaxKeyEvictions() elements.
+	 *
+	 * @param emf
+	 * @param entityClass
+	 * @param ids
+	 */
+	public static void evict(final EntityManagerFactory emf, final Class<?> entityClass, final Collection<?> ids)
+	{
+		if (ids == null || ids.size() > maxKeyEvictions)
+		{
+			evict(emf, entityClass);
+			return;
+		}
+
+		final Cache cache = emf.getCache();
+		for (Object id : ids)
+		{
+			cache.evict(entityClass, id);
+		}
+		keyEvictions.addAndGet(ids.size());
+		logger.debug("Evicted {} {} from the cache", ids.size(), entityClass.getSimpleName());
+	}
+
+	public static void evictId(final EntityManagerFactory emf, final Class<?> entityClass, final Object id)
+	{
+		emf.getCache().evict(entityClass, id);
+		keyEvictions.incrementAndGet();
+	}
+
+	public static void evict(final EntityManagerFactory emf, final Class<?> entityClass)
+	{
+		emf.getCache().evict(entityClass);
+		classEvictions.incrementAndGet();
+		logger.debug("Evicted all {} from the cache", entityClass.getSimpleName());
+	}
+
+	public static void evictAll(final EntityManagerFactory emf)
+	{
+		emf.getCache().evictAll();
+		fullEvictions.incrementAndGet();
+	}
+
+	/**
+	 * the number of individual entities evicted
+	 */
+	public static long getKeyEvictions()
+	{
+		return keyEvictions.get();
+	}
+
+	/**
+	 * the number of times a whole class has been evicted
+	 */
+	public static long getClassEvictions()
+	{
+		return classEvictions.get();
+	}
+
+	/**
+	 * the number of times the whole cache has been evicted
+	 */
+	public static long getFullEvictions()
+	{
+		return fullEvictions.get();
+	}
+}
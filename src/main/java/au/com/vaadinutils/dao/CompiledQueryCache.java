@@ -0,0 +1,121 @@
+package au.com.vaadinutils.dao;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.TypedQuery;
+import javax.persistence.criteria.CriteriaQuery;
+
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Keeps the queries of builders marked with JpaDslAbstract.cacheable() as
+ * named queries on the EntityManagerFactory, so EclipseLink only translates
+ * the criteria to sql the first time a given query shape is run.
+ *
+ * Named queries can't be removed from an EntityManagerFactory, so once
+ * MAX_QUERIES shapes have been registered any new shapes are run without being
+ * cached.
+ */
+public class CompiledQueryCache
+{
+	private static final Logger logger = org.apache.logging.log4j.LogManager.getLogger();
+
+	static final int MAX_QUERIES = 1000;
+
+	private static final Map<EntityManagerFactory, Set<String>> registered = Collections
+			.synchronizedMap(new WeakHashMap<EntityManagerFactory, Set<String>>());
+
+	private static final AtomicLong hits = new AtomicLong();
+	private static final AtomicLong misses = new AtomicLong();
+	private static final AtomicLong uncached = new AtomicLong();
+
+	private CompiledQueryCache()
+	{
+	}
+
+	/**
+	 *
+	 * @param em
+	 * @param name
+	 *            - the name the query is registered under
+	 * @param criteria
+	 *            - only used the first time the name is seen
+	 * @return a new query, parameters are yet to be bound
+	 */
+	static <R> TypedQuery<R> createQuery(final EntityManager em, final String name, final CriteriaQuery<R> criteria)
+	{
+		final EntityManagerFactory emf = em.getEntityManagerFactory();
+
+		Set<String> names;
+		synchronized (registered)
+		{
+			names = registered.get(emf);
+			if (names == null)
+			{
+				names = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+				registered.put(emf, names);
+			}
+		}
+
+		if (names.contains(name))
+		{
+			hits.incrementAndGet();
+		}
+		else if (names.size() >= MAX_QUERIES)
+		{
+			if (uncached.getAndIncrement() == 0)
+			{
+				logger.warn("{} queries have been cached, new query shapes won't be cached", MAX_QUERIES);
+			}
+			final TypedQuery<R> query = em.createQuery(criteria);
+			JpaSettings.setQueryHints(query);
+			return query;
+		}
+		else
+		{
+			misses.incrementAndGet();
+			logger.debug("Compiling query {}", name);
+
+			// the query is registered before limit and start position are set
+			// as they would otherwise be retained by the named query.
+			final TypedQuery<R> query = em.createQuery(criteria);
+			JpaSettings.setQueryHints(query);
+			emf.addNamedQuery(name, query);
+			names.add(name);
+		}
+
+		return em.createNamedQuery(name, criteria.getResultType());
+	}
+
+	/**
+	 * the number of times a cacheable query was run without being recompiled
+	 */
+	public static long getHits()
+	{
+		return hits.get();
+	}
+
+	/**
+	 * the number of times a cacheable query had to be compiled
+	 */
+	public static long getMisses()
+	{
+		return misses.get();
+	}
+
+	/**
+	 * the number of times a cacheable query wasn't cached because MAX_QUERIES
+	 * had been reached
+	 */
+	public static long getUncached()
+	{
+		return uncached.get();
+	}
+}
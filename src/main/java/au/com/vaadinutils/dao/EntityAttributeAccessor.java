@@ -0,0 +1,217 @@
+package au.com.vaadinutils.dao;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Member;
+import java.lang.reflect.Method;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.persistence.metamodel.Attribute;
+import javax.persistence.metamodel.ManagedType;
+
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Reads the value of a property (or a dot separated path of properties e.g.
+ * "contact.address.suburb") directly from an entity, without going through a
+ * Vaadin Item and Property.
+ *
+ * The java members for each step of the path are looked up once via the JPA
+ * metamodel and cached for the life of the application. Getters are preferred
+ * over fields so that lazy loading of woven attributes still works.
+ */
+public class EntityAttributeAccessor
+{
+	private static final Logger logger = org.apache.logging.log4j.LogManager.getLogger();
+
+	private static final ConcurrentMap<Class<?>, ConcurrentMap<String, EntityAttributeAccessor>> accessors = new ConcurrentHashMap<>();
+
+	/**
+	 * marker for paths that couldn't be resolved, so we don't keep trying
+	 */
+	private static final EntityAttributeAccessor UNRESOLVABLE = new EntityAttributeAccessor(new Member[0]);
+
+	private final Member[] members;
+
+	private EntityAttributeAccessor(Member[] members)
+	{
+		this.members = members;
+	}
+
+	/**
+	 *
+	 * @param entityClass
+	 * @param propertyPath
+	 *            - a property name or a dot separated path of property names
+	 * @return the accessor or null if one of the properties in the path doesn't
+	 *         exist
+	 */
+	public static EntityAttributeAccessor getAccessor(final Class<?> entityClass, final String propertyPath)
+	{
+		ConcurrentMap<String, EntityAttributeAccessor> classAccessors = accessors.get(entityClass);
+		if (classAccessors == null)
+		{
+			accessors.putIfAbsent(entityClass, new ConcurrentHashMap<String, EntityAttributeAccessor>());
+			classAccessors = accessors.get(entityClass);
+		}
+
+		EntityAttributeAccessor accessor = classAccessors.get(propertyPath);
+		if (accessor == null)
+		{
+			accessor = resolve(entityClass, propertyPath);
+			classAccessors.putIfAbsent(propertyPath, accessor);
+		}
+
+		return accessor == UNRESOLVABLE ? null : accessor;
+	}
+
+	/**
+	 *
+	 * @param entity
+	 * @return the value at the end of the path, or null if any step along the
+	 *         path is null
+	 */
+	public Object getValue(final Object entity)
+	{
+		Object current = entity;
+		for (Member member : members)
+		{
+			if (current == null)
+			{
+				return null;
+			}
+			try
+			{
+				if (member instanceof Method)
+				{
+					current = ((Method) member).invoke(current);
+				}
+				else
+				{
+					current = ((Field) member).get(current);
+				}
+			}
+			catch (IllegalAccessException | InvocationTargetException e)
+			{
+				throw new RuntimeException(e);
+			}
+		}
+		return current;
+	}
+
+	private static EntityAttributeAccessor resolve(final Class<?> entityClass, final String propertyPath)
+	{
+		final String[] properties = propertyPath.split("\\.");
+		final Member[] members = new Member[properties.length];
+
+		Class<?> type = entityClass;
+		for (int i = 0; i < properties.length; i++)
+		{
+			final Member member = findMember(type, properties[i]);
+			if (member == null)
+			{
+				logger.debug("Unable to resolve {} on {}", propertyPath, entityClass);
+				return UNRESOLVABLE;
+			}
+			members[i] = member;
+			type = member instanceof Method ? ((Method) member).getReturnType() : ((Field) member).getType();
+		}
+		return new EntityAttributeAccessor(members);
+	}
+
+	private static Member findMember(final Class<?> type, final String property)
+	{
+		Member member = null;
+
+		final Attribute<?, ?> attribute = getAttribute(type, property);
+		if (attribute != null && attribute.getJavaMember() instanceof Method)
+		{
+			member = attribute.getJavaMember();
+		}
+
+		// field access entities still usually have getters, use them so
+		// that woven lazy attributes are loaded.
+		if (member == null)
+		{
+			member = findGetter(type, property);
+		}
+
+		if (member == null)
+		{
+			if (attribute != null && attribute.getJavaMember() instanceof Field)
+			{
+				member = attribute.getJavaMember();
+			}
+			else
+			{
+				member = findField(type, property);
+			}
+		}
+
+		if (member instanceof Field)
+		{
+			((Field) member).setAccessible(true);
+		}
+		else if (member instanceof Method)
+		{
+			((Method) member).setAccessible(true);
+		}
+		return member;
+	}
+
+	private static Attribute<?, ?> getAttribute(final Class<?> type, final String property)
+	{
+		try
+		{
+			// the metamodel comes from the factory so resolving a path never
+			// depends on whether this thread has an EntityManager, the result
+			// is cached for the life of the application
+			final ManagedType<?> managedType = EntityManagerProvider.getEntityManagerFactory().getMetamodel()
+					.managedType(type);
+			return managedType.getAttribute(property);
+		}
+		catch (IllegalArgumentException e)
+		{
+			// not a managed type, or not a persistent attribute
+			return null;
+		}
+	}
+
+	private static Method findGetter(final Class<?> type, final String property)
+	{
+		final String suffix = Character.toUpperCase(property.charAt(0)) + property.substring(1);
+		for (String prefix : new String[] { "get", "is" })
+		{
+			try
+			{
+				final Method method = type.getMethod(prefix + suffix);
+				if (method.getReturnType() != Void.TYPE)
+				{
+					return method;
+				}
+			}
+			catch (NoSuchMethodException e)
+			{
+				// try the next prefix
+			}
+		}
+		return null;
+	}
+
+	private static Field findField(final Class<?> type, final String property)
+	{
+		for (Class<?> current = type; current != null; current = current.getSuperclass())
+		{
+			try
+			{
+				return current.getDeclaredField(property);
+			}
+			catch (NoSuchFieldException e)
+			{
+				// try the super class
+			}
+		}
+		return null;
+	}
+}
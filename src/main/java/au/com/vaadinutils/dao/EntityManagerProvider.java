@@ -79,14 +79,52 @@ public enum EntityManagerProvider
 	private static List<Runnable> registeredPostActions = new ArrayList<>();
 
 	private ThreadLocal<EntityManager> entityManagerThreadLocal = new ThreadLocal<>();
+	private ThreadLocal<LazyScope> lazyScopeThreadLocal = new ThreadLocal<>();
 	private javax.persistence.EntityManagerFactory emf;
 
+	/**
+	 * state of a scope opened by
+	 * setLazyThreadLocalEntityManagerTryWithResources()
+	 */
+	private static class LazyScope
+	{
+		EntityManager em;
+		boolean readOnly;
+	}
+
 	/**
 	 * Get the entity manager attached to this thread.
 	 *
-	 * @return
+	 * Within a lazy scope (see setLazyThreadLocalEntityManagerTryWithResources())
+	 * the first call creates the entity manager and begins its transaction.
+	 *
+	 * @return null if there isn't one and the thread isn't in a lazy scope
 	 */
 	public static EntityManager getEntityManager()
+	{
+		EntityManager em = INSTANCE.entityManagerThreadLocal.get();
+		if (em == null)
+		{
+			final LazyScope scope = INSTANCE.lazyScopeThreadLocal.get();
+			if (scope != null && scope.em == null)
+			{
+				em = createEntityManager();
+				setCurrentEntityManager(em);
+				em.getTransaction().begin();
+				scope.em = em;
+			}
+		}
+		return em;
+	}
+
+	/**
+	 * Get the entity manager attached to this thread without creating one in a
+	 * lazy scope, for code that only wants to use an entity manager if the
+	 * request has already needed one.
+	 *
+	 * @return null if there isn't one (yet)
+	 */
+	public static EntityManager peekEntityManager()
 	{
 		return INSTANCE.entityManagerThreadLocal.get();
 	}
@@ -156,6 +194,20 @@ public enum EntityManagerProvider
 		INSTANCE.emf = emf;
 	}
 
+	/**
+	 * @return the factory passed to setEntityManagerFactory(), use it for
+	 *         metadata (e.g. the metamodel) that doesn't need an
+	 *         EntityManager
+	 */
+	public static javax.persistence.EntityManagerFactory getEntityManagerFactory()
+	{
+		if (INSTANCE.emf == null)
+		{
+			throw new IllegalStateException("Context is not initialized yet.");
+		}
+		return INSTANCE.emf;
+	}
+
 	/**
 	 * T return type from EntityWorker.
 	 *
@@ -191,7 +243,7 @@ public enum EntityManagerProvider
 	{
 		final EntityManager em;
 
-		if (getEntityManager() == null)
+		if (INSTANCE.entityManagerThreadLocal.get() == null && INSTANCE.lazyScopeThreadLocal.get() == null)
 		{
 			em = createEntityManager();
 
@@ -201,7 +253,8 @@ public enum EntityManagerProvider
 		}
 		else
 		{
-			// entityManager already existed, no need to create one or start a
+			// entityManager already existed (or will be created on demand by
+			// the enclosing lazy scope), no need to create one or start a
 			// transaction
 			em = null;
 		}
@@ -214,46 +267,124 @@ public enum EntityManagerProvider
 			{
 				if (em != null)
 				{
-					try
-					{
-						em.getTransaction().commit();
-					}
-					catch (ConstraintViolationException e)
-					{
-						// ensure we get the cause of an underlying constraint
-						// violation
-						ErrorWindow.showErrorWindow(e);
-						throw e;
-					}
-					finally
+					closeEntityManager(em, true);
+				}
+			}
+		};
+	}
+
+	/**
+	 * As for setThreadLocalEntityManagerTryWithResources() except that the
+	 * EntityManager isn't created, nor its transaction begun, until the first
+	 * call to getEntityManager(). Requests that never touch the
+	 * database (e.g. heartbeats and static resources) then don't pay for an
+	 * EntityManager or transaction at all.
+	 *
+	 * The post actions are run when the scope closes whether or not an
+	 * EntityManager was created.
+	 *
+	 * If setReadOnly() is called within the scope the transaction is rolled
+	 * back rather than committed.
+	 *
+	 * @return
+	 */
+	public static AutoCloseableEM setLazyThreadLocalEntityManagerTryWithResources()
+	{
+		if (INSTANCE.entityManagerThreadLocal.get() != null || INSTANCE.lazyScopeThreadLocal.get() != null)
+		{
+			// already within a scope, leave it to the outer scope to clean up
+			return new AutoCloseableEM()
+			{
+				@Override
+				public void close()
+				{
+				}
+			};
+		}
+
+		final LazyScope scope = new LazyScope();
+		INSTANCE.lazyScopeThreadLocal.set(scope);
+
+		return new AutoCloseableEM()
+		{
+
+			@Override
+			public void close()
+			{
+				INSTANCE.lazyScopeThreadLocal.remove();
+				if (scope.em != null)
+				{
+					closeEntityManager(scope.em, !scope.readOnly);
+				}
+				else
+				{
+					// closeEntityManager() runs them when clearing the
+					// EntityManager
+					runPostActions();
+				}
+			}
+		};
+	}
+
+	/**
+	 * Marks the current lazy scope as read only, its transaction will be
+	 * rolled back rather than committed. This skips EclipseLink's change
+	 * detection over every entity read during the request, so only use it
+	 * when nothing needs to be written.
+	 */
+	public static void setReadOnly()
+	{
+		final LazyScope scope = INSTANCE.lazyScopeThreadLocal.get();
+		Preconditions.checkState(scope != null,
+				"setReadOnly is only supported within setLazyThreadLocalEntityManagerTryWithResources");
+		scope.readOnly = true;
+	}
+
+	private static void closeEntityManager(final EntityManager em, final boolean commit)
+	{
+		try
+		{
+			if (commit)
+			{
+				em.getTransaction().commit();
+			}
+		}
+		catch (ConstraintViolationException e)
+		{
+			// ensure we get the cause of an underlying constraint
+			// violation
+			ErrorWindow.showErrorWindow(e);
+			throw e;
+		}
+		finally
+		{
+			try
+			{
+				try
+				{
+					if (em.getTransaction().isActive())
 					{
-						try
+						if (commit)
 						{
-							try
-							{
-								if (em.getTransaction().isActive())
-								{
-									logger.error("Rolling back transaction");
-									em.getTransaction().rollback();
-
-								}
-							}
-							finally
-							{
-								if (em.isOpen())
-								{
-									em.close();
-								}
-							}
-						}
-						finally
-						{
-							setCurrentEntityManager(null);
+							logger.error("Rolling back transaction");
 						}
+						em.getTransaction().rollback();
+
+					}
+				}
+				finally
+				{
+					if (em.isOpen())
+					{
+						em.close();
 					}
 				}
 			}
-		};
+			finally
+			{
+				setCurrentEntityManager(null);
+			}
+		}
 	}
 
 	/**
@@ -402,8 +533,11 @@ public enum EntityManagerProvider
 	 */
 	public static void registerTransientPostAction(Runnable runnable)
 	{
-		Preconditions.checkNotNull(getEntityManager());
-		Preconditions.checkState(getEntityManager().isOpen());
+		// a lazy scope runs the post actions when it closes, so there is no
+		// need to create an EntityManager just to register one
+		final EntityManager em = peekEntityManager();
+		Preconditions.checkState(em != null ? em.isOpen() : INSTANCE.lazyScopeThreadLocal.get() != null,
+				"There is no EntityManager for this thread");
 		List<Runnable> actionList = transientPostTransactionActions.get();
 		if (actionList == null)
 		{
@@ -444,7 +578,8 @@ public enum EntityManagerProvider
 
 	/**
 	 * this is useful when you need to run code in a separate transaction and
-	 * thread after the current transaction commits
+	 * thread after the current transaction commits. The runnable is run on the
+	 * BackgroundExecutor pool with its own EntityManager.
 	 */
 	public static void registerTransientPostActionOnNewThread(final Runnable runnable)
 	{
@@ -454,7 +589,7 @@ public enum EntityManagerProvider
 			@Override
 			public void run()
 			{
-				new Thread(runnable).start();
+				BackgroundExecutor.submit(runnable);
 
 			}
 		});
@@ -545,7 +680,7 @@ public enum EntityManagerProvider
 	 */
 	public static void flush()
 	{
-		INSTANCE.entityManagerThreadLocal.get().flush();
+		getEntityManager().flush();
 	}
 
 	/**
@@ -562,7 +697,7 @@ public enum EntityManagerProvider
 	 */
 	public static void commit()
 	{
-		INSTANCE.entityManagerThreadLocal.get().getTransaction().commit();
+		getEntityManager().getTransaction().commit();
 	}
 
 	/**
@@ -570,7 +705,7 @@ public enum EntityManagerProvider
 	 */
 	public static void begin()
 	{
-		INSTANCE.entityManagerThreadLocal.get().getTransaction().begin();
+		getEntityManager().getTransaction().begin();
 	}
 
 	/**
@@ -578,7 +713,7 @@ public enum EntityManagerProvider
 	 */
 	public static void evictCache()
 	{
-		INSTANCE.entityManagerThreadLocal.get().getEntityManagerFactory().getCache().evictAll();
+		CacheEvictor.evictAll(getEntityManager().getEntityManagerFactory());
 	}
 
 	/**
@@ -586,7 +721,7 @@ public enum EntityManagerProvider
 	 */
 	public static void evictCache(final Class<?> entityClass)
 	{
-		INSTANCE.entityManagerThreadLocal.get().getEntityManagerFactory().getCache().evict(entityClass);
+		CacheEvictor.evict(getEntityManager().getEntityManagerFactory(), entityClass);
 	}
 
 	/**
@@ -595,6 +730,6 @@ public enum EntityManagerProvider
 	 */
 	public static void evictCache(final Class<?> entityClass, final Object key)
 	{
-		INSTANCE.entityManagerThreadLocal.get().getEntityManagerFactory().getCache().evict(entityClass, key);
+		CacheEvictor.evictId(getEntityManager().getEntityManagerFactory(), entityClass, key);
 	}
 }
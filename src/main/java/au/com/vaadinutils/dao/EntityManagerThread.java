@@ -2,9 +2,8 @@ package au.com.vaadinutils.dao;
 
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 
 /**
  * Creates a Thread that has its own private EntityManager attached.
@@ -13,6 +12,8 @@ import java.util.concurrent.Future;
  * thread that doesn't have an entity manager injected. This class injects the
  * em into the thread.
  *
+ * The callable is run on the shared BackgroundExecutor pool.
+ *
  * @author bsutton
  *
  */
@@ -48,37 +49,14 @@ final public class EntityManagerThread<T>
 	 *
 	 * @param ui
 	 * @param callable
+	 * @throws RejectedExecutionException
+	 *             if the BackgroundExecutor is full
 	 */
 
-	public EntityManagerThread(final Callable<T> callable)
+	public EntityManagerThread(final Callable<T> callable) throws RejectedExecutionException
 	{
 
-		ExecutorService executor = Executors.newFixedThreadPool(1);
-
-		Callable<T> thread = new Callable<T>()
-		{
-
-			@Override
-			public T call() throws Exception
-			{
-
-				return EntityManagerProvider.setThreadLocalEntityManager(new EntityWorker<T>()
-				{
-
-					@Override
-					public T exec() throws Exception
-					{
-						return callable.call();
-					}
-
-				});
-
-			}
-
-		};
-
-		future = executor.submit(thread);
-		executor.shutdown();
+		future = BackgroundExecutor.submit(callable);
 
 	}
 
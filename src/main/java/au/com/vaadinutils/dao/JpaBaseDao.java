@@ -30,6 +30,7 @@ import org.apache.logging.log4j.Logger;
 import org.vaadin.addons.lazyquerycontainer.EntityContainer;
 
 import com.google.common.base.Preconditions;
+import com.google.common.collect.Iterables;
 import com.vaadin.addon.jpacontainer.JPAContainer;
 
 import au.com.vaadinutils.crud.CrudEntity;
@@ -38,6 +39,12 @@ import au.com.vaadinutils.entity.BaseCrudEntity_;
 
 public class JpaBaseDao<E, K> implements Dao<E, K>
 {
+	/**
+	 * the most values findByIds() will put in a single IN clause, Oracle
+	 * rejects lists of more than 1000
+	 */
+	public static final int MAX_IN_LIST_SIZE = 1000;
+
 	protected Class<E> entityClass;
 
 	public interface Condition<E>
@@ -154,10 +161,21 @@ public class JpaBaseDao<E, K> implements Dao<E, K>
 			return null;
 		}
 
-		final JpaDslBuilder<E> q = select();
-		q.where(q.in(getIdField(), ids));
+		if (ids.size() <= MAX_IN_LIST_SIZE)
+		{
+			final JpaDslBuilder<E> q = select();
+			q.where(q.in(getIdField(), ids));
+			return q.getResultList();
+		}
 
-		return q.getResultList();
+		final List<E> results = new LinkedList<>();
+		for (List<Long> chunk : Iterables.partition(ids, MAX_IN_LIST_SIZE))
+		{
+			final JpaDslBuilder<E> q = select();
+			q.where(q.in(getIdField(), chunk));
+			results.addAll(q.getResultList());
+		}
+		return results;
 	}
 
 	@Override
@@ -579,19 +597,30 @@ public class JpaBaseDao<E, K> implements Dao<E, K>
 
 	public void flushCache()
 	{
-		getEntityManager().getEntityManagerFactory().getCache().evict(entityClass);
+		CacheEvictor.evict(getEntityManager().getEntityManagerFactory(), entityClass);
 
 	}
 
+	/**
+	 * evicts just the given entities from the cache, falling back to the
+	 * whole class if there are more than CacheEvictor.getMaxKeyEvictions()
+	 *
+	 * @param ids
+	 */
+	public void flushCache(final Collection<?> ids)
+	{
+		CacheEvictor.evict(getEntityManager().getEntityManagerFactory(), entityClass, ids);
+	}
+
 	public JPAContainer<E> createVaadinContainerAndFlushCache(final int sizeLimit)
 	{
-		getEntityManager().getEntityManagerFactory().getCache().evict(entityClass);
+		CacheEvictor.evict(getEntityManager().getEntityManagerFactory(), entityClass);
 		return createVaadinContainer(sizeLimit);
 	}
 
 	public JPAContainer<E> createVaadinContainerAndFlushCache()
 	{
-		getEntityManager().getEntityManagerFactory().getCache().evict(entityClass);
+		CacheEvictor.evict(getEntityManager().getEntityManagerFactory(), entityClass);
 		return createVaadinContainer();
 	}
 
@@ -991,6 +1020,19 @@ public class JpaBaseDao<E, K> implements Dao<E, K>
 		return getGenericDao(entityClass).select().startPosition(startIndex).getResultList();
 	}
 
+	/**
+	 * keyset paged alternative to getEntities(startIndex), ordered by id.
+	 *
+	 * @param pageSize
+	 * @param continuationToken
+	 *            - from the previous page, null for the first page
+	 * @return
+	 */
+	public KeysetPage<E> getEntities(final int pageSize, final String continuationToken)
+	{
+		return getGenericDao(entityClass).select().getPage(pageSize, continuationToken);
+	}
+
 	public int getEntityCount()
 	{
 		return getGenericDao(entityClass).select().count().intValue();
@@ -4,33 +4,50 @@ import java.math.BigDecimal;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import javax.persistence.EntityManager;
 import javax.persistence.Query;
+import javax.persistence.Tuple;
 import javax.persistence.TypedQuery;
 import javax.persistence.criteria.CriteriaBuilder;
 import javax.persistence.criteria.CriteriaDelete;
 import javax.persistence.criteria.CriteriaQuery;
 import javax.persistence.criteria.CriteriaUpdate;
 import javax.persistence.criteria.Expression;
+import javax.persistence.criteria.Fetch;
+import javax.persistence.criteria.FetchParent;
+import javax.persistence.criteria.From;
 import javax.persistence.criteria.Join;
 import javax.persistence.criteria.JoinType;
 import javax.persistence.criteria.Order;
 import javax.persistence.criteria.Path;
 import javax.persistence.criteria.Predicate;
 import javax.persistence.criteria.Root;
+import javax.persistence.criteria.Selection;
 import javax.persistence.metamodel.ListAttribute;
 import javax.persistence.metamodel.SetAttribute;
 import javax.persistence.metamodel.SingularAttribute;
 
 import org.apache.logging.log4j.Logger;
+import org.eclipse.persistence.config.HintValues;
+import org.eclipse.persistence.config.QueryHints;
+import org.eclipse.persistence.internal.jpa.querydef.InternalSelection;
 import org.eclipse.persistence.jpa.JpaQuery;
+import org.eclipse.persistence.queries.CursoredStream;
 
 import com.google.common.base.Preconditions;
 
@@ -97,6 +114,7 @@ public abstract class JpaDslAbstract<E, R>
 	private Integer limit = null;
 	Predicate predicate = null;
 	private Integer startPosition = null;
+	private Integer fetchSize = null;
 
 	protected CriteriaQuery<R> criteria;
 
@@ -115,6 +133,21 @@ public abstract class JpaDslAbstract<E, R>
 
 	boolean isJpaContainerDelegate;
 
+	/**
+	 * set by cacheable(), when set condition values are bound as parameters
+	 * rather than being embedded in the query as literals.
+	 */
+	private boolean cacheable = false;
+	private final List<Object> parameterValues = new ArrayList<>();
+	private final List<String> parameterTypes = new ArrayList<>();
+
+	/**
+	 * EclipseLink's description of a subquery doesn't include its conditions,
+	 * so queries with subqueries can't be told apart by their shape and aren't
+	 * cached.
+	 */
+	private boolean hasSubquery = false;
+
 	public Condition<E> and(final Condition<E> c1)
 	{
 		return new AbstractCondition<E>()
@@ -224,7 +257,7 @@ public abstract class JpaDslAbstract<E, R>
 			@Override
 			public Predicate getPredicates()
 			{
-				return builder.between(getJoin(joinBuilder).get((SingularAttribute) field), start, end);
+				return builder.between(getJoin(joinBuilder).get((SingularAttribute) field), param(start), param(end));
 			}
 		};
 	}
@@ -240,7 +273,7 @@ public abstract class JpaDslAbstract<E, R>
 			@Override
 			public Predicate getPredicates()
 			{
-				return builder.between(getJoin(joinBuilder).get((SingularAttribute) field), start, end);
+				return builder.between(getJoin(joinBuilder).get((SingularAttribute) field), param(start), param(end));
 			}
 		};
 	}
@@ -254,11 +287,92 @@ public abstract class JpaDslAbstract<E, R>
 			@Override
 			public Predicate getPredicates()
 			{
-				return builder.between(root.get(field), start, end);
+				return builder.between(root.get(field), param(start), param(end));
 			}
 		};
 	}
 
+	/**
+	 * Mark this query as cacheable. The values passed to this builder's
+	 * conditions are bound as parameters and the query is keyed by the shape
+	 * of its criteria (selection, joins, conditions, grouping and order). The
+	 * first time a shape is run it is compiled and kept by the
+	 * CompiledQueryCache, subsequent queries with the same shape reuse the
+	 * compiled query with just the parameter values rebound, skipping the
+	 * criteria to sql translation.
+	 *
+	 * Values embedded by any other means (e.g. a sub query or a hand built
+	 * Expression) are literals in the criteria so become part of its shape.
+	 *
+	 * Must be called before where().
+	 *
+	 * @return
+	 */
+	public JpaDslAbstract<E, R> cacheable()
+	{
+		Preconditions.checkState(predicate == null, "cacheable must be called before where");
+		this.cacheable = true;
+		return this;
+	}
+
+	/**
+	 * Wraps a condition value, when the query is cacheable the value is bound
+	 * as a parameter otherwise it is added as a literal.
+	 */
+	@SuppressWarnings("unchecked")
+	protected <V> Expression<V> param(final V value)
+	{
+		if (!cacheable)
+		{
+			if (value == null)
+			{
+				return (Expression<V>) builder.nullLiteral(Object.class);
+			}
+			return builder.literal(value);
+		}
+
+		final Class<V> type = (Class<V>) (value == null ? Object.class : value.getClass());
+		return builder.parameter(type, nextParameter(type, value));
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private Predicate inValues(final Expression<?> expression, final Collection<?> values)
+	{
+		if (!cacheable)
+		{
+			return expression.in(values);
+		}
+		final Expression<Collection<?>> parameter = (Expression) builder.parameter(Collection.class,
+				nextParameter(Collection.class, values));
+		return expression.in(parameter);
+	}
+
+	private String nextParameter(final Class<?> type, final Object value)
+	{
+		final String name = "p" + parameterValues.size();
+		parameterValues.add(value);
+		parameterTypes.add(type.getSimpleName());
+		return name;
+	}
+
+	/**
+	 * called before the predicate is rebuilt by where(), so the parameters
+	 * of a previous where() aren't bound to the new query.
+	 */
+	private void clearParameters()
+	{
+		parameterValues.clear();
+		parameterTypes.clear();
+	}
+
+	void bindParameters(final Query query)
+	{
+		for (int i = 0; i < parameterValues.size(); i++)
+		{
+			query.setParameter("p" + i, parameterValues.get(i));
+		}
+	}
+
 	public <T> Expression<T> coalesce(final SingularAttribute<E, T> attribute1,
 			final SingularAttribute<E, T> attribute2)
 	{
@@ -297,6 +411,7 @@ public abstract class JpaDslAbstract<E, R>
 
 		TypedQuery<Long> query = getEntityManager().createQuery(criteria);
 		JpaSettings.setQueryHints(query);
+		bindParameters(query);
 
 		return query.getSingleResult();
 	}
@@ -314,11 +429,16 @@ public abstract class JpaDslAbstract<E, R>
 	/**
 	 * WARNING, order will not be honoured by this method
 	 * 
+	 * Before the delete an extra SELECT fetches the ids of the affected rows
+	 * (at most CacheEvictor.getMaxKeyEvictions() + 1 of them) so only those
+	 * are evicted from the shared cache.
+	 * 
 	 * @return
 	 */
 	public int delete()
 	{
 		Preconditions.checkArgument(orders.size() == 0, "Order is not supported for delete");
+		final List<Object> affectedIds = selectAffectedIds();
 		CriteriaDelete<E> deleteCriteria = builder.createCriteriaDelete(entityClass);
 		root = deleteCriteria.getRoot();
 		if (predicate != null)
@@ -327,6 +447,7 @@ public abstract class JpaDslAbstract<E, R>
 		}
 		Query query = getEntityManager().createQuery(deleteCriteria);
 		JpaSettings.setQueryHints(query);
+		bindParameters(query);
 
 		if (limit != null)
 		{
@@ -337,11 +458,86 @@ public abstract class JpaDslAbstract<E, R>
 			query.setFirstResult(startPosition);
 		}
 		int result = query.executeUpdate();
-		getEntityManager().getEntityManagerFactory().getCache().evict(entityClass);
+		CacheEvictor.evict(getEntityManager().getEntityManagerFactory(), entityClass, affectedIds);
 
 		return result;
 	}
 
+	/**
+	 * Selects the ids of the rows a bulk update or delete is about to touch, so
+	 * only they need to be evicted from the shared cache. The builder's own
+	 * criteria is used, with its selection temporarily swapped for the id, as
+	 * the builder's conditions and joins are built from its root. The limit and
+	 * start position are applied as they will be to the update or delete.
+	 *
+	 * @return null if there are more than CacheEvictor.getMaxKeyEvictions()
+	 *         rows or the entity doesn't have a single id attribute, in which
+	 *         case the whole class should be evicted.
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private List<Object> selectAffectedIds()
+	{
+		if (criteria == null)
+		{
+			return null;
+		}
+		SingularAttribute idAttribute = null;
+		for (SingularAttribute<? super E, ?> attribute : getEntityManager().getMetamodel().entity(entityClass)
+				.getSingularAttributes())
+		{
+			if (attribute.isId())
+			{
+				idAttribute = attribute;
+			}
+		}
+		if (idAttribute == null)
+		{
+			return null;
+		}
+
+		final CriteriaQuery idCriteria = criteria;
+		final Selection<? extends R> selection = criteria.getSelection();
+		final boolean distinct = criteria.isDistinct();
+		try
+		{
+			idCriteria.select(root.get(idAttribute));
+			idCriteria.distinct(true);
+			if (predicate != null)
+			{
+				idCriteria.where(predicate);
+			}
+			final TypedQuery<Object> query = getEntityManager().createQuery(idCriteria);
+			JpaSettings.setQueryHints(query);
+			bindParameters(query);
+
+			int maxResults = CacheEvictor.getMaxKeyEvictions() + 1;
+			if (limit != null)
+			{
+				maxResults = Math.min(limit, maxResults);
+			}
+			query.setMaxResults(maxResults);
+			if (startPosition != null)
+			{
+				query.setFirstResult(startPosition);
+			}
+
+			final List<Object> ids = query.getResultList();
+			if (ids.size() > CacheEvictor.getMaxKeyEvictions())
+			{
+				return null;
+			}
+			return ids;
+		}
+		finally
+		{
+			if (selection != null)
+			{
+				idCriteria.select(selection);
+			}
+			idCriteria.distinct(distinct);
+		}
+	}
+
 	public JpaDslAbstract<E, R> distinct()
 	{
 		criteria.distinct(true);
@@ -387,7 +583,7 @@ public abstract class JpaDslAbstract<E, R>
 			@Override
 			public Predicate getPredicates()
 			{
-				return builder.equal(expression, value);
+				return builder.equal(expression, param(value));
 			}
 		};
 	}
@@ -423,7 +619,7 @@ public abstract class JpaDslAbstract<E, R>
 			@Override
 			public Predicate getPredicates()
 			{
-				return builder.equal(expression, value);
+				return builder.equal(expression, param(value));
 			}
 		};
 	}
@@ -436,7 +632,7 @@ public abstract class JpaDslAbstract<E, R>
 			@Override
 			public Predicate getPredicates()
 			{
-				return builder.notEqual(expression, value);
+				return builder.notEqual(expression, param(value));
 			}
 		};
 	}
@@ -449,7 +645,7 @@ public abstract class JpaDslAbstract<E, R>
 			@Override
 			public Predicate getPredicates()
 			{
-				return builder.equal(getJoin(join).get(field), value);
+				return builder.equal(getJoin(join).get(field), param(value));
 			}
 		};
 	}
@@ -462,7 +658,7 @@ public abstract class JpaDslAbstract<E, R>
 			@Override
 			public Predicate getPredicates()
 			{
-				return builder.equal(getJoin(join).get(field), value);
+				return builder.equal(getJoin(join).get(field), param(value));
 			}
 		};
 	}
@@ -475,7 +671,7 @@ public abstract class JpaDslAbstract<E, R>
 			@Override
 			public Predicate getPredicates()
 			{
-				return builder.equal(getJoin(join).get(field), value);
+				return builder.equal(getJoin(join).get(field), param(value));
 			}
 		};
 	}
@@ -523,7 +719,7 @@ public abstract class JpaDslAbstract<E, R>
 			public Predicate getPredicates()
 			{
 				Join<E, J> join = getJoin(joinAttribute, joinType);
-				return builder.equal(join.get(field), value);
+				return builder.equal(join.get(field), param(value));
 			}
 		};
 	}
@@ -537,7 +733,7 @@ public abstract class JpaDslAbstract<E, R>
 			@Override
 			public Predicate getPredicates()
 			{
-				return builder.equal(root.get(field), value);
+				return builder.equal(root.get(field), param(value));
 			}
 		};
 	}
@@ -552,7 +748,7 @@ public abstract class JpaDslAbstract<E, R>
 			public Predicate getPredicates()
 			{
 				Join<E, J> join = getJoin(joinAttribute, joinType);
-				return builder.equal(join.get(field), value);
+				return builder.equal(join.get(field), param(value));
 			}
 		};
 	}
@@ -566,7 +762,7 @@ public abstract class JpaDslAbstract<E, R>
 			@Override
 			public Predicate getPredicates()
 			{
-				return builder.equal(root.get(field), value);
+				return builder.equal(root.get(field), param(value));
 			}
 		};
 	}
@@ -581,7 +777,7 @@ public abstract class JpaDslAbstract<E, R>
 			public Predicate getPredicates()
 			{
 				Join<E, J> join = getJoin(joinAttribute, joinType);
-				return builder.equal(join.get(field), value);
+				return builder.equal(join.get(field), param(value));
 			}
 		};
 	}
@@ -595,13 +791,14 @@ public abstract class JpaDslAbstract<E, R>
 			@Override
 			public Predicate getPredicates()
 			{
-				return builder.equal(root.get(field), value);
+				return builder.equal(root.get(field), param(value));
 			}
 		};
 	}
 
 	public <J> AbstractCondition<E> exists(final JpaDslSubqueryBuilder<E, J> subquery)
 	{
+		hasSubquery = true;
 		return new AbstractCondition<E>()
 		{
 
@@ -616,6 +813,7 @@ public abstract class JpaDslAbstract<E, R>
 	public <J, V> AbstractCondition<E> in(final SingularAttribute<E, Long> attribute,
 			final JpaDslSubquerySelectBuilder<E, V> subqueryBuilder)
 	{
+		hasSubquery = true;
 		return new AbstractCondition<E>()
 		{
 
@@ -752,6 +950,139 @@ public abstract class JpaDslAbstract<E, R>
 		return prepareQuery().getResultList();
 	}
 
+	/**
+	 * Walks the results a chunk at a time through a database cursor rather
+	 * than loading them all into a single list, so memory use doesn't grow
+	 * with the number of rows.
+	 *
+	 * After each chunk has been consumed the persistence context is flushed
+	 * (if a transaction is active) and cleared, so the chunk's entities, and
+	 * any other entities managed by the current EntityManager, are detached.
+	 *
+	 * Works on any thread with an EntityManager, e.g. an EntityManagerThread
+	 * worker.
+	 *
+	 * @param chunkSize
+	 * @param consumer
+	 */
+	public void forEachChunk(final int chunkSize, final Consumer<List<R>> consumer)
+	{
+		final CursoredStream cursor = openCursor(chunkSize);
+		try
+		{
+			while (cursor.hasNext())
+			{
+				consumer.accept(nextChunk(cursor, chunkSize));
+				cursor.releasePrevious();
+				clearPersistenceContext();
+			}
+		}
+		finally
+		{
+			cursor.close();
+		}
+	}
+
+	/**
+	 * As for forEachChunk() but presents the results as a Stream. The
+	 * persistence context is cleared each time a new chunk is read from the
+	 * cursor.
+	 *
+	 * The stream holds a database cursor open so must be closed, use it in a
+	 * try with resources block.
+	 *
+	 * @param chunkSize
+	 * @return
+	 */
+	public Stream<R> stream(final int chunkSize)
+	{
+		final CursoredStream cursor = openCursor(chunkSize);
+
+		final Iterator<R> iterator = new Iterator<R>()
+		{
+			private Iterator<R> chunk = Collections.emptyIterator();
+			private boolean chunkRead = false;
+
+			@Override
+			public boolean hasNext()
+			{
+				if (!chunk.hasNext() && cursor.hasNext())
+				{
+					if (chunkRead)
+					{
+						cursor.releasePrevious();
+						clearPersistenceContext();
+					}
+					chunk = nextChunk(cursor, chunkSize).iterator();
+					chunkRead = true;
+				}
+				return chunk.hasNext();
+			}
+
+			@Override
+			public R next()
+			{
+				if (!hasNext())
+				{
+					throw new NoSuchElementException();
+				}
+				return chunk.next();
+			}
+		};
+
+		return StreamSupport
+				.stream(Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED | Spliterator.NONNULL), false)
+				.onClose(new Runnable()
+				{
+					@Override
+					public void run()
+					{
+						cursor.close();
+					}
+				});
+	}
+
+	/**
+	 * the jdbc fetch size used by stream() and forEachChunk(), defaults to the
+	 * chunk size. Some drivers need a special value to stream results from the
+	 * server (e.g. Integer.MIN_VALUE for MySQL Connector/J without
+	 * useCursorFetch).
+	 */
+	public JpaDslAbstract<E, R> fetchSize(final int fetchSize)
+	{
+		this.fetchSize = fetchSize;
+		return this;
+	}
+
+	private CursoredStream openCursor(final int chunkSize)
+	{
+		Preconditions.checkArgument(chunkSize > 0, "chunkSize must be greater than zero");
+		Preconditions.checkState(criteria.getResultType() != Tuple.class,
+				"Tuple queries can't be iterated with a cursor, use limit and startPosition");
+
+		final TypedQuery<R> query = prepareQuery();
+		query.setHint(QueryHints.CURSOR, HintValues.TRUE);
+		query.setHint(QueryHints.CURSOR_PAGE_SIZE, chunkSize);
+		query.setHint(QueryHints.JDBC_FETCH_SIZE, fetchSize != null ? fetchSize : chunkSize);
+		return (CursoredStream) query.getSingleResult();
+	}
+
+	@SuppressWarnings("unchecked")
+	private List<R> nextChunk(final CursoredStream cursor, final int chunkSize)
+	{
+		return cursor.next(chunkSize);
+	}
+
+	private void clearPersistenceContext()
+	{
+		final EntityManager em = getEntityManager();
+		if (em.getTransaction().isActive())
+		{
+			em.flush();
+		}
+		em.clear();
+	}
+
 	public R getSingleResult()
 	{
 		limit(1);
@@ -795,7 +1126,7 @@ public abstract class JpaDslAbstract<E, R>
 			@Override
 			public Predicate getPredicates()
 			{
-				return builder.greaterThan(root.get(field), value);
+				return builder.greaterThan(root.get(field), param(value));
 			}
 		};
 	}
@@ -809,7 +1140,7 @@ public abstract class JpaDslAbstract<E, R>
 			@Override
 			public Predicate getPredicates()
 			{
-				return builder.greaterThanOrEqualTo(getJoin(join).get(field), value);
+				return builder.greaterThanOrEqualTo(getJoin(join).get(field), param(value));
 			}
 		};
 	}
@@ -823,7 +1154,7 @@ public abstract class JpaDslAbstract<E, R>
 			@Override
 			public Predicate getPredicates()
 			{
-				return builder.greaterThan(getJoin(join).get(field), value);
+				return builder.greaterThan(getJoin(join).get(field), param(value));
 			}
 		};
 	}
@@ -865,7 +1196,7 @@ public abstract class JpaDslAbstract<E, R>
 			@Override
 			public Predicate getPredicates()
 			{
-				return builder.lessThan(getJoin(join).get(field), value);
+				return builder.lessThan(getJoin(join).get(field), param(value));
 			}
 		};
 	}
@@ -880,7 +1211,7 @@ public abstract class JpaDslAbstract<E, R>
                 public Predicate getPredicates()
                 {
 
-                        return builder.lessThan(expression, value);
+                        return builder.lessThan(expression, param(value));
                 }
             };
 	}
@@ -924,7 +1255,7 @@ public abstract class JpaDslAbstract<E, R>
 			public Predicate getPredicates()
 			{
 				Join<E, J> join = getJoin(joinAttribute, joinType);
-				return builder.greaterThanOrEqualTo(join.get(field), value);
+				return builder.greaterThanOrEqualTo(join.get(field), param(value));
 			}
 		};
 	}
@@ -986,7 +1317,7 @@ public abstract class JpaDslAbstract<E, R>
 			public Predicate getPredicates()
 			{
 				Join<E, J> join = getJoin(joinAttribute, joinType);
-				return builder.greaterThanOrEqualTo(join.get(field), value);
+				return builder.greaterThanOrEqualTo(join.get(field), param(value));
 			}
 		};
 	}
@@ -1002,7 +1333,7 @@ public abstract class JpaDslAbstract<E, R>
 			public Predicate getPredicates()
 			{
 				Join<E, J> join = getJoin(joinAttribute, joinType);
-				return builder.greaterThanOrEqualTo(join.get(field), value);
+				return builder.greaterThanOrEqualTo(join.get(field), param(value));
 			}
 		};
 	}
@@ -1017,7 +1348,7 @@ public abstract class JpaDslAbstract<E, R>
 			public Predicate getPredicates()
 			{
 
-				return builder.greaterThanOrEqualTo(root.get(field), value);
+				return builder.greaterThanOrEqualTo(root.get(field), param(value));
 			}
 		};
 	}
@@ -1032,7 +1363,7 @@ public abstract class JpaDslAbstract<E, R>
 			public Predicate getPredicates()
 			{
 
-				return builder.greaterThanOrEqualTo(field.path, value);
+				return builder.greaterThanOrEqualTo(field.path, param(value));
 			}
 		};
 	}
@@ -1047,7 +1378,7 @@ public abstract class JpaDslAbstract<E, R>
 			public Predicate getPredicates()
 			{
 
-				return builder.greaterThanOrEqualTo(expression, value);
+				return builder.greaterThanOrEqualTo(expression, param(value));
 			}
 		};
 	}
@@ -1096,7 +1427,7 @@ public abstract class JpaDslAbstract<E, R>
 			@Override
 			public Predicate getPredicates()
 			{
-				return getJoin(join).get(attribute).in(values);
+				return inValues(getJoin(join).get(attribute), values);
 			}
 		};
 	}
@@ -1110,7 +1441,7 @@ public abstract class JpaDslAbstract<E, R>
 			@Override
 			public Predicate getPredicates()
 			{
-				return getJoin(join).get(attribute).in(values);
+				return inValues(getJoin(join).get(attribute), values);
 			}
 		};
 	}
@@ -1123,7 +1454,7 @@ public abstract class JpaDslAbstract<E, R>
 			@Override
 			public Predicate getPredicates()
 			{
-				return root.get(attribute).in(values);
+				return inValues(root.get(attribute), values);
 			}
 		};
 	}
@@ -1136,7 +1467,7 @@ public abstract class JpaDslAbstract<E, R>
 			@Override
 			public Predicate getPredicates()
 			{
-				return root.get(agents).in(agent);
+				return inValues(root.get(agents), Collections.singletonList(agent));
 			}
 		};
 	}
@@ -1155,7 +1486,7 @@ public abstract class JpaDslAbstract<E, R>
 							+ attribute.getName());
 					return builder.isFalse(builder.literal(true));
 				}
-				return root.get(attribute).in(values);
+				return inValues(root.get(attribute), values);
 			}
 		};
 	}
@@ -1168,7 +1499,7 @@ public abstract class JpaDslAbstract<E, R>
 			@Override
 			public Predicate getPredicates()
 			{
-				return root.get(attribute).in(values);
+				return inValues(root.get(attribute), Arrays.asList(values));
 			}
 		};
 	}
@@ -1394,7 +1725,7 @@ public abstract class JpaDslAbstract<E, R>
 			public Predicate getPredicates()
 			{
 				Join<E, J> join = getJoin(joinAttribute, joinType);
-				return builder.like(join.get(field), value);
+				return builder.like(join.get(field), param(value));
 			}
 		};
 	}
@@ -1415,7 +1746,7 @@ public abstract class JpaDslAbstract<E, R>
 			public Predicate getPredicates()
 			{
 				Join<E, J> join = getJoin(joinAttribute, joinType);
-				return builder.lessThan(join.get(field), value);
+				return builder.lessThan(join.get(field), param(value));
 			}
 		};
 	}
@@ -1429,7 +1760,7 @@ public abstract class JpaDslAbstract<E, R>
 			@Override
 			public Predicate getPredicates()
 			{
-				return builder.lessThan(root.get(field), value);
+				return builder.lessThan(root.get(field), param(value));
 			}
 		};
 	}
@@ -1443,7 +1774,7 @@ public abstract class JpaDslAbstract<E, R>
 			@Override
 			public Predicate getPredicates()
 			{
-				return builder.lessThanOrEqualTo(getJoin(join).get(field), value);
+				return builder.lessThanOrEqualTo(getJoin(join).get(field), param(value));
 			}
 		};
 	}
@@ -1459,7 +1790,7 @@ public abstract class JpaDslAbstract<E, R>
 			public Predicate getPredicates()
 			{
 				Join<E, J> join = getJoin(joinAttribute, joinType);
-				return builder.lessThanOrEqualTo(join.get(field), value);
+				return builder.lessThanOrEqualTo(join.get(field), param(value));
 			}
 		};
 	}
@@ -1475,7 +1806,7 @@ public abstract class JpaDslAbstract<E, R>
 			public Predicate getPredicates()
 			{
 				Join<E, J> join = getJoin(joinAttribute, joinType);
-				return builder.lessThanOrEqualTo(join.get(field), value);
+				return builder.lessThanOrEqualTo(join.get(field), param(value));
 			}
 		};
 	}
@@ -1491,7 +1822,7 @@ public abstract class JpaDslAbstract<E, R>
 			public Predicate getPredicates()
 			{
 				Join<E, J> join = getJoin(joinAttribute, joinType);
-				return builder.lessThanOrEqualTo(join.get(field), value);
+				return builder.lessThanOrEqualTo(join.get(field), param(value));
 			}
 		};
 	}
@@ -1506,7 +1837,7 @@ public abstract class JpaDslAbstract<E, R>
 			public Predicate getPredicates()
 			{
 
-				return builder.lessThanOrEqualTo(root.get(field), value);
+				return builder.lessThanOrEqualTo(root.get(field), param(value));
 			}
 		};
 	}
@@ -1520,7 +1851,7 @@ public abstract class JpaDslAbstract<E, R>
 			public Predicate getPredicates()
 			{
 
-				return builder.lessThanOrEqualTo(field.path, value);
+				return builder.lessThanOrEqualTo(field.path, param(value));
 			}
 		};
 	}
@@ -1535,7 +1866,7 @@ public abstract class JpaDslAbstract<E, R>
 			public Predicate getPredicates()
 			{
 
-				return builder.lessThanOrEqualTo(expression, value);
+				return builder.lessThanOrEqualTo(expression, param(value));
 			}
 		};
 	}
@@ -1548,7 +1879,7 @@ public abstract class JpaDslAbstract<E, R>
 			@Override
 			public Predicate getPredicates()
 			{
-				return builder.like(concat, value);
+				return builder.like(concat, param(value));
 			}
 		};
 	}
@@ -1562,7 +1893,7 @@ public abstract class JpaDslAbstract<E, R>
 			@Override
 			public Predicate getPredicates()
 			{
-				return builder.like(getJoin(join).get(attribute), pattern);
+				return builder.like(getJoin(join).get(attribute), param(pattern));
 			}
 		};
 	}
@@ -1576,7 +1907,7 @@ public abstract class JpaDslAbstract<E, R>
 			public Predicate getPredicates()
 			{
 
-				return builder.like(root.get(field), value);
+				return builder.like(root.get(field), param(value));
 			}
 		};
 	}
@@ -1664,7 +1995,7 @@ public abstract class JpaDslAbstract<E, R>
 			@Override
 			public Predicate getPredicates()
 			{
-				return builder.notEqual(getJoin(join).get(field), value);
+				return builder.notEqual(getJoin(join).get(field), param(value));
 			}
 		};
 	}
@@ -1677,13 +2008,14 @@ public abstract class JpaDslAbstract<E, R>
 			@Override
 			public Predicate getPredicates()
 			{
-				return builder.notEqual(root.get(field), value);
+				return builder.notEqual(root.get(field), param(value));
 			}
 		};
 	}
 
 	public <J> AbstractCondition<E> notExists(final JpaDslSubqueryBuilder<E, J> subquery)
 	{
+		hasSubquery = true;
 		return new AbstractCondition<E>()
 		{
 
@@ -1802,17 +2134,36 @@ public abstract class JpaDslAbstract<E, R>
 	}
 
 	TypedQuery<R> prepareQuery()
+	{
+		return prepareQuery(orders);
+	}
+
+	/**
+	 * @param orderBy
+	 *            - used in place of the builder's orders
+	 */
+	TypedQuery<R> prepareQuery(final List<Order> orderBy)
 	{
 		if (predicate != null)
 		{
 			criteria.where(predicate);
 		}
-		if (orders.size() > 0)
+		if (orderBy.size() > 0)
 		{
-			criteria.orderBy(orders);
+			criteria.orderBy(orderBy);
 		}
-		TypedQuery<R> query = getEntityManager().createQuery(criteria);
-		JpaSettings.setQueryHints(query);
+		final String shape = cacheable ? getQueryShape() : null;
+		final TypedQuery<R> query;
+		if (shape != null)
+		{
+			query = CompiledQueryCache.createQuery(getEntityManager(), shape, criteria);
+		}
+		else
+		{
+			query = getEntityManager().createQuery(criteria);
+			JpaSettings.setQueryHints(query);
+		}
+		bindParameters(query);
 
 		if (limit != null)
 		{
@@ -1843,17 +2194,20 @@ public abstract class JpaDslAbstract<E, R>
 
 	public <J> JpaDslSubqueryBuilder<E, J> subQuery(Class<J> target)
 	{
+		hasSubquery = true;
 		return new JpaDslSubqueryBuilder<>(target, criteria, root);
 	}
 
 	public <J, V> JpaDslSubquerySelectBuilder<E, J> subquerySelect(final Class<J> target)
 	{
+		hasSubquery = true;
 		return new JpaDslSubquerySelectBuilder<>(target, criteria, root);
 	}
 
 	public <J, V> JpaDslSubquerySelectBuilder<E, J> subquerySelect(final Class<J> target,
 			final SingularAttribute<J, Long> selectAttribute)
 	{
+		hasSubquery = true;
 		return new JpaDslSubquerySelectBuilder<>(target, criteria, root, selectAttribute);
 	}
 
@@ -1880,6 +2234,10 @@ public abstract class JpaDslAbstract<E, R>
 	/**
 	 * WARNING, order will not be honoured by this method
 	 * 
+	 * Before the update an extra SELECT fetches the ids of the affected rows
+	 * (at most CacheEvictor.getMaxKeyEvictions() + 1 of them) so only those
+	 * are evicted from the shared cache.
+	 * 
 	 * @param attribute
 	 * @param value
 	 * 
@@ -1888,6 +2246,7 @@ public abstract class JpaDslAbstract<E, R>
 	public <F extends Object> int update(Map<SingularAttribute<E, F>, F> updatemap)
 	{
 		Preconditions.checkArgument(orders.size() == 0, "Order is not supported for delete");
+		final List<Object> affectedIds = selectAffectedIds();
 		CriteriaUpdate<E> updateCriteria = builder.createCriteriaUpdate(entityClass);
 		root = updateCriteria.getRoot();
 		if (predicate != null)
@@ -1901,6 +2260,7 @@ public abstract class JpaDslAbstract<E, R>
 		}
 		Query query = getEntityManager().createQuery(updateCriteria);
 		JpaSettings.setQueryHints(query);
+		bindParameters(query);
 
 		if (limit != null)
 		{
@@ -1911,7 +2271,7 @@ public abstract class JpaDslAbstract<E, R>
 			query.setFirstResult(startPosition);
 		}
 		int result = query.executeUpdate();
-		getEntityManager().getEntityManagerFactory().getCache().evict(entityClass);
+		CacheEvictor.evict(getEntityManager().getEntityManagerFactory(), entityClass, affectedIds);
 
 		return result;
 	}
@@ -1919,6 +2279,10 @@ public abstract class JpaDslAbstract<E, R>
 	/**
 	 * WARNING, order will not be honoured by this method
 	 * 
+	 * Before the update an extra SELECT fetches the ids of the affected rows
+	 * (at most CacheEvictor.getMaxKeyEvictions() + 1 of them) so only those
+	 * are evicted from the shared cache.
+	 * 
 	 * @param attribute
 	 * @param value
 	 * 
@@ -1927,6 +2291,7 @@ public abstract class JpaDslAbstract<E, R>
 	public <F> int update(SingularAttribute<E, F> attribute, F value)
 	{
 		Preconditions.checkArgument(orders.size() == 0, "Order is not supported for delete");
+		final List<Object> affectedIds = selectAffectedIds();
 		CriteriaUpdate<E> updateCriteria = builder.createCriteriaUpdate(entityClass);
 		root = updateCriteria.getRoot();
 		if (predicate != null)
@@ -1936,6 +2301,7 @@ public abstract class JpaDslAbstract<E, R>
 		}
 		Query query = getEntityManager().createQuery(updateCriteria);
 		JpaSettings.setQueryHints(query);
+		bindParameters(query);
 
 		if (limit != null)
 		{
@@ -1946,13 +2312,14 @@ public abstract class JpaDslAbstract<E, R>
 			query.setFirstResult(startPosition);
 		}
 		int result = query.executeUpdate();
-		getEntityManager().getEntityManagerFactory().getCache().evict(entityClass);
+		CacheEvictor.evict(getEntityManager().getEntityManagerFactory(), entityClass, affectedIds);
 
 		return result;
 	}
 
 	public JpaDslAbstract<E, R> where(Condition<E> condition)
 	{
+		clearParameters();
 		predicate = condition.getPredicates();
 		return this;
 	}
@@ -1960,6 +2327,7 @@ public abstract class JpaDslAbstract<E, R>
 	@SuppressWarnings("unchecked")
 	public JpaDslAbstract<E, R> where(final Condition<E>... conditions)
 	{
+		clearParameters();
 		final List<Predicate> predicates = new ArrayList<>(conditions.length);
 		for (Condition<E> condition : conditions)
 		{
@@ -1971,6 +2339,7 @@ public abstract class JpaDslAbstract<E, R>
 
 	public JpaDslAbstract<E, R> where(final List<Condition<E>> conditions)
 	{
+		clearParameters();
 		final List<Predicate> predicates = new ArrayList<>(conditions.size());
 		for (Condition<E> condition : conditions)
 		{
@@ -1979,4 +2348,105 @@ public abstract class JpaDslAbstract<E, R>
 		predicate = builder.and(predicates.toArray(new Predicate[predicates.size()]));
 		return this;
 	}
+
+	/**
+	 * Describes the shape of the criteria from EclipseLink's expression trees.
+	 * Condition values are parameters so queries that only differ by those
+	 * values share a shape, literals are part of the shape.
+	 *
+	 * @return null if part of the criteria can't be described, in which case
+	 *         the query isn't cached
+	 */
+	String getQueryShape()
+	{
+		if (hasSubquery)
+		{
+			return null;
+		}
+		final StringBuilder shape = new StringBuilder("JpaDsl:").append(entityClass.getName());
+		shape.append(criteria.isDistinct() ? "\nselect distinct " : "\nselect ");
+		if (!appendShape(shape, criteria.getSelection()))
+		{
+			return null;
+		}
+		appendJoins(shape, root);
+		shape.append("\nwhere ");
+		if (!appendShape(shape, criteria.getRestriction()))
+		{
+			return null;
+		}
+		shape.append("\ngroup by ");
+		for (Expression<?> group : criteria.getGroupList())
+		{
+			if (!appendShape(shape, group))
+			{
+				return null;
+			}
+		}
+		shape.append("\nhaving ");
+		if (!appendShape(shape, criteria.getGroupRestriction()))
+		{
+			return null;
+		}
+		shape.append("\norder by ");
+		for (Order order : criteria.getOrderList())
+		{
+			if (!appendShape(shape, order.getExpression()))
+			{
+				return null;
+			}
+			shape.append(order.isAscending() ? " asc," : " desc,");
+		}
+		shape.append("\nparameters ").append(parameterTypes);
+		return shape.toString();
+	}
+
+	private static boolean appendShape(final StringBuilder shape, final Selection<?> selection)
+	{
+		if (selection == null)
+		{
+			shape.append("none");
+		}
+		else if (selection.isCompoundSelection())
+		{
+			shape.append(selection.getJavaType().getName()).append('(');
+			for (Selection<?> item : selection.getCompoundSelectionItems())
+			{
+				if (!appendShape(shape, item))
+				{
+					return false;
+				}
+				shape.append(',');
+			}
+			shape.append(')');
+		}
+		else if (selection instanceof InternalSelection)
+		{
+			shape.append(((InternalSelection) selection).getCurrentNode()).append(',');
+		}
+		else
+		{
+			return false;
+		}
+		return true;
+	}
+
+	private static void appendJoins(final StringBuilder shape, final From<?, ?> from)
+	{
+		for (Join<?, ?> join : from.getJoins())
+		{
+			shape.append("\njoin ").append(join.getJoinType()).append(' ').append(join.getAttribute().getName());
+			appendJoins(shape, join);
+		}
+		appendFetches(shape, from);
+	}
+
+	private static void appendFetches(final StringBuilder shape, final FetchParent<?, ?> parent)
+	{
+		for (Fetch<?, ?> fetch : parent.getFetches())
+		{
+			shape.append("\nfetch ").append(fetch.getJoinType()).append(' ').append(fetch.getAttribute().getName());
+			appendFetches(shape, fetch);
+		}
+	}
 }
@@ -1,7 +1,22 @@
 package au.com.vaadinutils.dao;
 
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
 import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.Expression;
+import javax.persistence.criteria.Join;
+import javax.persistence.criteria.JoinType;
+import javax.persistence.criteria.Order;
+import javax.persistence.criteria.Path;
+import javax.persistence.criteria.Predicate;
 import javax.persistence.criteria.Root;
+import javax.persistence.metamodel.Attribute;
+import javax.persistence.metamodel.SingularAttribute;
+
+import com.google.common.base.Joiner;
+import com.google.common.base.Preconditions;
 
 public class JpaDslBuilder<E> extends JpaDslAbstract<E, E>
 {
@@ -33,6 +48,228 @@ public class JpaDslBuilder<E> extends JpaDslAbstract<E, E>
 		isJpaContainerDelegate = true;
 	}
 
+	/**
+	 * Keyset (seek) paging, fetches the page of results following the row
+	 * identified by the continuation token. Unlike startPosition() the cost
+	 * of fetching a page doesn't grow with how deep into the results it is.
+	 *
+	 * The results are ordered by the orderBy() columns followed by the id (if
+	 * it isn't already the last column) so the order is total. The orderBy
+	 * columns must be attributes of the entity or of singular joins. Null
+	 * values sort as the lowest value (first when ascending, last when
+	 * descending) on every database: each column that may be null is preceded
+	 * in the sql order by a 'case when column is null' term. Mapping a column
+	 * as optional = false avoids that term, so an index can serve the order.
+	 * The builder's own orders are not changed.
+	 *
+	 * Call after where() and orderBy(), the builder can only be used for a
+	 * single page.
+	 *
+	 * @param pageSize
+	 * @param continuationToken
+	 *            - from the previous page, null for the first page
+	 * @return
+	 */
+	public KeysetPage<E> getPage(final int pageSize, final String continuationToken)
+	{
+		return getPageAfter(pageSize, continuationToken == null ? null : KeysetPage.decode(continuationToken));
+	}
+
+	/**
+	 * as for getPage() but takes the values of the orderBy columns of the last
+	 * row seen (see KeysetPage.getLastKey())
+	 *
+	 * @param pageSize
+	 * @param lastKey
+	 *            - null for the first page
+	 * @return
+	 */
+	public KeysetPage<E> getPageAfter(final int pageSize, final Object[] lastKey)
+	{
+		final List<Order> keyOrders = getKeysetOrders();
+		if (lastKey != null)
+		{
+			Preconditions.checkArgument(lastKey.length == keyOrders.size(),
+					"The key has " + lastKey.length + " values but the query is ordered by " + keyOrders.size()
+							+ " columns");
+			final Predicate after = keysetPredicate(keyOrders, lastKey);
+			predicate = predicate == null ? after : builder.and(predicate, after);
+		}
+
+		// fetch an extra row so we know if there is another page
+		limit(pageSize + 1);
+		final List<E> results = new ArrayList<>(prepareQuery(getNullsLowestOrders(keyOrders)).getResultList());
+		final boolean hasMore = results.size() > pageSize;
+		if (hasMore)
+		{
+			results.remove(pageSize);
+		}
+
+		Object[] key = null;
+		if (!results.isEmpty())
+		{
+			final E last = results.get(results.size() - 1);
+			key = new Object[keyOrders.size()];
+			for (int i = 0; i < key.length; i++)
+			{
+				key[i] = EntityAttributeAccessor.getAccessor(entityClass, getPropertyPath(keyOrders.get(i)))
+						.getValue(last);
+			}
+		}
+
+		return new KeysetPage<>(results, key, hasMore);
+	}
+
+	private List<Order> getKeysetOrders()
+	{
+		SingularAttribute<? super E, ?> idAttribute = null;
+		for (SingularAttribute<? super E, ?> attribute : getEntityManager().getMetamodel().entity(entityClass)
+				.getSingularAttributes())
+		{
+			if (attribute.isId())
+			{
+				idAttribute = attribute;
+			}
+		}
+
+		final List<Order> keyOrders = new ArrayList<>(orders);
+		if (idAttribute != null && (keyOrders.isEmpty()
+				|| !getPropertyPath(keyOrders.get(keyOrders.size() - 1)).equals(idAttribute.getName())))
+		{
+			keyOrders.add(builder.asc(root.get(idAttribute)));
+		}
+		Preconditions.checkState(!keyOrders.isEmpty(), "Keyset paging requires orderBy to be called");
+
+		for (Order order : keyOrders)
+		{
+			Preconditions.checkArgument(
+					EntityAttributeAccessor.getAccessor(entityClass, getPropertyPath(order)) != null,
+					"Unable to read " + getPropertyPath(order) + " from " + entityClass);
+		}
+		return keyOrders;
+	}
+
+	/**
+	 * databases differ on where nulls sort, so each column that may be null
+	 * is preceded by a term that sorts them as the lowest value, matching
+	 * keysetPredicate()
+	 */
+	private List<Order> getNullsLowestOrders(final List<Order> keyOrders)
+	{
+		final List<Order> sqlOrders = new ArrayList<>(keyOrders.size() * 2);
+		for (Order order : keyOrders)
+		{
+			if (isNullable((Path<?>) order.getExpression()))
+			{
+				final Expression<Integer> notNull = builder.<Integer> selectCase()
+						.when(builder.isNull(order.getExpression()), 0).otherwise(1);
+				sqlOrders.add(order.isAscending() ? builder.asc(notNull) : builder.desc(notNull));
+			}
+			sqlOrders.add(order);
+		}
+		return sqlOrders;
+	}
+
+	@SuppressWarnings("rawtypes")
+	private boolean isNullable(final Path<?> path)
+	{
+		if (path.getJavaType().isPrimitive())
+		{
+			return false;
+		}
+		if (path.getModel() instanceof SingularAttribute)
+		{
+			final SingularAttribute attribute = (SingularAttribute) path.getModel();
+			if (attribute.isId() || !attribute.isOptional())
+			{
+				// still null if reached through an outer join
+				for (Path<?> parent = path.getParentPath(); parent != null; parent = parent.getParentPath())
+				{
+					if (parent instanceof Join && ((Join) parent).getJoinType() != JoinType.INNER)
+					{
+						return true;
+					}
+				}
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * (a > ?) or (a = ? and b > ?) or (a = ? and b = ? and c > ?)...
+	 */
+	private Predicate keysetPredicate(final List<Order> keyOrders, final Object[] lastKey)
+	{
+		final List<Predicate> alternatives = new ArrayList<>(keyOrders.size());
+		for (int i = 0; i < keyOrders.size(); i++)
+		{
+			final List<Predicate> terms = new ArrayList<>(i + 1);
+			for (int j = 0; j < i; j++)
+			{
+				terms.add(equalTo(keyOrders.get(j).getExpression(), lastKey[j]));
+			}
+			terms.add(after(keyOrders.get(i), lastKey[i]));
+			alternatives.add(builder.and(terms.toArray(new Predicate[terms.size()])));
+		}
+		return builder.or(alternatives.toArray(new Predicate[alternatives.size()]));
+	}
+
+	private Predicate equalTo(final Expression<?> expression, final Object value)
+	{
+		if (value == null)
+		{
+			return builder.isNull(expression);
+		}
+		return builder.equal(expression, param(value));
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private Predicate after(final Order order, final Object value)
+	{
+		final Expression expression = order.getExpression();
+		if (value == null)
+		{
+			// nulls sort as the lowest value, so when ascending everything
+			// that isn't null follows and when descending nothing does
+			return order.isAscending() ? builder.isNotNull(expression) : builder.disjunction();
+		}
+
+		final Expression<Comparable> parameter = param((Comparable) value);
+		if (order.isAscending())
+		{
+			return builder.greaterThan(expression, parameter);
+		}
+		return builder.or(builder.lessThan(expression, parameter), builder.isNull(expression));
+	}
+
+	/**
+	 * @return the dot separated attribute path of the order's expression
+	 *         relative to the root
+	 */
+	@SuppressWarnings("rawtypes")
+	private String getPropertyPath(final Order order)
+	{
+		Preconditions.checkArgument(order.getExpression() instanceof Path,
+				"Keyset paging only supports ordering by attributes");
+
+		final LinkedList<String> names = new LinkedList<>();
+		Path<?> path = (Path<?>) order.getExpression();
+		while (path != null && path.getParentPath() != null)
+		{
+			if (path instanceof Join)
+			{
+				names.addFirst(((Join) path).getAttribute().getName());
+			}
+			else
+			{
+				names.addFirst(((Attribute) path.getModel()).getName());
+			}
+			path = path.getParentPath();
+		}
+		return Joiner.on('.').join(names);
+	}
+
 	// /**
 	// * @deprecated This method is broken! You should use a JpaDslCountBuilder
 	// to
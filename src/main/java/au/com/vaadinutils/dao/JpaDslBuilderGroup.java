@@ -3,10 +3,19 @@ package au.com.vaadinutils.dao;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+import javax.persistence.PersistenceUnitUtil;
+
+import com.google.common.base.Preconditions;
 
 import au.com.vaadinutils.dao.JpaBaseDao.Condition;
+import au.com.vaadinutils.dao.ParallelQueryRunner.ValueReader;
 
 /**
  * Sometimes it is faster to run multiple queries returning the same entity than
@@ -43,6 +52,8 @@ import au.com.vaadinutils.dao.JpaBaseDao.Condition;
  * </code>
  * </pre>
  *
+ * Call parallel() before getResults() to run the queries concurrently.
+ *
  */
 public class JpaDslBuilderGroup<E>
 {
@@ -53,6 +64,9 @@ public class JpaDslBuilderGroup<E>
 	private List<E> results;
 	private boolean distinct = false;
 	private List<JpaDslOrder> orders = new ArrayList<>();
+	private int maxParallelism = 1;
+	private long timeout;
+	private TimeUnit timeoutUnit;
 
 	public JpaDslBuilderGroup(final Class<E> entityClass)
 	{
@@ -81,6 +95,12 @@ public class JpaDslBuilderGroup<E>
 
 	public List<E> getResults()
 	{
+		if (maxParallelism > 1 && builders.size() > 1)
+		{
+			this.results = getResultsInParallel();
+			return this.results;
+		}
+
 		final Collection<E> results;
 		if (distinct)
 		{
@@ -115,6 +135,65 @@ public class JpaDslBuilderGroup<E>
 		return this.results;
 	}
 
+	private List<E> getResultsInParallel()
+	{
+		final List<Callable<List<E>>> queries = new ArrayList<>(builders.size());
+		for (final JpaDslBuilderGroupItem<E> builder : builders)
+		{
+			queries.add(new Callable<List<E>>()
+			{
+				@Override
+				public List<E> call() throws Exception
+				{
+					return makeQuery(builder);
+				}
+			});
+		}
+
+		final List<List<E>> queryResults = ParallelQueryRunner.run(queries, maxParallelism, timeout, timeoutUnit);
+
+		final List<E> results;
+		if (distinct)
+		{
+			// each query loaded its own instances, so match them up by id
+			// the caller may not have an EntityManager of its own
+			final PersistenceUnitUtil util = EntityManagerProvider.getEntityManagerFactory().getPersistenceUnitUtil();
+			final Map<Object, E> merged = new LinkedHashMap<>();
+			for (List<E> queryResult : queryResults)
+			{
+				for (E entity : queryResult)
+				{
+					final Object id = util.getIdentifier(entity);
+					if (!merged.containsKey(id))
+					{
+						merged.put(id, entity);
+					}
+				}
+			}
+			results = new ArrayList<>(merged.values());
+		}
+		else
+		{
+			results = new ArrayList<>();
+			for (List<E> queryResult : queryResults)
+			{
+				results.addAll(queryResult);
+			}
+		}
+
+		ParallelQueryRunner.sort(results, orders, new ValueReader<E>()
+		{
+			@Override
+			public Object getValue(E result, String field)
+			{
+				final EntityAttributeAccessor accessor = EntityAttributeAccessor.getAccessor(entityClass, field);
+				return accessor != null ? accessor.getValue(result) : null;
+			}
+		});
+
+		return results;
+	}
+
 	private List<E> makeQuery(final JpaDslBuilderGroupItem<E> builder)
 	{
 		final JpaDslBuilder<E> q = new JpaDslBuilder<>(entityClass);
@@ -150,6 +229,33 @@ public class JpaDslBuilderGroup<E>
 		distinct = true;
 	}
 
+	/**
+	 * Run the group's queries in parallel, each on its own worker thread with
+	 * its own EntityManager, rather than one after the other on the caller's
+	 * EntityManager. The common and item callbacks are called on the worker
+	 * threads so must not touch vaadin components.
+	 *
+	 * When orderBy has been called the merged results are sorted in memory
+	 * once all the queries complete.
+	 *
+	 * The entities returned are loaded by the workers' EntityManagers so won't
+	 * be managed by the caller's EntityManager.
+	 *
+	 * @param maxParallelism
+	 *            - the maximum number of this group's queries to run at once
+	 * @param timeout
+	 *            - a QueryTimeoutException is thrown if the queries haven't all
+	 *            completed within this time
+	 * @param unit
+	 */
+	public void parallel(final int maxParallelism, final long timeout, final TimeUnit unit)
+	{
+		Preconditions.checkArgument(maxParallelism > 0, "maxParallelism must be greater than zero");
+		this.maxParallelism = maxParallelism;
+		this.timeout = timeout;
+		this.timeoutUnit = unit;
+	}
+
 	public void orderBy(final String field, final boolean ascending)
 	{
 		orders.add(new JpaDslOrder(field, ascending));
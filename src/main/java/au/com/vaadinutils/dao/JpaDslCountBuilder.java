@@ -1,5 +1,7 @@
 package au.com.vaadinutils.dao;
 
+import javax.persistence.TypedQuery;
+
 public class JpaDslCountBuilder<E> extends JpaDslAbstract<E, Long>
 {
 	public JpaDslCountBuilder(Class<E> entityClass)
@@ -19,7 +21,9 @@ public class JpaDslCountBuilder<E> extends JpaDslAbstract<E, Long>
 		}
 		criteria.select(builder.count(root));
 
-		return getEntityManager().createQuery(criteria).getSingleResult();
+		TypedQuery<Long> query = getEntityManager().createQuery(criteria);
+		bindParameters(query);
+		return query.getSingleResult();
 	}
 
 	public Long countDistinct()
@@ -30,6 +34,8 @@ public class JpaDslCountBuilder<E> extends JpaDslAbstract<E, Long>
 		}
 		criteria.select(builder.countDistinct(root));
 
-		return getEntityManager().createQuery(criteria).getSingleResult();
+		TypedQuery<Long> query = getEntityManager().createQuery(criteria);
+		bindParameters(query);
+		return query.getSingleResult();
 	}
 }
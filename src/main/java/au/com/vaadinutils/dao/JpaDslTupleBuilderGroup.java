@@ -1,6 +1,7 @@
 package au.com.vaadinutils.dao;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
@@ -8,11 +9,16 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
 
 import javax.persistence.Tuple;
 import javax.persistence.metamodel.SingularAttribute;
 
+import com.google.common.base.Preconditions;
+
 import au.com.vaadinutils.dao.JpaBaseDao.Condition;
+import au.com.vaadinutils.dao.ParallelQueryRunner.ValueReader;
 
 /**
  * Sometimes it is faster to run multiple queries returning the same entity than
@@ -55,6 +61,8 @@ import au.com.vaadinutils.dao.JpaBaseDao.Condition;
  * </code>
  * </pre>
  *
+ * Call parallel() before getResults() to run the queries concurrently.
+ *
  */
 public class JpaDslTupleBuilderGroup<E>
 {
@@ -67,6 +75,9 @@ public class JpaDslTupleBuilderGroup<E>
 	private Map<SingularAttribute<E, ?>, Integer> multiselects = new LinkedHashMap<>();
 	private int positionCounter = 0;
 	private List<JpaDslOrder> orders = new ArrayList<>();
+	private int maxParallelism = 1;
+	private long timeout;
+	private TimeUnit timeoutUnit;
 
 	public JpaDslTupleBuilderGroup(final Class<E> entityClass)
 	{
@@ -121,6 +132,12 @@ public class JpaDslTupleBuilderGroup<E>
 
 	public List<Tuple> getResults()
 	{
+		if (maxParallelism > 1 && builders.size() > 1)
+		{
+			this.results = getResultsInParallel();
+			return this.results;
+		}
+
 		final Collection<Tuple> results;
 		if (distinct)
 		{
@@ -155,6 +172,70 @@ public class JpaDslTupleBuilderGroup<E>
 		return this.results;
 	}
 
+	private List<Tuple> getResultsInParallel()
+	{
+		final List<Callable<List<Tuple>>> queries = new ArrayList<>(builders.size());
+		for (final JpaDslTupleBuilderGroupItem<E> builder : builders)
+		{
+			queries.add(new Callable<List<Tuple>>()
+			{
+				@Override
+				public List<Tuple> call() throws Exception
+				{
+					return makeQuery(builder);
+				}
+			});
+		}
+
+		final List<List<Tuple>> queryResults = ParallelQueryRunner.run(queries, maxParallelism, timeout,
+				timeoutUnit);
+
+		final List<Tuple> results;
+		if (distinct)
+		{
+			// the tuples come from different queries, so compare their values
+			final Map<List<Object>, Tuple> merged = new LinkedHashMap<>();
+			for (List<Tuple> queryResult : queryResults)
+			{
+				for (Tuple tuple : queryResult)
+				{
+					final List<Object> key = Arrays.asList(tuple.toArray());
+					if (!merged.containsKey(key))
+					{
+						merged.put(key, tuple);
+					}
+				}
+			}
+			results = new ArrayList<>(merged.values());
+		}
+		else
+		{
+			results = new ArrayList<>();
+			for (List<Tuple> queryResult : queryResults)
+			{
+				results.addAll(queryResult);
+			}
+		}
+
+		ParallelQueryRunner.sort(results, orders, new ValueReader<Tuple>()
+		{
+			@Override
+			public Object getValue(Tuple result, String field)
+			{
+				for (Entry<SingularAttribute<E, ?>, Integer> multiselect : multiselects.entrySet())
+				{
+					if (multiselect.getKey().getName().equals(field))
+					{
+						return result.get(multiselect.getValue());
+					}
+				}
+				return get(result, field);
+			}
+		});
+
+		return results;
+	}
+
 	private List<Tuple> makeQuery(final JpaDslTupleBuilderGroupItem<E> builder)
 	{
 		final JpaDslTupleBuilder<E> q = new JpaDslTupleBuilder<>(entityClass);
@@ -196,6 +277,33 @@ public class JpaDslTupleBuilderGroup<E>
 		distinct = true;
 	}
 
+	/**
+	 * Run the group's queries in parallel, each on its own worker thread with
+	 * its own EntityManager, rather than one after the other on the caller's
+	 * EntityManager. The common and item callbacks are called on the worker
+	 * threads so must not touch vaadin components.
+	 *
+	 * When orderBy has been called the merged results are sorted in memory
+	 * once all the queries complete.
+	 *
+	 * Only fields that are part of the multiselect (or have an alias) can be
+	 * used to order the merged results.
+	 *
+	 * @param maxParallelism
+	 *            - the maximum number of this group's queries to run at once
+	 * @param timeout
+	 *            - a QueryTimeoutException is thrown if the queries haven't all
+	 *            completed within this time
+	 * @param unit
+	 */
+	public void parallel(final int maxParallelism, final long timeout, final TimeUnit unit)
+	{
+		Preconditions.checkArgument(maxParallelism > 0, "maxParallelism must be greater than zero");
+		this.maxParallelism = maxParallelism;
+		this.timeout = timeout;
+		this.timeoutUnit = unit;
+	}
+
 	public void orderBy(final String field, final boolean ascending)
 	{
 		orders.add(new JpaDslOrder(field, ascending));
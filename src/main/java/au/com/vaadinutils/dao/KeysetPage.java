@@ -0,0 +1,181 @@
+package au.com.vaadinutils.dao;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * A page of results returned by JpaDslBuilder.getPage().
+ *
+ * The continuation token identifies the last row of the page and can be handed
+ * to a client and passed back to getPage() to fetch the next page. Only
+ * numbers, strings, booleans, dates and enums can be carried in a token.
+ *
+ * @param <E>
+ */
+public class KeysetPage<E>
+{
+	private static final String SEPARATOR = ".";
+
+	private final List<E> results;
+	private final Object[] lastKey;
+	private final boolean hasMore;
+
+	KeysetPage(final List<E> results, final Object[] lastKey, final boolean hasMore)
+	{
+		this.results = results;
+		this.lastKey = lastKey;
+		this.hasMore = hasMore;
+	}
+
+	public List<E> getResults()
+	{
+		return results;
+	}
+
+	/**
+	 * the values of the orderBy columns of the last row on this page, null if
+	 * the page is empty. Pass them to JpaDslBuilder.getPageAfter() to get the
+	 * next page.
+	 */
+	public Object[] getLastKey()
+	{
+		return lastKey;
+	}
+
+	public boolean hasMore()
+	{
+		return hasMore;
+	}
+
+	/**
+	 *
+	 * @return a token for the next page or null if this is the last page
+	 */
+	public String getContinuationToken()
+	{
+		if (!hasMore)
+		{
+			return null;
+		}
+		return encode(lastKey);
+	}
+
+	static String encode(final Object[] key)
+	{
+		final StringBuilder token = new StringBuilder();
+		for (Object value : key)
+		{
+			if (token.length() > 0)
+			{
+				token.append(SEPARATOR);
+			}
+			token.append(Base64.getUrlEncoder().withoutPadding()
+					.encodeToString(encodeValue(value).getBytes(StandardCharsets.UTF_8)));
+		}
+		return token.toString();
+	}
+
+	static Object[] decode(final String token)
+	{
+		final List<Object> key = new ArrayList<>();
+		for (String part : token.split("\\" + SEPARATOR))
+		{
+			key.add(decodeValue(new String(Base64.getUrlDecoder().decode(part), StandardCharsets.UTF_8)));
+		}
+		return key.toArray();
+	}
+
+	private static String encodeValue(final Object value)
+	{
+		if (value == null)
+		{
+			return "N";
+		}
+		if (value instanceof Long || value instanceof Integer || value instanceof Short
+				|| value instanceof Byte || value instanceof Double || value instanceof Float
+				|| value instanceof BigDecimal || value instanceof BigInteger || value instanceof String
+				|| value instanceof Boolean)
+		{
+			return value.getClass().getSimpleName() + ":" + value;
+		}
+		if (value instanceof Date)
+		{
+			return "Date:" + ((Date) value).getTime();
+		}
+		if (value instanceof Enum)
+		{
+			return "Enum:" + ((Enum<?>) value).getDeclaringClass().getName() + ":" + ((Enum<?>) value).name();
+		}
+		throw new IllegalStateException("Values of type " + value.getClass()
+				+ " can't be used in a continuation token, order by a basic attribute instead");
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private static Object decodeValue(final String encoded)
+	{
+		if (encoded.equals("N"))
+		{
+			return null;
+		}
+		final int colon = encoded.indexOf(':');
+		if (colon < 0)
+		{
+			throw new IllegalArgumentException("Invalid continuation token");
+		}
+		final String type = encoded.substring(0, colon);
+		final String value = encoded.substring(colon + 1);
+		switch (type)
+		{
+		case "Long":
+			return Long.valueOf(value);
+		case "Integer":
+			return Integer.valueOf(value);
+		case "Short":
+			return Short.valueOf(value);
+		case "Byte":
+			return Byte.valueOf(value);
+		case "Double":
+			return Double.valueOf(value);
+		case "Float":
+			return Float.valueOf(value);
+		case "BigDecimal":
+			return new BigDecimal(value);
+		case "BigInteger":
+			return new BigInteger(value);
+		case "String":
+			return value;
+		case "Boolean":
+			return Boolean.valueOf(value);
+		case "Date":
+			return new Date(Long.parseLong(value));
+		case "Enum":
+			final int split = value.lastIndexOf(':');
+			if (split < 0)
+			{
+				throw new IllegalArgumentException("Invalid continuation token");
+			}
+			try
+			{
+				// don't initialise classes named by a client supplied token
+				final Class<?> enumClass = Class.forName(value.substring(0, split), false,
+						KeysetPage.class.getClassLoader());
+				if (!enumClass.isEnum())
+				{
+					throw new IllegalArgumentException("Invalid continuation token");
+				}
+				return Enum.valueOf((Class<Enum>) enumClass, value.substring(split + 1));
+			}
+			catch (ClassNotFoundException e)
+			{
+				throw new IllegalArgumentException("Invalid continuation token", e);
+			}
+		default:
+			throw new IllegalArgumentException("Invalid continuation token");
+		}
+	}
+}
@@ -0,0 +1,243 @@
+package au.com.vaadinutils.dao;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+
+import javax.persistence.EntityManager;
+
+import org.vaadin.addons.lazyquerycontainer.LazyQueryContainer;
+import org.vaadin.addons.lazyquerycontainer.Query;
+import org.vaadin.addons.lazyquerycontainer.QueryDefinition;
+import org.vaadin.addons.lazyquerycontainer.QueryFactory;
+
+import com.vaadin.data.Item;
+import com.vaadin.data.util.BeanItem;
+
+import au.com.vaadinutils.dao.JpaBaseDao.Condition;
+
+/**
+ * A LazyQueryContainer query factory that pages through the entities with
+ * keyset paging rather than offsets.
+ *
+ * Each query remembers the key of the last row of every batch it loads, so
+ * scrolling down through the container costs the same at row 500,000 as it
+ * does at row 0. A jump to a row that hasn't been reached yet (e.g. dragging
+ * the scroll bar) seeks to the nearest remembered row and offsets from there.
+ *
+ * Committing the container persists added items, merges modified items and
+ * removes removed items using the current EntityManager. removeAllItems() is
+ * a bulk delete of the rows matching the conditions, so it doesn't cascade.
+ *
+ * Usage:
+ *
+ * <pre>
+ * <code>
+ * KeysetQueryFactory&lt;Contact&gt; factory = new KeysetQueryFactory&lt;&gt;(Contact.class, new KeysetQueryConditions&lt;Contact&gt;()
+ * {
+ * 		&#64;Override
+ * 		public void conditionsWillBeAdded(JpaDslAbstract&lt;Contact, ?&gt; builder, List&lt;Condition&lt;Contact&gt;&gt; conditions)
+ * 		{
+ * 			conditions.add(builder.eq(Contact_.active, true));
+ * 		}
+ * });
+ * factory.orderBy(Contact_.lastname.getName(), true);
+ * LazyQueryContainer container = factory.createContainer(Contact_.id.getName(), 100);
+ * </code>
+ * </pre>
+ *
+ * @param <E>
+ */
+public class KeysetQueryFactory<E> implements QueryFactory
+{
+	private final Class<E> entityClass;
+	private final KeysetQueryConditions<E> conditions;
+	private final List<JpaDslOrder> defaultOrders = new ArrayList<>();
+
+	public interface KeysetQueryConditions<E>
+	{
+		/**
+		 * called for both the count and the select queries
+		 */
+		public void conditionsWillBeAdded(final JpaDslAbstract<E, ?> builder, final List<Condition<E>> conditions);
+	}
+
+	/**
+	 *
+	 * @param entityClass
+	 * @param conditions
+	 *            - may be null
+	 */
+	public KeysetQueryFactory(final Class<E> entityClass, final KeysetQueryConditions<E> conditions)
+	{
+		this.entityClass = entityClass;
+		this.conditions = conditions;
+	}
+
+	/**
+	 * the order used when the container hasn't been sorted
+	 */
+	public void orderBy(final String field, final boolean ascending)
+	{
+		defaultOrders.add(new JpaDslOrder(field, ascending));
+	}
+
+	public LazyQueryContainer createContainer(final Object idPropertyId, final int batchSize)
+	{
+		return new LazyQueryContainer(this, idPropertyId, batchSize, false);
+	}
+
+	@Override
+	public Query constructQuery(final QueryDefinition queryDefinition)
+	{
+		final List<JpaDslOrder> orders = new LinkedList<>();
+		final Object[] sortPropertyIds = queryDefinition.getSortPropertyIds();
+		final boolean[] sortStates = queryDefinition.getSortPropertyAscendingStates();
+		for (int i = 0; i < sortPropertyIds.length; i++)
+		{
+			orders.add(new JpaDslOrder(sortPropertyIds[i].toString(), sortStates[i]));
+		}
+		if (orders.isEmpty())
+		{
+			orders.addAll(defaultOrders);
+		}
+		return new KeysetQuery(queryDefinition, orders);
+	}
+
+	private class KeysetQuery implements Query
+	{
+		private final QueryDefinition queryDefinition;
+		private final List<JpaDslOrder> orders;
+
+		/**
+		 * the key of the row before each index we've seen, the first page
+		 * has no key.
+		 */
+		private final TreeMap<Integer, Object[]> bookmarks = new TreeMap<>();
+
+		private Integer size;
+
+		KeysetQuery(final QueryDefinition queryDefinition, final List<JpaDslOrder> orders)
+		{
+			this.queryDefinition = queryDefinition;
+			this.orders = orders;
+			bookmarks.put(0, null);
+		}
+
+		@Override
+		public int size()
+		{
+			if (size == null)
+			{
+				final JpaDslCountBuilder<E> q = new JpaDslCountBuilder<>(entityClass);
+				q.where(getConditions(q));
+				size = q.count().intValue();
+			}
+			return size;
+		}
+
+		@Override
+		public List<Item> loadItems(final int startIndex, final int count)
+		{
+			final Entry<Integer, Object[]> bookmark = bookmarks.floorEntry(startIndex);
+
+			final JpaDslBuilder<E> q = new JpaDslBuilder<>(entityClass);
+			q.where(getConditions(q));
+			for (JpaDslOrder order : orders)
+			{
+				q.orderBy(order.getField(), order.getAscending());
+			}
+
+			final int skip = startIndex - bookmark.getKey();
+			if (skip > 0)
+			{
+				q.startPosition(skip);
+			}
+
+			final KeysetPage<E> page = q.getPageAfter(count, bookmark.getValue());
+			if (page.getLastKey() != null)
+			{
+				bookmarks.put(startIndex + page.getResults().size(), page.getLastKey());
+			}
+
+			final List<Item> items = new ArrayList<>(page.getResults().size());
+			for (E entity : page.getResults())
+			{
+				items.add(createItem(entity));
+			}
+			return items;
+		}
+
+		private BeanItem<E> createItem(final E entity)
+		{
+			final BeanItem<E> item = new BeanItem<>(entity);
+			for (Object propertyId : queryDefinition.getPropertyIds())
+			{
+				if (propertyId.toString().contains(".") && item.getItemProperty(propertyId) == null)
+				{
+					item.addNestedProperty(propertyId.toString());
+				}
+			}
+			return item;
+		}
+
+		private List<Condition<E>> getConditions(final JpaDslAbstract<E, ?> q)
+		{
+			final List<Condition<E>> where = new LinkedList<>();
+			if (conditions != null)
+			{
+				conditions.conditionsWillBeAdded(q, where);
+			}
+			return where;
+		}
+
+		@Override
+		public void saveItems(final List<Item> addedItems, final List<Item> modifiedItems,
+				final List<Item> removedItems)
+		{
+			final EntityManager em = EntityManagerProvider.getEntityManager();
+			for (Item item : addedItems)
+			{
+				em.persist(getEntity(item));
+			}
+			for (Item item : modifiedItems)
+			{
+				em.merge(getEntity(item));
+			}
+			for (Item item : removedItems)
+			{
+				em.remove(em.merge(getEntity(item)));
+			}
+		}
+
+		@Override
+		public boolean deleteAllItems()
+		{
+			final JpaDslBuilder<E> q = new JpaDslBuilder<>(entityClass);
+			q.where(getConditions(q));
+			q.delete();
+			return true;
+		}
+
+		@Override
+		public Item constructItem()
+		{
+			try
+			{
+				return createItem(entityClass.newInstance());
+			}
+			catch (InstantiationException | IllegalAccessException e)
+			{
+				throw new RuntimeException(e);
+			}
+		}
+
+		@SuppressWarnings("unchecked")
+		private E getEntity(final Item item)
+		{
+			return ((BeanItem<E>) item).getBean();
+		}
+	}
+}
@@ -0,0 +1,242 @@
+package au.com.vaadinutils.dao;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import javax.persistence.EntityManager;
+import javax.persistence.criteria.CriteriaQuery;
+
+import org.apache.logging.log4j.Logger;
+
+import com.google.common.base.Preconditions;
+
+import au.com.vaadinutils.crud.CrudEntity;
+import au.com.vaadinutils.crud.events.CrudEventDistributer;
+import au.com.vaadinutils.crud.events.CrudEventListener;
+import au.com.vaadinutils.crud.events.CrudEventType;
+
+/**
+ * An application wide cache of small lookup tables (states, categories etc.)
+ * so that every form that displays a combo box of them doesn't have to query
+ * the table again.
+ *
+ * Only classes that have been registered are cached, register them during
+ * application startup:
+ *
+ * <pre>
+ * <code>
+ * LookupCache.register(State.class);
+ * </code>
+ * </pre>
+ *
+ * The cached lists are shared by all sessions so they are unmodifiable and the
+ * entities in them must be treated as read only. They are loaded with their
+ * own EntityManager so they aren't part of any user's persistence context.
+ *
+ * An entry is dropped when a crud view publishes a CrudEventDistributer event
+ * for its class, when it is older than the TTL or when it is the least
+ * recently used and the cache is full. Tables with more than the max rows
+ * aren't cached, that they are too big is remembered for the TTL so they
+ * aren't queried again by every form.
+ */
+public enum LookupCache
+{
+	INSTANCE;
+
+	private static final Logger logger = org.apache.logging.log4j.LogManager.getLogger();
+
+	public static final int DEFAULT_MAX_ENTRIES = 50;
+	public static final int DEFAULT_MAX_ROWS = 1000;
+	public static final long DEFAULT_TTL_MINUTES = 10;
+
+	private int maxEntries = DEFAULT_MAX_ENTRIES;
+	private int maxRows = DEFAULT_MAX_ROWS;
+	private long ttlMillis = TimeUnit.MINUTES.toMillis(DEFAULT_TTL_MINUTES);
+
+	private final Set<Class<?>> registered = Collections.newSetFromMap(new ConcurrentHashMap<Class<?>, Boolean>());
+
+	// access ordered, so the eldest entry is the least recently used
+	private final Map<Class<?>, Entry> entries = new LinkedHashMap<Class<?>, Entry>(16, 0.75f, true)
+	{
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Class<?>, Entry> eldest)
+		{
+			return size() > maxEntries;
+		}
+	};
+
+	private boolean listening = false;
+
+	/**
+	 * incremented by every invalidation, so a table that was loading when it
+	 * was invalidated isn't put in the cache
+	 */
+	private long generation = 0;
+
+	private static class Entry
+	{
+		/**
+		 * null if the table has too many rows to cache
+		 */
+		final List<?> rows;
+		final long loaded;
+
+		Entry(final List<?> rows)
+		{
+			this.rows = rows;
+			this.loaded = System.currentTimeMillis();
+		}
+	}
+
+	/**
+	 * @param maxEntries
+	 *            the maximum number of tables cached
+	 * @param maxRows
+	 *            tables with more rows than this aren't cached
+	 * @param ttl
+	 *            how long a table is cached for
+	 * @param unit
+	 */
+	public static void configure(final int maxEntries, final int maxRows, final long ttl, final TimeUnit unit)
+	{
+		Preconditions.checkArgument(maxEntries > 0, "maxEntries must be greater than zero");
+		Preconditions.checkArgument(maxRows > 0, "maxRows must be greater than zero");
+		synchronized (INSTANCE)
+		{
+			INSTANCE.maxEntries = maxEntries;
+			INSTANCE.maxRows = maxRows;
+			INSTANCE.ttlMillis = unit.toMillis(ttl);
+			INSTANCE.entries.clear();
+			INSTANCE.generation++;
+		}
+	}
+
+	public static void register(final Class<? extends CrudEntity> entityClass)
+	{
+		synchronized (INSTANCE)
+		{
+			if (!INSTANCE.listening)
+			{
+				CrudEventDistributer.addGlobalListener(new CrudEventListener()
+				{
+					@Override
+					public void crudEvent(CrudEventType event, CrudEntity entity)
+					{
+						if (entity != null)
+						{
+							invalidate(entity.getClass());
+						}
+					}
+				});
+				INSTANCE.listening = true;
+			}
+		}
+		INSTANCE.registered.add(entityClass);
+	}
+
+	public static boolean isRegistered(final Class<?> entityClass)
+	{
+		return INSTANCE.registered.contains(entityClass);
+	}
+
+	/**
+	 * @return all of the rows of the table, or null if the class isn't
+	 *         registered or has too many rows to cache.
+	 */
+	@SuppressWarnings("unchecked")
+	public static <E> List<E> get(final Class<E> entityClass)
+	{
+		if (!isRegistered(entityClass))
+		{
+			return null;
+		}
+
+		final long loadingGeneration;
+		synchronized (INSTANCE)
+		{
+			final Entry entry = INSTANCE.entries.get(entityClass);
+			if (entry != null && System.currentTimeMillis() - entry.loaded < INSTANCE.ttlMillis)
+			{
+				return (List<E>) entry.rows;
+			}
+			loadingGeneration = INSTANCE.generation;
+		}
+
+		// load outside the lock so a slow table doesn't hold up the others,
+		// two threads may load the same table at once which is harmless.
+		final List<E> rows = load(entityClass);
+		synchronized (INSTANCE)
+		{
+			// if the table was invalidated while loading the rows may be stale
+			if (INSTANCE.generation == loadingGeneration)
+			{
+				INSTANCE.entries.put(entityClass, new Entry(rows));
+			}
+		}
+		return rows;
+	}
+
+	/**
+	 * drops the cached rows of the class (and any registered super class)
+	 */
+	public static void invalidate(final Class<?> entityClass)
+	{
+		synchronized (INSTANCE)
+		{
+			for (Class<?> registeredClass : INSTANCE.registered)
+			{
+				if (registeredClass.isAssignableFrom(entityClass))
+				{
+					INSTANCE.entries.remove(registeredClass);
+				}
+			}
+			INSTANCE.generation++;
+		}
+	}
+
+	public static void invalidateAll()
+	{
+		synchronized (INSTANCE)
+		{
+			INSTANCE.entries.clear();
+			INSTANCE.generation++;
+		}
+	}
+
+	/**
+	 * @return null if the table has more than maxRows rows
+	 */
+	private static <E> List<E> load(final Class<E> entityClass)
+	{
+		final int maxRows;
+		synchronized (INSTANCE)
+		{
+			maxRows = INSTANCE.maxRows;
+		}
+
+		final EntityManager em = EntityManagerProvider.createEntityManager();
+		try
+		{
+			final CriteriaQuery<E> criteria = em.getCriteriaBuilder().createQuery(entityClass);
+			criteria.select(criteria.from(entityClass));
+			final List<E> rows = em.createQuery(criteria).setMaxResults(maxRows + 1).getResultList();
+			if (rows.size() > maxRows)
+			{
+				logger.warn("{} has more than {} rows, it won't be cached", entityClass.getSimpleName(), maxRows);
+				return null;
+			}
+			return Collections.unmodifiableList(rows);
+		}
+		finally
+		{
+			em.close();
+		}
+	}
+}
@@ -0,0 +1,128 @@
+package au.com.vaadinutils.dao;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.Path;
+import javax.persistence.criteria.Predicate;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Iterables;
+import com.vaadin.data.Item;
+import com.vaadin.data.Property;
+import com.vaadin.data.util.filter.Not;
+import com.vaadin.data.util.filter.Or;
+
+/**
+ * Excludes the items whose property is one of a set of values, e.g. the items
+ * that have already been selected in a twin column select.
+ *
+ * Building the same thing from Not(Or(Equal...)) produces an OR clause per
+ * value which gets slower with every value and eventually breaks the SQL
+ * parser. This is translated to NOT IN clauses of at most
+ * JpaBaseDao.MAX_IN_LIST_SIZE values instead.
+ *
+ * JPAContainer can't be taught new filter types, so to JPAContainer this
+ * looks like Not(Or()) which matches everything, and the container's
+ * QueryModifierDelegate must be a NotInFilterDelegate to add the real
+ * predicate. The filter must be added to the container directly or inside an
+ * And (e.g. via NullFilter.and()), it can't be nested inside an Or or a Not.
+ *
+ * In memory containers use passesFilter() and don't need the delegate.
+ */
+public class NotInFilter extends Not
+{
+	private static final long serialVersionUID = 1L;
+
+	private final Object propertyId;
+	private final Set<Object> values;
+
+	public NotInFilter(final Object propertyId, final Collection<?> values)
+	{
+		super(new Or());
+		Preconditions.checkNotNull(propertyId, "propertyId may not be null");
+		Preconditions.checkNotNull(values, "values may not be null");
+		this.propertyId = propertyId;
+		this.values = new HashSet<Object>(values);
+	}
+
+	public Object getPropertyId()
+	{
+		return propertyId;
+	}
+
+	public Set<Object> getValues()
+	{
+		return values;
+	}
+
+	@Override
+	public boolean passesFilter(final Object itemId, final Item item) throws UnsupportedOperationException
+	{
+		final Property<?> property = item.getItemProperty(propertyId);
+		if (property == null)
+		{
+			return false;
+		}
+		return !values.contains(property.getValue());
+	}
+
+	@Override
+	public boolean appliesToProperty(final Object propertyId)
+	{
+		return this.propertyId.equals(propertyId);
+	}
+
+	/**
+	 * @return a NOT IN predicate for each chunk of values, all of which must
+	 *         be true.
+	 */
+	List<Predicate> toPredicates(final CriteriaBuilder builder, final Path<?> root)
+	{
+		Path<?> path = root;
+		for (String property : propertyId.toString().split("\\."))
+		{
+			path = path.get(property);
+		}
+
+		final List<Predicate> predicates = new ArrayList<>();
+		for (List<Object> chunk : Iterables.partition(values, JpaBaseDao.MAX_IN_LIST_SIZE))
+		{
+			predicates.add(builder.not(path.in(chunk)));
+		}
+		return predicates;
+	}
+
+	// JPAContainer caches results by filter, so filters with different values
+	// must not be equal
+	@Override
+	public boolean equals(final Object obj)
+	{
+		if (obj == this)
+		{
+			return true;
+		}
+		if (obj == null || obj.getClass() != getClass())
+		{
+			return false;
+		}
+		final NotInFilter other = (NotInFilter) obj;
+		return propertyId.equals(other.propertyId) && values.equals(other.values);
+	}
+
+	@Override
+	public int hashCode()
+	{
+		return propertyId.hashCode() * 31 + values.hashCode();
+	}
+
+	@Override
+	public String toString()
+	{
+		return propertyId + " NOT IN (" + values.size() + " values)";
+	}
+}
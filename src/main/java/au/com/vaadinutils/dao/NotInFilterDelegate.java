@@ -0,0 +1,124 @@
+package au.com.vaadinutils.dao;
+
+import java.util.Collection;
+import java.util.List;
+
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.Order;
+import javax.persistence.criteria.Predicate;
+import javax.persistence.criteria.Root;
+
+import com.vaadin.addon.jpacontainer.QueryModifierDelegate;
+import com.vaadin.data.Container.Filter;
+import com.vaadin.data.Container.Filterable;
+import com.vaadin.data.util.filter.And;
+
+/**
+ * Adds the NOT IN predicates for any NotInFilter applied to a JPAContainer.
+ *
+ * Usage:
+ *
+ * <pre>
+ * <code>
+ * container.setQueryModifierDelegate(new NotInFilterDelegate(container, null));
+ * </code>
+ * </pre>
+ *
+ * Calls are passed on to the wrapped delegate (if any) so this can be combined
+ * with other delegates.
+ */
+public class NotInFilterDelegate implements QueryModifierDelegate
+{
+	private static final long serialVersionUID = 1L;
+
+	private final Filterable container;
+	private final QueryModifierDelegate delegate;
+
+	/**
+	 *
+	 * @param container
+	 *            the container whose filters will be checked
+	 * @param delegate
+	 *            - may be null
+	 */
+	public NotInFilterDelegate(final Filterable container, final QueryModifierDelegate delegate)
+	{
+		this.container = container;
+		this.delegate = delegate;
+	}
+
+	@Override
+	public void queryWillBeBuilt(final CriteriaBuilder criteriaBuilder, final CriteriaQuery<?> query)
+	{
+		if (delegate != null)
+		{
+			delegate.queryWillBeBuilt(criteriaBuilder, query);
+		}
+	}
+
+	@Override
+	public void queryHasBeenBuilt(final CriteriaBuilder criteriaBuilder, final CriteriaQuery<?> query)
+	{
+		if (delegate != null)
+		{
+			delegate.queryHasBeenBuilt(criteriaBuilder, query);
+		}
+	}
+
+	@Override
+	public void filtersWillBeAdded(final CriteriaBuilder criteriaBuilder, final CriteriaQuery<?> query,
+			final List<Predicate> predicates)
+	{
+		if (delegate != null)
+		{
+			delegate.filtersWillBeAdded(criteriaBuilder, query, predicates);
+		}
+		final Root<?> root = query.getRoots().iterator().next();
+		addPredicates(container.getContainerFilters(), criteriaBuilder, root, predicates);
+	}
+
+	private void addPredicates(final Collection<Filter> filters, final CriteriaBuilder criteriaBuilder,
+			final Root<?> root, final List<Predicate> predicates)
+	{
+		for (Filter filter : filters)
+		{
+			if (filter instanceof NotInFilter)
+			{
+				predicates.addAll(((NotInFilter) filter).toPredicates(criteriaBuilder, root));
+			}
+			else if (filter instanceof And)
+			{
+				addPredicates(((And) filter).getFilters(), criteriaBuilder, root, predicates);
+			}
+		}
+	}
+
+	@Override
+	public void filtersWereAdded(final CriteriaBuilder criteriaBuilder, final CriteriaQuery<?> query)
+	{
+		if (delegate != null)
+		{
+			delegate.filtersWereAdded(criteriaBuilder, query);
+		}
+	}
+
+	@Override
+	public void orderByWillBeAdded(final CriteriaBuilder criteriaBuilder, final CriteriaQuery<?> query,
+			final List<Order> orderBy)
+	{
+		if (delegate != null)
+		{
+			delegate.orderByWillBeAdded(criteriaBuilder, query, orderBy);
+		}
+	}
+
+	@Override
+	public void orderByWasAdded(final CriteriaBuilder criteriaBuilder, final CriteriaQuery<?> query)
+	{
+		if (delegate != null)
+		{
+			delegate.orderByWasAdded(criteriaBuilder, query);
+		}
+	}
+}
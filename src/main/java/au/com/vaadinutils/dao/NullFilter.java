@@ -1,8 +1,11 @@
 package au.com.vaadinutils.dao;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.List;
 
+import com.google.common.base.Preconditions;
 import com.vaadin.data.Container.Filter;
 import com.vaadin.data.util.filter.And;
 import com.vaadin.data.util.filter.Or;
@@ -13,14 +16,25 @@ import com.vaadin.data.util.filter.Or;
  */
 public class NullFilter
 {
+	/**
+	 * @return a NotInFilter, or null if there are no values to exclude
+	 */
+	public static Filter notIn(final Object propertyId, final Collection<?> values)
+	{
+		if (values == null || values.isEmpty())
+			return null;
+
+		return new NotInFilter(propertyId, values);
+	}
+
+	/**
+	 * nested Ands are flattened into a single And. A NotInFilter may be
+	 * and'ed with other filters but it can't be or'ed.
+	 */
 	public static Filter and(final Filter... filters)
 	{
 		final List<Filter> validFilters = new ArrayList<Filter>();
-		for (Filter filter : filters)
-		{
-			if (filter != null)
-				validFilters.add(filter);
-		}
+		addAndedFilters(validFilters, Arrays.asList(filters));
 		
 		if (validFilters.size() == 1)
 			return validFilters.get(0);
@@ -28,11 +42,24 @@ public class NullFilter
 		return new And(validFilters.toArray(new Filter[validFilters.size()]));
 	}
 
+	private static void addAndedFilters(final List<Filter> validFilters, final Collection<Filter> filters)
+	{
+		for (Filter filter : filters)
+		{
+			if (filter instanceof And)
+				addAndedFilters(validFilters, ((And) filter).getFilters());
+			else if (filter != null)
+				validFilters.add(filter);
+		}
+	}
+
 	public static Filter or(final Filter... filters)
 	{
 		final List<Filter> validFilters = new ArrayList<Filter>();
 		for (Filter filter : filters)
 		{
+			Preconditions.checkArgument(!(filter instanceof NotInFilter),
+					"A NotInFilter can only be and'ed with other filters");
 			if (filter != null)
 				validFilters.add(filter);
 		}
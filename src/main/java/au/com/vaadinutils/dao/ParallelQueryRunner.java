@@ -0,0 +1,286 @@
+package au.com.vaadinutils.dao;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.persistence.PersistenceException;
+import javax.persistence.QueryTimeoutException;
+
+import org.apache.logging.log4j.Logger;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Runs the queries of a JpaDslBuilderGroup or JpaDslTupleBuilderGroup in
+ * parallel, each with its own EntityManager and transaction.
+ *
+ * The queries run on a pool of their own rather than the BackgroundExecutor,
+ * so a caller waiting for its group can't be stuck behind (or hold up) the
+ * application's other background work. The pool's size bounds the number of
+ * group queries running at once across the whole application, so the
+ * connection pool isn't drained. A group that is run from one of the pool's
+ * threads (i.e. from within another group's query) runs its queries one after
+ * the other on that thread, as waiting on the pool from one of its own threads
+ * could deadlock.
+ *
+ * The pool can be sized by calling configure() during application startup and
+ * should be shutdown from your ServletContextListener (
+ * VUEntityManagerContextListener does this for you).
+ */
+public class ParallelQueryRunner
+{
+	private static final Logger logger = org.apache.logging.log4j.LogManager.getLogger();
+
+	public static final int DEFAULT_MAX_THREADS = 10;
+	public static final int DEFAULT_MAX_QUEUED_QUERIES = 100;
+
+	private static int maxThreads = DEFAULT_MAX_THREADS;
+	private static int maxQueuedQueries = DEFAULT_MAX_QUEUED_QUERIES;
+
+	private static ThreadPoolExecutor executor;
+
+	private static final ThreadLocal<Boolean> poolThread = new ThreadLocal<>();
+
+	private ParallelQueryRunner()
+	{
+	}
+
+	interface ValueReader<T>
+	{
+		Object getValue(T result, String field);
+	}
+
+	/**
+	 * Set the size of the pool and the number of queries that may wait for a
+	 * thread. Queries that are already running or queued are not affected.
+	 *
+	 * @param maxThreads
+	 * @param maxQueuedQueries
+	 */
+	public static synchronized void configure(int maxThreads, int maxQueuedQueries)
+	{
+		Preconditions.checkArgument(maxThreads > 0, "maxThreads must be greater than zero");
+		Preconditions.checkArgument(maxQueuedQueries > 0, "maxQueuedQueries must be greater than zero");
+		ParallelQueryRunner.maxThreads = maxThreads;
+		ParallelQueryRunner.maxQueuedQueries = maxQueuedQueries;
+		shutdown();
+	}
+
+	/**
+	 * stops accepting new queries, running and queued queries are allowed to
+	 * finish.
+	 */
+	public static synchronized void shutdown()
+	{
+		if (executor != null)
+		{
+			executor.shutdown();
+			executor = null;
+		}
+	}
+
+	private static synchronized ThreadPoolExecutor getExecutor()
+	{
+		if (executor == null)
+		{
+			executor = new ThreadPoolExecutor(maxThreads, maxThreads, 60, TimeUnit.SECONDS,
+					new ArrayBlockingQueue<Runnable>(maxQueuedQueries), new ThreadFactory()
+					{
+						private final AtomicInteger count = new AtomicInteger();
+
+						@Override
+						public Thread newThread(final Runnable r)
+						{
+							final Thread thread = new Thread(new Runnable()
+							{
+								@Override
+								public void run()
+								{
+									poolThread.set(Boolean.TRUE);
+									r.run();
+								}
+							}, "Query Group-" + count.incrementAndGet());
+							thread.setDaemon(true);
+							return thread;
+						}
+					}, new ThreadPoolExecutor.AbortPolicy());
+			executor.allowCoreThreadTimeOut(true);
+		}
+		return executor;
+	}
+
+	/**
+	 * Runs the queries, no more than maxParallelism at a time.
+	 *
+	 * @return the results of each query, in the same order as the queries
+	 * @throws QueryTimeoutException
+	 *             if the queries haven't all completed within the timeout,
+	 *             any that are still running are cancelled.
+	 * @throws RejectedExecutionException
+	 *             if the pool's queue is full
+	 */
+	static <T> List<List<T>> run(final List<Callable<List<T>>> queries, final int maxParallelism,
+			final long timeout, final TimeUnit unit)
+	{
+		if (Boolean.TRUE.equals(poolThread.get()))
+		{
+			return runInline(queries);
+		}
+
+		final CompletionService<List<T>> completionService = new ExecutorCompletionService<>(getExecutor());
+		final List<Future<List<T>>> futures = new ArrayList<>(queries.size());
+		final long deadline = System.nanoTime() + unit.toNanos(timeout);
+
+		try
+		{
+			int submitted = 0;
+			for (; submitted < Math.min(maxParallelism, queries.size()); submitted++)
+			{
+				futures.add(completionService.submit(EntityManagerProvider.setThreadLocalEntityManager(queries
+						.get(submitted))));
+			}
+
+			for (int completed = 0; completed < queries.size(); completed++)
+			{
+				final long remaining = deadline - System.nanoTime();
+				final Future<List<T>> future = completionService.poll(remaining, TimeUnit.NANOSECONDS);
+				if (future == null)
+				{
+					throw new QueryTimeoutException("Query group didn't complete within " + timeout + " "
+							+ unit.toString().toLowerCase() + ", " + completed + " of " + queries.size()
+							+ " queries had completed");
+				}
+				// surface any failure now rather than waiting for the rest
+				future.get();
+
+				if (submitted < queries.size())
+				{
+					futures.add(completionService.submit(EntityManagerProvider.setThreadLocalEntityManager(queries
+							.get(submitted))));
+					submitted++;
+				}
+			}
+
+			final List<List<T>> results = new ArrayList<>(futures.size());
+			for (Future<List<T>> future : futures)
+			{
+				results.add(future.get());
+			}
+			return results;
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new PersistenceException("Interrupted while waiting for the query group", e);
+		}
+		catch (ExecutionException e)
+		{
+			if (e.getCause() instanceof RuntimeException)
+			{
+				throw (RuntimeException) e.getCause();
+			}
+			throw new PersistenceException(e.getCause());
+		}
+		finally
+		{
+			for (Future<List<T>> future : futures)
+			{
+				if (!future.isDone())
+				{
+					logger.warn("Cancelling query group query");
+					future.cancel(true);
+				}
+			}
+		}
+	}
+
+	/**
+	 * runs the queries one after the other on the current thread's
+	 * EntityManager, the timeout isn't applied.
+	 */
+	private static <T> List<List<T>> runInline(final List<Callable<List<T>>> queries)
+	{
+		final List<List<T>> results = new ArrayList<>(queries.size());
+		for (Callable<List<T>> query : queries)
+		{
+			try
+			{
+				results.add(query.call());
+			}
+			catch (RuntimeException e)
+			{
+				throw e;
+			}
+			catch (Exception e)
+			{
+				throw new PersistenceException(e);
+			}
+		}
+		return results;
+	}
+
+	/**
+	 * sorts the merged results by the group's orders, nulls sort first when
+	 * ascending.
+	 */
+	static <T> void sort(final List<T> results, final List<JpaDslOrder> orders, final ValueReader<T> reader)
+	{
+		if (orders.isEmpty())
+		{
+			return;
+		}
+
+		Collections.sort(results, new Comparator<T>()
+		{
+			@Override
+			public int compare(T o1, T o2)
+			{
+				for (JpaDslOrder order : orders)
+				{
+					final int result = compareValues(reader.getValue(o1, order.getField()),
+							reader.getValue(o2, order.getField()));
+					if (result != 0)
+					{
+						return order.getAscending() ? result : -result;
+					}
+				}
+				return 0;
+			}
+		});
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private static int compareValues(final Object v1, final Object v2)
+	{
+		if (v1 == v2)
+		{
+			return 0;
+		}
+		if (v1 == null)
+		{
+			return -1;
+		}
+		if (v2 == null)
+		{
+			return 1;
+		}
+		if (v1 instanceof Comparable)
+		{
+			return ((Comparable) v1).compareTo(v2);
+		}
+		return v1.toString().compareTo(v2.toString());
+	}
+}
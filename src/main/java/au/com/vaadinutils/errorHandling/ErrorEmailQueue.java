@@ -0,0 +1,359 @@
+package au.com.vaadinutils.errorHandling;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.logging.log4j.Logger;
+
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Sends the error emails generated by ErrorWindow from a single background
+ * thread so an outage doesn't turn into a storm of threads and SMTP sessions.
+ *
+ * Reports the user has seen (with their notes and screen shot) are sent one
+ * at a time, at most maxQueuedReports may be waiting.
+ *
+ * Errors the user hasn't seen are grouped by their hash id and sent as one
+ * digest per interval, listing how many times each error occurred. At most
+ * maxDigestErrors different errors are kept per digest.
+ *
+ * Reports and errors that don't fit are counted rather than sent, see
+ * getDroppedReports() and getDroppedErrors().
+ *
+ * The queue can be configured by calling configure() during application
+ * startup and should be shutdown from your ServletContextListener (
+ * VUEntityManagerContextListener does this for you).
+ */
+public enum ErrorEmailQueue
+{
+	INSTANCE;
+
+	private static final Logger logger = org.apache.logging.log4j.LogManager.getLogger();
+
+	public static final int DEFAULT_MAX_QUEUED_REPORTS = 50;
+	public static final int DEFAULT_MAX_DIGEST_ERRORS = 100;
+	public static final long DEFAULT_DIGEST_INTERVAL_SECONDS = 60;
+
+	private int maxQueuedReports = DEFAULT_MAX_QUEUED_REPORTS;
+	private int maxDigestErrors = DEFAULT_MAX_DIGEST_ERRORS;
+	private long digestIntervalSeconds = DEFAULT_DIGEST_INTERVAL_SECONDS;
+
+	private ScheduledThreadPoolExecutor executor;
+
+	/**
+	 * a last line of defence if the digest interval is configured too short.
+	 * Allow bursting to 20 digests, over the long term 1 a minute
+	 */
+	private final ErrorRateController digestRateController = new ErrorRateController(20, 1, TimeUnit.MINUTES);
+
+	private final AtomicInteger queuedReports = new AtomicInteger();
+
+	// the errors waiting for the next digest keyed by hash id
+	private final Map<String, DigestEntry> digest = new LinkedHashMap<>();
+
+	private final AtomicLong sentReports = new AtomicLong();
+	private final AtomicLong sentDigests = new AtomicLong();
+	private final AtomicLong droppedReports = new AtomicLong();
+	private final AtomicLong droppedErrors = new AtomicLong();
+	private final AtomicLong failedEmails = new AtomicLong();
+
+	private static class DigestEntry
+	{
+		final String id;
+		final String supportEmail;
+		final String subjectPrefix;
+		final String reference;
+		final String trace;
+		final Date firstSeen;
+		Date lastSeen;
+		int count = 1;
+
+		DigestEntry(final String id, final String supportEmail, final String subjectPrefix, final String reference,
+				final String trace, final Date time)
+		{
+			this.id = id;
+			this.supportEmail = supportEmail;
+			this.subjectPrefix = subjectPrefix;
+			this.reference = reference;
+			this.trace = trace;
+			this.firstSeen = time;
+			this.lastSeen = time;
+		}
+	}
+
+	/**
+	 * @param maxQueuedReports
+	 *            the most user reports that may wait to be sent
+	 * @param maxDigestErrors
+	 *            the most different errors listed in a digest
+	 * @param digestInterval
+	 *            how often a digest is sent (if there are any errors)
+	 * @param unit
+	 */
+	public static void configure(int maxQueuedReports, int maxDigestErrors, long digestInterval, TimeUnit unit)
+	{
+		Preconditions.checkArgument(maxQueuedReports > 0, "maxQueuedReports must be greater than zero");
+		Preconditions.checkArgument(maxDigestErrors > 0, "maxDigestErrors must be greater than zero");
+		Preconditions.checkArgument(unit.toSeconds(digestInterval) > 0, "digestInterval must be at least a second");
+		synchronized (INSTANCE)
+		{
+			INSTANCE.maxQueuedReports = maxQueuedReports;
+			INSTANCE.maxDigestErrors = maxDigestErrors;
+			INSTANCE.digestIntervalSeconds = unit.toSeconds(digestInterval);
+			if (INSTANCE.executor != null)
+			{
+				INSTANCE.executor.shutdown();
+				INSTANCE.executor = null;
+			}
+		}
+	}
+
+	/**
+	 * sends the pending digest and stops accepting new emails, queued reports
+	 * are allowed to finish.
+	 */
+	public static void shutdown()
+	{
+		synchronized (INSTANCE)
+		{
+			if (INSTANCE.executor != null)
+			{
+				INSTANCE.executor.execute(new Runnable()
+				{
+					@Override
+					public void run()
+					{
+						INSTANCE.sendDigest();
+					}
+				});
+				INSTANCE.executor.shutdown();
+				INSTANCE.executor = null;
+			}
+		}
+	}
+
+	private ScheduledThreadPoolExecutor getExecutor()
+	{
+		synchronized (INSTANCE)
+		{
+			if (executor == null)
+			{
+				executor = new ScheduledThreadPoolExecutor(1,
+						new ThreadFactoryBuilder().setNameFormat("Send Error Email-%d").setDaemon(true).build());
+				executor.scheduleWithFixedDelay(new Runnable()
+				{
+					@Override
+					public void run()
+					{
+						sendDigest();
+					}
+				}, digestIntervalSeconds, digestIntervalSeconds, TimeUnit.SECONDS);
+			}
+			return executor;
+		}
+	}
+
+	/**
+	 * Queue an email to be sent on the error email thread.
+	 *
+	 * @return false if the queue is full and the email was dropped
+	 */
+	static boolean queueReport(final String emailAddress, final String subject, final String bodyText,
+			final ByteArrayOutputStream attachment, final String filename, final String MIMEType)
+	{
+		final int maxQueued;
+		synchronized (INSTANCE)
+		{
+			maxQueued = INSTANCE.maxQueuedReports;
+		}
+		if (INSTANCE.queuedReports.incrementAndGet() > maxQueued)
+		{
+			INSTANCE.queuedReports.decrementAndGet();
+			INSTANCE.droppedReports.incrementAndGet();
+			logger.error("Error email queue is full, not sending: {}", subject);
+			return false;
+		}
+
+		try
+		{
+			INSTANCE.getExecutor().execute(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					try
+					{
+						if (INSTANCE.send(emailAddress, subject, bodyText, attachment, filename, MIMEType))
+						{
+							INSTANCE.sentReports.incrementAndGet();
+						}
+					}
+					finally
+					{
+						INSTANCE.queuedReports.decrementAndGet();
+					}
+				}
+			});
+			return true;
+		}
+		catch (RejectedExecutionException e)
+		{
+			// shutting down
+			INSTANCE.queuedReports.decrementAndGet();
+			INSTANCE.droppedReports.incrementAndGet();
+			logger.error("Error email queue is shut down, not sending: {}", subject);
+			return false;
+		}
+	}
+
+	/**
+	 * Count an occurrence of an error for the next digest.
+	 *
+	 * @param id
+	 *            the error's hash id
+	 * @param subjectPrefix
+	 *            the system name, used in the digest's subject
+	 * @param trace
+	 *            only kept from the first occurrence in the digest
+	 */
+	static void recordError(final String id, final String supportEmail, final String subjectPrefix,
+			final String reference, final String trace, final Date time)
+	{
+		synchronized (INSTANCE)
+		{
+			final DigestEntry entry = INSTANCE.digest.get(id);
+			if (entry != null)
+			{
+				entry.count++;
+				entry.lastSeen = time;
+				return;
+			}
+			if (INSTANCE.digest.size() >= INSTANCE.maxDigestErrors)
+			{
+				INSTANCE.droppedErrors.incrementAndGet();
+				logger.error("Error digest is full, not reporting error {} ref: {}", id, reference);
+				return;
+			}
+			INSTANCE.digest.put(id, new DigestEntry(id, supportEmail, subjectPrefix, reference, trace, time));
+		}
+		// make sure the digest will be sent
+		INSTANCE.getExecutor();
+	}
+
+	private void sendDigest()
+	{
+		final List<DigestEntry> entries;
+		synchronized (INSTANCE)
+		{
+			if (digest.isEmpty())
+			{
+				return;
+			}
+			if (!digestRateController.acquire())
+			{
+				// keep counting, they will go in a later digest
+				logger.warn("Error digest rate exceeded, delaying the digest");
+				return;
+			}
+			entries = new ArrayList<>(digest.values());
+			digest.clear();
+		}
+
+		// normally there is only one support address
+		final Map<String, List<DigestEntry>> byAddress = new LinkedHashMap<>();
+		for (DigestEntry entry : entries)
+		{
+			List<DigestEntry> addressEntries = byAddress.get(entry.supportEmail);
+			if (addressEntries == null)
+			{
+				addressEntries = new ArrayList<>();
+				byAddress.put(entry.supportEmail, addressEntries);
+			}
+			addressEntries.add(entry);
+		}
+
+		for (Map.Entry<String, List<DigestEntry>> address : byAddress.entrySet())
+		{
+			int occurrences = 0;
+			final StringBuilder body = new StringBuilder();
+			for (DigestEntry entry : address.getValue())
+			{
+				occurrences += entry.count;
+				body.append("Error: ").append(entry.id).append(" occurred ").append(entry.count)
+						.append(" time(s)\n\nFirst: ").append(entry.firstSeen).append(" ref: ")
+						.append(entry.reference).append("\nLast: ").append(entry.lastSeen).append("\n\n")
+						.append(entry.trace).append("\n\n");
+			}
+			final String subject = "Errors not displayed to user: " + address.getValue().get(0).subjectPrefix + " "
+					+ address.getValue().size() + " error(s), " + occurrences + " occurrence(s)";
+			if (send(address.getKey(), subject, subject + "\n\n" + body, null, null, null))
+			{
+				sentDigests.incrementAndGet();
+			}
+		}
+	}
+
+	private boolean send(final String emailAddress, final String subject, final String bodyText,
+			final ByteArrayOutputStream attachment, final String filename, final String MIMEType)
+	{
+		try
+		{
+			ErrorSettingsFactory.getErrorSettings().sendEmail(emailAddress, subject, bodyText, attachment, filename,
+					MIMEType);
+			return true;
+		}
+		catch (Exception e)
+		{
+			failedEmails.incrementAndGet();
+			logger.error("Failed to send error email: " + subject, e);
+			return false;
+		}
+	}
+
+	public static int getQueuedReports()
+	{
+		return INSTANCE.queuedReports.get();
+	}
+
+	public static long getSentReports()
+	{
+		return INSTANCE.sentReports.get();
+	}
+
+	public static long getSentDigests()
+	{
+		return INSTANCE.sentDigests.get();
+	}
+
+	/**
+	 * the number of user reports that weren't sent because the queue was full
+	 */
+	public static long getDroppedReports()
+	{
+		return INSTANCE.droppedReports.get();
+	}
+
+	/**
+	 * the number of errors that weren't listed in a digest because it was full
+	 */
+	public static long getDroppedErrors()
+	{
+		return INSTANCE.droppedErrors.get();
+	}
+
+	public static long getFailedEmails()
+	{
+		return INSTANCE.failedEmails.get();
+	}
+}
@@ -0,0 +1,131 @@
+package au.com.vaadinutils.errorHandling;
+
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Recognises errors that have been seen before without rendering their stack
+ * trace to a string.
+ *
+ * The fingerprint is a 64 bit hash of the exception class and the
+ * StackTraceElements, built from String.hashCode() (which is specified, so
+ * fingerprints are stable between runs) and the line numbers. The rendered
+ * trace and hash id of the first occurrence of each fingerprint are kept in
+ * a bounded map, so repeats of an error cost a walk of the stack and a map
+ * lookup.
+ */
+class ErrorFingerprinter
+{
+	static final int MAX_FINGERPRINTS = 1000;
+
+	private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+	private static final long FNV_PRIME = 0x100000001b3L;
+
+	// access ordered, so the eldest entry is the least recently seen
+	private static final Map<Long, Occurrence> seen = new LinkedHashMap<Long, Occurrence>(16, 0.75f, true)
+	{
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Long, Occurrence> eldest)
+		{
+			return size() > MAX_FINGERPRINTS;
+		}
+	};
+
+	interface Renderer
+	{
+		/**
+		 * only called for the first occurrence of a fingerprint
+		 */
+		Occurrence render(Throwable cause);
+	}
+
+	static class Occurrence
+	{
+		final String id;
+		final String trace;
+		final Date firstSeen = new Date();
+		private int count = 0;
+
+		Occurrence(final String id, final String trace)
+		{
+			this.id = id;
+			this.trace = trace;
+		}
+
+		synchronized int getCount()
+		{
+			return count;
+		}
+
+		private synchronized void increment()
+		{
+			count++;
+		}
+	}
+
+	private ErrorFingerprinter()
+	{
+	}
+
+	/**
+	 * @return the first occurrence of the cause's fingerprint, rendered by the
+	 *         renderer if this is the first time it has been seen
+	 */
+	static Occurrence lookup(final Throwable cause, final Renderer renderer)
+	{
+		final Long fingerprint = fingerprint(cause);
+		Occurrence occurrence;
+		synchronized (seen)
+		{
+			occurrence = seen.get(fingerprint);
+		}
+		if (occurrence == null)
+		{
+			// rendered outside the lock, two threads may render the same
+			// error at once which is harmless
+			occurrence = renderer.render(cause);
+			synchronized (seen)
+			{
+				final Occurrence existing = seen.get(fingerprint);
+				if (existing != null)
+				{
+					occurrence = existing;
+				}
+				else
+				{
+					seen.put(fingerprint, occurrence);
+				}
+			}
+		}
+		occurrence.increment();
+		return occurrence;
+	}
+
+	static long fingerprint(final Throwable cause)
+	{
+		long hash = FNV_OFFSET_BASIS;
+		hash = mix(hash, cause.getClass().getName().hashCode());
+		for (StackTraceElement element : cause.getStackTrace())
+		{
+			hash = mix(hash, element.getClassName().hashCode());
+			hash = mix(hash, element.getMethodName().hashCode());
+			hash = mix(hash, element.getFileName() == null ? 0 : element.getFileName().hashCode());
+			hash = mix(hash, element.getLineNumber());
+		}
+		return hash;
+	}
+
+	// FNV-1a over the four bytes of the value
+	private static long mix(long hash, final int value)
+	{
+		for (int shift = 0; shift < 32; shift += 8)
+		{
+			hash ^= (value >>> shift) & 0xff;
+			hash *= FNV_PRIME;
+		}
+		return hash;
+	}
+}
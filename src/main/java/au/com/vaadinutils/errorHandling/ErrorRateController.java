@@ -1,25 +1,58 @@
 package au.com.vaadinutils.errorHandling;
 
-import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
-import com.google.common.base.Stopwatch;
+import com.google.common.base.Preconditions;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
 
+/**
+ * A token bucket rate limiter. Permits accumulate at permitRate up to
+ * maxBurst, each acquire takes permits if there are enough.
+ *
+ * Each bucket's state is a single long, the time at which the bucket was (or
+ * will be) empty. The permits available are the time since then divided by
+ * the time it takes to create a permit, so refilling and taking permits is a
+ * single compareAndSet and there is no lock for threads to queue on during an
+ * error storm.
+ *
+ * acquire(key) rate limits each key (e.g. an error hash) separately from the
+ * other keys and from acquire(). The keys' buckets are held in a Guava cache
+ * so looking up an existing key doesn't take a lock either. At most MAX_KEYS
+ * keys are tracked, beyond that the least recently used keys' buckets are
+ * dropped (and so start full again). The cache evicts per segment, so keys may
+ * be dropped a little before MAX_KEYS is reached.
+ */
 public class ErrorRateController
 {
+	/**
+	 * the most keys that will be tracked, the least recently used keys are
+	 * dropped approaching this
+	 */
+	static final int MAX_KEYS = 10000;
 
-	final LinkedBlockingQueue<Boolean> availablePermits = new LinkedBlockingQueue<>();
+	private final long maxBurst;
 
-	final Stopwatch lastCreated = Stopwatch.createStarted();
+	private final long nanosPerPermit;
 
-	private long maxBurst;
+	private final long burstNanos;
 
-	private double permitRate;
+	private final TokenBucket bucket;
 
-	private TimeUnit permitRateUnits;
+	private final LoadingCache<Object, TokenBucket> keyedBuckets = CacheBuilder.newBuilder().maximumSize(MAX_KEYS)
+			.build(new CacheLoader<Object, TokenBucket>()
+			{
+				@Override
+				public TokenBucket load(Object key)
+				{
+					return new TokenBucket();
+				}
+			});
 
 	/**
-	 * 
+	 *
 	 * @param maxBurst
 	 *            - maximum of permits that will be stockpiled for a burst after
 	 *            a period of less or activity
@@ -29,16 +62,12 @@ public class ErrorRateController
 	 */
 	ErrorRateController(long maxBurst, double permitRate, TimeUnit permitRateUnits)
 	{
+		Preconditions.checkArgument(maxBurst > 0, "maxBurst must be greater than zero");
+		Preconditions.checkArgument(permitRate > 0, "permitRate must be greater than zero");
 		this.maxBurst = maxBurst;
-		this.permitRate = permitRate;
-		this.permitRateUnits = permitRateUnits;
-
-		// fill the availablePermits
-		for (int i = 0; i < maxBurst; i++)
-		{
-			availablePermits.add(true);
-		}
-
+		this.nanosPerPermit = Math.max(1, (long) (permitRateUnits.toNanos(1) / permitRate));
+		this.burstNanos = maxBurst * nanosPerPermit;
+		this.bucket = new TokenBucket();
 	}
 
 	/**
@@ -47,32 +76,107 @@ public class ErrorRateController
 	 */
 	public boolean acquire()
 	{
-		Boolean permit = availablePermits.poll();
-		if (permit == null)
+		return tryAcquire(1);
+	}
+
+	/**
+	 * @return true if all of the permits were acquired, if not none are taken
+	 */
+	public boolean tryAcquire(int permits)
+	{
+		return bucket.tryAcquire(permits);
+	}
+
+	/**
+	 * returns true if able to acquire a permit for the key, each key has its
+	 * own bucket
+	 */
+	public boolean acquire(Object key)
+	{
+		return tryAcquire(key, 1);
+	}
+
+	public boolean tryAcquire(Object key, int permits)
+	{
+		return getBucket(key).tryAcquire(permits);
+	}
+
+	/**
+	 * Takes a permit from the key's bucket and one from the shared controller,
+	 * or neither. The key is checked first so a repeating key is refused
+	 * without using up the shared permits, if the shared controller refuses
+	 * the key's permit is given back.
+	 *
+	 * @param key
+	 *            e.g. an error hash
+	 * @param shared
+	 *            the limit across all keys
+	 */
+	public boolean acquire(Object key, ErrorRateController shared)
+	{
+		final TokenBucket keyBucket = getBucket(key);
+		if (!keyBucket.tryAcquire(1))
 		{
-			long permitsToAdd = 0;
-			synchronized (lastCreated)
-			{
-				permitsToAdd = Math.min(maxBurst, (long) (lastCreated.elapsed(permitRateUnits) * permitRate));
-				if (permitsToAdd > 0)
-				{
-					lastCreated.reset();
-					lastCreated.start();
-					permit = true;
-				}
+			return false;
+		}
+		if (!shared.acquire())
+		{
+			keyBucket.release(1);
+			return false;
+		}
+		return true;
+	}
+
+	long getKeyCount()
+	{
+		return keyedBuckets.size();
+	}
+
+	private TokenBucket getBucket(Object key)
+	{
+		Preconditions.checkNotNull(key, "key may not be null");
+		return keyedBuckets.getUnchecked(key);
+	}
+
+	private class TokenBucket
+	{
+		private final AtomicLong emptyAt = new AtomicLong(System.nanoTime() - burstNanos);
 
+		boolean tryAcquire(int permits)
+		{
+			Preconditions.checkArgument(permits > 0, "permits must be greater than zero");
+			if (permits > maxBurst)
+			{
+				return false;
 			}
-			for (int i = 0; i < permitsToAdd-1; i++)
+			final long cost = permits * nanosPerPermit;
+
+			while (true)
 			{
-				availablePermits.add(true);
+				final long now = System.nanoTime();
+				final long current = emptyAt.get();
+
+				// the bucket can't hold more than maxBurst permits
+				final long start = current - (now - burstNanos) > 0 ? current : now - burstNanos;
+				final long next = start + cost;
+				if (next - now > 0)
+				{
+					return false;
+				}
+				if (emptyAt.compareAndSet(current, next))
+				{
+					return true;
+				}
 			}
-//			if (permitsToAdd > 0)
-//			{
-//				logger.info("Added " + permitsToAdd);
-//			}
-			
 		}
 
-		return permit != null;
+		/**
+		 * give back permits taken by tryAcquire(), tryAcquire() caps the
+		 * bucket at maxBurst so this can't overfill it
+		 */
+		void release(int permits)
+		{
+			emptyAt.addAndGet(-permits * nanosPerPermit);
+		}
 	}
 }
@@ -39,13 +39,6 @@ public class ErrorWindow
 
 	static Logger logger = org.apache.logging.log4j.LogManager.getLogger();
 
-	/**
-	 * throttle for sending emails about errors the user hasn't seen. Allow
-	 * busting to 20 emails in a minute, over the long term limit to 1 email per
-	 * minute
-	 */
-	final static ErrorRateController emailRateController = new ErrorRateController(20, 1, TimeUnit.MINUTES);
-
 	public ErrorWindow()
 	{
 		// Configure the error handler for the UI
@@ -99,27 +92,36 @@ public class ErrorWindow
 			if (t.getCause() == null) // We're at final cause
 			{
 				cause = t;
-				fullTrace = extractTrace(t);
 
 				causeClass = cause.getClass().getSimpleName();
 
-				id = getCustomHashString(fullTrace);
-
-				// include the build version in the hash to make hashes unique
-				// between builds
-				id += getBuildVersion();
-
-				// prevent hashcode being negative
-				Long hashId = new Long(id.hashCode()) + new Long(Integer.MAX_VALUE);
-				id = "" + hashId;
+				// the trace is only rendered and hashed the first time the
+				// error is seen
+				final ErrorFingerprinter.Occurrence occurrence = ErrorFingerprinter.lookup(cause,
+						new ErrorFingerprinter.Renderer()
+						{
+							@Override
+							public ErrorFingerprinter.Occurrence render(Throwable finalCause)
+							{
+								final String trace = extractTrace(finalCause);
+								return new ErrorFingerprinter.Occurrence(getHashId(trace), trace);
+							}
+						});
+				id = occurrence.id;
+				if (occurrence.getCount() > 1)
+				{
+					logger.error("Error " + id + " has occurred " + occurrence.getCount() + " times since "
+							+ occurrence.firstSeen);
+				}
 
 				// add the message after the hash id is calculated
-				fullTrace = "Cause: " + cause.getMessage() + "\n" + fullTrace;
+				fullTrace = "Cause: " + cause.getMessage() + "\n" + occurrence.trace;
 
 			}
-			else
+			else if (logger.isDebugEnabled())
 			{
-				logger.error(extractTrace(t));
+				// the whole chain is logged with the error below
+				logger.debug(extractTrace(t));
 			}
 		}
 
@@ -198,41 +200,40 @@ public class ErrorWindow
 
 	}
 
+	private String getHashId(String fullTrace)
+	{
+		String id = getCustomHashString(fullTrace);
+
+		// include the build version in the hash to make hashes unique
+		// between builds
+		id += getBuildVersion();
+
+		// prevent hashcode being negative
+		Long hashId = new Long(id.hashCode()) + new Long(Integer.MAX_VALUE);
+		return "" + hashId;
+	}
+
 	private String extractTrace(Throwable t)
 	{
-		String fullTrace = t.getClass().getCanonicalName() + "\n";
+		final StringBuilder fullTrace = new StringBuilder(1024);
+		fullTrace.append(t.getClass().getCanonicalName()).append('\n');
 		for (StackTraceElement trace : t.getStackTrace())
 		{
-			fullTrace += "at " + trace.getClassName() + "." + trace.getMethodName() + "(" + trace.getFileName() + ":"
-					+ trace.getLineNumber() + ")\n";
+			fullTrace.append("at ").append(trace.getClassName()).append('.').append(trace.getMethodName()).append('(')
+					.append(trace.getFileName()).append(':').append(trace.getLineNumber()).append(")\n");
 		}
-		fullTrace += "\n\n";
-		return fullTrace;
+		fullTrace.append("\n\n");
+		return fullTrace.toString();
 	}
 
 	private void emailErrorWithoutShowing(final Date time, final String finalId, final String finalTrace,
 			final String reference)
 	{
-		// limit the number of errors that can be emailed without human
-		// action. also suppress some types of errors
-		if (emailRateController.acquire())
-		{
-			try
-			{
-				final String supportEmail = getTargetEmailAddress();
-
-				generateEmail(time, finalId, finalTrace, reference, "Error not displayed to user", supportEmail, "", "",
-						"", null);
-			}
-			catch (Exception e)
-			{
-				logger.error(e, e);
-			}
-		}
-		else
-		{
-			logger.error("Not sending error email");
-		}
+		// errors the user hasn't seen are sent in a digest, with repeats of
+		// the same error counted rather than sent again. Every occurrence is
+		// recorded so the counts are accurate, the number of emails is limited
+		// by the digest interval.
+		ErrorEmailQueue.recordError(finalId, getTargetEmailAddress(), getSystemName(), reference, finalTrace, time);
 	}
 
 	boolean isExempted(Throwable cause)
@@ -377,42 +378,35 @@ public class ErrorWindow
 		logger.error("Reference: " + reference + " " + notes);
 		final String buildVersion = getBuildVersion();
 		final String companyName = getSystemName();
-		Runnable runner = new Runnable()
-		{
+		String subject = "";
+		subject += "Error: " + finalId + " " + companyName + " ref: " + reference;
 
-			@Override
-			public void run()
+		ByteArrayOutputStream stream = null;
+		String filename = null;
+		String MIMEType = null;
+		if (imageData != null)
+		{
+			stream = new ByteArrayOutputStream();
+			try
 			{
-				String subject = "";
-				subject += "Error: " + finalId + " " + companyName + " ref: " + reference;
-
-				ByteArrayOutputStream stream = null;
-				String filename = null;
-				String MIMEType = null;
-				if (imageData != null)
-				{
-					stream = new ByteArrayOutputStream();
-					try
-					{
-						stream.write(imageData);
-						filename = "screen.png";
-						MIMEType = ScreenshotMimeType.PNG.getMimeType();
-					}
-					catch (IOException e)
-					{
-						logger.error(e, e);
-					}
-				}
-				ErrorSettingsFactory.getErrorSettings().sendEmail(supportEmail, subject,
-						subject + "\n\nTime: " + time.toString() + "\n\nView: " + viewClass + "\n\nUser: " + user + " "
-								+ userEmail + "\n\n" + "Version: " + buildVersion + "\n\n" + "User notes:" + notes
-								+ "\n\n" + finalTrace,
-						stream, filename, MIMEType);
-
+				stream.write(imageData);
+				filename = "screen.png";
+				MIMEType = ScreenshotMimeType.PNG.getMimeType();
+			}
+			catch (IOException e)
+			{
+				logger.error(e, e);
 			}
-		};
+		}
 
-		new Thread(runner, "Send Error Email").start();
+		if (!ErrorEmailQueue.queueReport(supportEmail, subject,
+				subject + "\n\nTime: " + time.toString() + "\n\nView: " + viewClass + "\n\nUser: " + user + " "
+						+ userEmail + "\n\n" + "Version: " + buildVersion + "\n\n" + "User notes:" + notes + "\n\n"
+						+ finalTrace,
+				stream, filename, MIMEType))
+		{
+			throw new IllegalStateException("Too many error reports are waiting to be sent");
+		}
 	}
 
 	private String getViewName()
@@ -0,0 +1,171 @@
+package au.com.vaadinutils.fields;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * A set of long ids stored in a primitive open addressing hash table, so
+ * marking thousands of rows doesn't box and tree-node every id.
+ *
+ * Slots holding 0 are empty, so the id 0 is tracked separately.
+ */
+class LongIdSet implements Serializable
+{
+	private static final long serialVersionUID = 1L;
+
+	private static final int MIN_CAPACITY = 16;
+
+	private long[] slots = new long[MIN_CAPACITY];
+	private boolean containsZero = false;
+	private int size = 0;
+
+	int size()
+	{
+		return size;
+	}
+
+	boolean isEmpty()
+	{
+		return size == 0;
+	}
+
+	boolean contains(final long id)
+	{
+		if (id == 0)
+		{
+			return containsZero;
+		}
+		return slots[indexOf(id)] == id;
+	}
+
+	boolean add(final long id)
+	{
+		if (id == 0)
+		{
+			if (containsZero)
+			{
+				return false;
+			}
+			containsZero = true;
+			size++;
+			return true;
+		}
+
+		final int index = indexOf(id);
+		if (slots[index] == id)
+		{
+			return false;
+		}
+		slots[index] = id;
+		size++;
+
+		// keep the table at most half full so probe runs stay short
+		if (size * 2 > slots.length)
+		{
+			resize(slots.length * 2);
+		}
+		return true;
+	}
+
+	boolean remove(final long id)
+	{
+		if (id == 0)
+		{
+			if (!containsZero)
+			{
+				return false;
+			}
+			containsZero = false;
+			size--;
+			return true;
+		}
+
+		final int mask = slots.length - 1;
+		int hole = indexOf(id);
+		if (slots[hole] != id)
+		{
+			return false;
+		}
+		slots[hole] = 0;
+		size--;
+
+		// shift the rest of the probe run back so lookups don't stop early at
+		// the hole
+		int next = (hole + 1) & mask;
+		while (slots[next] != 0)
+		{
+			final int home = hash(slots[next]) & mask;
+			if (((next - home) & mask) >= ((next - hole) & mask))
+			{
+				slots[hole] = slots[next];
+				slots[next] = 0;
+				hole = next;
+			}
+			next = (next + 1) & mask;
+		}
+		return true;
+	}
+
+	void clear()
+	{
+		slots = new long[MIN_CAPACITY];
+		containsZero = false;
+		size = 0;
+	}
+
+	/**
+	 * @return a copy of the ids in ascending order
+	 */
+	long[] toSortedArray()
+	{
+		final long[] ids = new long[size];
+		int i = 0;
+		if (containsZero)
+		{
+			ids[i++] = 0;
+		}
+		for (long slot : slots)
+		{
+			if (slot != 0)
+			{
+				ids[i++] = slot;
+			}
+		}
+		Arrays.sort(ids);
+		return ids;
+	}
+
+	/**
+	 * @return the slot holding the id, or the empty slot it would be put in
+	 */
+	private int indexOf(final long id)
+	{
+		final int mask = slots.length - 1;
+		int index = hash(id) & mask;
+		while (slots[index] != 0 && slots[index] != id)
+		{
+			index = (index + 1) & mask;
+		}
+		return index;
+	}
+
+	private void resize(final int capacity)
+	{
+		final long[] old = slots;
+		slots = new long[capacity];
+		for (long slot : old)
+		{
+			if (slot != 0)
+			{
+				slots[indexOf(slot)] = slot;
+			}
+		}
+	}
+
+	// ids are usually sequential, spread them over the table
+	private static int hash(final long id)
+	{
+		final long h = id * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32));
+	}
+}
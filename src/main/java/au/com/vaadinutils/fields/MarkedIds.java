@@ -1,13 +1,37 @@
 package au.com.vaadinutils.fields;
 
+import java.util.AbstractSet;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
 import java.util.Set;
 import java.util.TreeSet;
 
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.Expression;
+import javax.persistence.criteria.Predicate;
+
+import com.google.common.collect.Iterables;
+import com.google.common.primitives.Longs;
+
+import au.com.vaadinutils.dao.JpaBaseDao;
+
+/**
+ * The ids marked in a TableCheckBoxSelect.
+ *
+ * When tracking selected the marked ids are the selected rows, otherwise (after
+ * select all) they are the rows that have been deselected and every other row
+ * is selected, so selecting all is O(1) no matter how big the container is.
+ *
+ * Long ids are kept in a primitive set, other ids in a TreeSet.
+ */
 public class MarkedIds
 {
-	final Set<Object> markedIds = new TreeSet<Object>();
+	private final LongIdSet longIds = new LongIdSet();
+	private final Set<Object> otherIds = new TreeSet<Object>();
 	private boolean trackingSelected = true;
 
 	private Set<SelectionListener> selectionListeners = new HashSet<SelectionListener>();
@@ -20,7 +44,7 @@ public class MarkedIds
 
 	private void updateSelectionListeners()
 	{
-		int count = markedIds.size();
+		int count = size();
 		if (!trackingSelected)
 		{
 			count = containerSize - count;
@@ -34,54 +58,201 @@ public class MarkedIds
 
 	public void clear(boolean b, int containerSize)
 	{
-		markedIds.clear();
+		longIds.clear();
+		otherIds.clear();
 		trackingSelected = b;
 		this.containerSize = containerSize;
 		updateSelectionListeners();
-		
+
 
 	}
 
 	public void addAll(Collection<Long> value)
 	{
-		markedIds.addAll(value);
+		for (Object itemId : value)
+		{
+			mark(itemId);
+		}
 		updateSelectionListeners();
 
 	}
 
 	public void add(Object itemId)
 	{
-		markedIds.add(itemId);
+		mark(itemId);
 		updateSelectionListeners();
 
 	}
 
 	public void remove(Object itemId)
 	{
-		markedIds.remove(itemId);
+		unmark(itemId);
 		updateSelectionListeners();
 
 	}
 
 	public boolean contains(Object itemId)
 	{
-		return markedIds.contains(itemId);
+		if (itemId instanceof Long)
+		{
+			return longIds.contains((Long) itemId);
+		}
+		return itemId != null && otherIds.contains(itemId);
+	}
+
+	/**
+	 * @return true if the item is selected, taking into account whether the
+	 *         marked ids are the selected or the deselected rows
+	 */
+	public boolean isSelected(Object itemId)
+	{
+		return contains(itemId) == trackingSelected;
 	}
 
 	public void removeAll(Collection<Long> ids)
 	{
-		markedIds.removeAll(ids);
+		for (Object itemId : ids)
+		{
+			unmark(itemId);
+		}
 		updateSelectionListeners();
 
 	}
 
+	public int size()
+	{
+		return longIds.size() + otherIds.size();
+	}
+
+	/**
+	 * @return a read only view of the marked ids, the Long ids are returned in
+	 *         ascending order
+	 */
 	public Collection<?> getIds()
 	{
-		return markedIds;
+		return new AbstractSet<Object>()
+		{
+			@Override
+			public Iterator<Object> iterator()
+			{
+				return new IdIterator();
+			}
+
+			@Override
+			public boolean contains(Object o)
+			{
+				return MarkedIds.this.contains(o);
+			}
+
+			@Override
+			public int size()
+			{
+				return MarkedIds.this.size();
+			}
+		};
+	}
+
+	/**
+	 * Builds a predicate that matches the selected rows without loading the
+	 * ids of the unmarked rows. After select all this is "id NOT IN (the
+	 * deselected ids)", which is cheap no matter how many rows are selected.
+	 *
+	 * @param builder
+	 * @param id
+	 *            the entity's id attribute, e.g. root.get(Entity_.id)
+	 */
+	public Predicate toPredicate(CriteriaBuilder builder, Expression<?> id)
+	{
+		final List<Predicate> predicates = new ArrayList<>();
+		for (List<? extends Object> chunk : getChunks())
+		{
+			predicates.add(trackingSelected ? id.in(chunk) : builder.not(id.in(chunk)));
+		}
+
+		final Predicate[] array = predicates.toArray(new Predicate[predicates.size()]);
+		if (trackingSelected)
+		{
+			// an empty OR is false, nothing selected
+			return builder.or(array);
+		}
+		// an empty AND is true, everything selected
+		return builder.and(array);
+	}
+
+	private List<List<? extends Object>> getChunks()
+	{
+		final List<List<? extends Object>> chunks = new ArrayList<>();
+		for (List<Long> chunk : Iterables.partition(Longs.asList(longIds.toSortedArray()),
+				JpaBaseDao.MAX_IN_LIST_SIZE))
+		{
+			chunks.add(chunk);
+		}
+		for (List<Object> chunk : Iterables.partition(otherIds, JpaBaseDao.MAX_IN_LIST_SIZE))
+		{
+			chunks.add(chunk);
+		}
+		return chunks;
+	}
+
+	private void mark(Object itemId)
+	{
+		if (itemId instanceof Long)
+		{
+			longIds.add((Long) itemId);
+		}
+		else if (itemId != null)
+		{
+			otherIds.add(itemId);
+		}
+	}
+
+	private void unmark(Object itemId)
+	{
+		if (itemId instanceof Long)
+		{
+			longIds.remove((Long) itemId);
+		}
+		else if (itemId != null)
+		{
+			otherIds.remove(itemId);
+		}
+	}
+
+	private class IdIterator implements Iterator<Object>
+	{
+		private final long[] ids = longIds.toSortedArray();
+		private final Iterator<Object> others = otherIds.iterator();
+		private int next = 0;
+
+		@Override
+		public boolean hasNext()
+		{
+			return next < ids.length || others.hasNext();
+		}
+
+		@Override
+		public Object next()
+		{
+			if (next < ids.length)
+			{
+				return ids[next++];
+			}
+			if (!others.hasNext())
+			{
+				throw new NoSuchElementException();
+			}
+			return others.next();
+		}
+
+		@Override
+		public void remove()
+		{
+			throw new UnsupportedOperationException("The marked ids are read only");
+		}
 	}
 
 	// Logger logger = org.apache.logging.log4j.LogManager.getLogger();
-	
+
 	public boolean isTrackingSelected()
 	{
 		return trackingSelected;
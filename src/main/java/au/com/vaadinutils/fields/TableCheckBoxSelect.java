@@ -7,7 +7,9 @@ import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
-import java.util.TreeSet;
+
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.Expression;
 
 import org.apache.logging.log4j.Logger;
 
@@ -254,10 +256,32 @@ public class TableCheckBoxSelect extends Table
 			return markedIds.getIds();
 		}
 
-		TreeSet<Object> result = new TreeSet<Object>();
-		result.addAll(getContainerDataSource().getItemIds());
-		result.removeAll(markedIds.getIds());
-		return result;
+		// after select all only the deselected ids are marked, copy the
+		// container's ids skipping them so callers get a stable snapshot
+		final Collection<?> itemIds = getContainerDataSource().getItemIds();
+		final List<Object> selected = new ArrayList<>(Math.max(itemIds.size() - markedIds.size(), 0));
+		for (Object itemId : itemIds)
+		{
+			if (!markedIds.contains(itemId))
+			{
+				selected.add(itemId);
+			}
+		}
+		return selected;
+	}
+
+	/**
+	 * Builds a predicate that matches the selected rows, use this rather than
+	 * getSelectedItems() to query the selected entities. After select all it
+	 * excludes the deselected ids instead of listing every selected id.
+	 *
+	 * @param builder
+	 * @param id
+	 *            the entity's id attribute, e.g. root.get(Entity_.id)
+	 */
+	public javax.persistence.criteria.Predicate getSelectedItemsPredicate(CriteriaBuilder builder, Expression<?> id)
+	{
+		return markedIds.toPredicate(builder, id);
 	}
 
 	@Override
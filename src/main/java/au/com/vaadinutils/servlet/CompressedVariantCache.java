@@ -0,0 +1,125 @@
+package au.com.vaadinutils.servlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Gzipped copies of static files that don't have a precompressed .gz sibling,
+ * so each file is compressed once rather than on every request.
+ *
+ * Entries are keyed by path and ETag, so a changed file is compressed again
+ * and the old copy ages out. The least recently used copies are dropped once
+ * the total size passes maxBytes.
+ */
+class CompressedVariantCache
+{
+	private static final Logger logger = org.apache.logging.log4j.LogManager.getLogger();
+
+	/**
+	 * files bigger than this are sent uncompressed rather than compressed in
+	 * memory
+	 */
+	static final long MAX_FILE_SIZE = 2 * 1024 * 1024;
+
+	// compressing saved too little, remembered so we don't try again
+	private static final byte[] NOT_WORTH_COMPRESSING = new byte[0];
+
+	private final long maxBytes;
+	private long totalBytes = 0;
+
+	// access ordered, so the eldest entry is the least recently used
+	private final LinkedHashMap<String, byte[]> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+	CompressedVariantCache(final long maxBytes)
+	{
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * @return the gzipped content of the file, or null if it should be sent
+	 *         uncompressed
+	 */
+	byte[] gzip(final StaticResource resource)
+	{
+		if (resource.length > MAX_FILE_SIZE || resource.length > maxBytes)
+		{
+			return null;
+		}
+
+		final String key = resource.file.getPath() + resource.etag;
+		byte[] compressed;
+		synchronized (this)
+		{
+			compressed = entries.get(key);
+		}
+
+		if (compressed == null)
+		{
+			// compressed outside the lock, two threads may compress the same
+			// file at once which is harmless
+			compressed = compress(resource);
+			if (compressed == null)
+			{
+				return null;
+			}
+			put(key, compressed);
+		}
+		return compressed == NOT_WORTH_COMPRESSING ? null : compressed;
+	}
+
+	private byte[] compress(final StaticResource resource)
+	{
+		try
+		{
+			final ByteArrayOutputStream bytes = new ByteArrayOutputStream((int) (resource.length / 3));
+			try (GZIPOutputStream gzip = new GZIPOutputStream(bytes))
+			{
+				Files.copy(resource.file.toPath(), gzip);
+			}
+			// not worth a Content-Encoding if it saves less than 10%
+			if (bytes.size() > resource.length * 0.9)
+			{
+				return NOT_WORTH_COMPRESSING;
+			}
+			return bytes.toByteArray();
+		}
+		catch (IOException e)
+		{
+			logger.warn("Unable to compress '{}': {}", resource.file, e.getMessage());
+			return null;
+		}
+	}
+
+	private synchronized void put(final String key, final byte[] compressed)
+	{
+		final byte[] previous = entries.put(key, compressed);
+		if (previous != null)
+		{
+			totalBytes -= previous.length;
+		}
+		totalBytes += compressed.length;
+
+		while (totalBytes > maxBytes && !entries.isEmpty())
+		{
+			final Map.Entry<String, byte[]> eldest = entries.entrySet().iterator().next();
+			totalBytes -= eldest.getValue().length;
+			entries.remove(eldest.getKey());
+		}
+	}
+
+	synchronized int getFileCount()
+	{
+		return entries.size();
+	}
+
+	synchronized long getTotalBytes()
+	{
+		return totalBytes;
+	}
+}
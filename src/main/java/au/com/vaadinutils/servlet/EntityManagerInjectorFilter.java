@@ -9,23 +9,49 @@ import javax.servlet.ServletException;
 import javax.servlet.ServletRequest;
 import javax.servlet.ServletResponse;
 
+import au.com.vaadinutils.dao.AutoCloseableEM;
 import au.com.vaadinutils.dao.EntityManagerProvider;
 import au.com.vaadinutils.dao.EntityWorker;
 
+/**
+ * Provides each request with an EntityManager and transaction.
+ *
+ * Set the init-param "lazyEntityManager" to true to only create the
+ * EntityManager if the request actually uses it, see
+ * EntityManagerProvider.setLazyThreadLocalEntityManagerTryWithResources()
+ */
 public class EntityManagerInjectorFilter implements Filter
 {
+	public static final String LAZY_ENTITY_MANAGER = "lazyEntityManager";
+
 	// private static transient Logger logger =
 	org.apache.logging.log4j.Logger logger = org.apache.logging.log4j.LogManager.getLogger();
 
+	private boolean lazy = false;
+
 	@Override
 	public void init(FilterConfig filterConfig) throws ServletException
 	{
+		lazy = Boolean.parseBoolean(filterConfig.getInitParameter(LAZY_ENTITY_MANAGER));
 	}
 
 	@Override
 	public void doFilter(final ServletRequest servletRequest, final ServletResponse servletResponse,
 			final FilterChain filterChain) throws IOException, ServletException
 	{
+		if (lazy)
+		{
+			try (AutoCloseableEM closer = EntityManagerProvider.setLazyThreadLocalEntityManagerTryWithResources())
+			{
+				filterChain.doFilter(servletRequest, servletResponse);
+			}
+			catch (Exception e1)
+			{
+				logger.error(e1, e1);
+			}
+			return;
+		}
+
 		try
 		{
 			EntityManagerProvider.setThreadLocalEntityManager(new EntityWorker<Void>()
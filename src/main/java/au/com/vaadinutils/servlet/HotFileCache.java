@@ -0,0 +1,178 @@
+package au.com.vaadinutils.servlet;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Keeps the content of small, frequently requested static files (icons, theme
+ * assets) in direct ByteBuffers so StaticContentServlet can send them without
+ * reading the disk.
+ *
+ * Entries are keyed by the file's real path and are only used while the
+ * file's ETag matches, StaticContentServlet checks the file's modification
+ * time at most once per METADATA_CHECK_INTERVAL_MILLIS so a changed file is
+ * picked up within that interval. The least recently used files are dropped
+ * once the total size passes maxBytes.
+ *
+ * Enable it with the hotCacheBytes init parameter of StaticContentServlet,
+ * the servlet publishes it as a ServletContext attribute named after this
+ * class so the hit and miss counts can be monitored.
+ */
+public class HotFileCache
+{
+	private static final Logger logger = org.apache.logging.log4j.LogManager.getLogger();
+
+	/**
+	 * the default for the hotCacheMaxFileBytes init parameter
+	 */
+	public static final long DEFAULT_MAX_FILE_BYTES = 64 * 1024;
+
+	private final long maxBytes;
+	private final long maxFileBytes;
+	private long totalBytes = 0;
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+
+	// access ordered, so the eldest entry is the least recently used
+	private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+	private static class Entry
+	{
+		final String etag;
+		final ByteBuffer content;
+
+		Entry(final String etag, final ByteBuffer content)
+		{
+			this.etag = etag;
+			this.content = content;
+		}
+	}
+
+	HotFileCache(final long maxBytes, final long maxFileBytes)
+	{
+		this.maxBytes = maxBytes;
+		this.maxFileBytes = Math.min(maxFileBytes, maxBytes);
+	}
+
+	/**
+	 * @return a read only buffer of the file's content, or null if the file
+	 *         is too big to cache or couldn't be read
+	 */
+	ByteBuffer get(final StaticResource resource)
+	{
+		if (resource.length > maxFileBytes)
+		{
+			return null;
+		}
+
+		final String key = resource.file.getPath();
+		synchronized (this)
+		{
+			final Entry entry = entries.get(key);
+			if (entry != null && entry.etag.equals(resource.etag))
+			{
+				hits.incrementAndGet();
+				return entry.content.duplicate();
+			}
+		}
+		misses.incrementAndGet();
+
+		// read outside the lock, two threads may read the same file at once
+		// which is harmless
+		final ByteBuffer content = read(resource);
+		if (content == null)
+		{
+			return null;
+		}
+		put(key, new Entry(resource.etag, content));
+		return content.duplicate();
+	}
+
+	private ByteBuffer read(final StaticResource resource)
+	{
+		final ByteBuffer content = ByteBuffer.allocateDirect((int) resource.length);
+		try (FileChannel channel = FileChannel.open(resource.file.toPath(), StandardOpenOption.READ))
+		{
+			while (content.hasRemaining())
+			{
+				if (channel.read(content) < 0)
+				{
+					// the file has been truncated since it was checked
+					return null;
+				}
+			}
+		}
+		catch (IOException e)
+		{
+			logger.warn("Unable to cache '{}': {}", resource.file, e.getMessage());
+			return null;
+		}
+		content.flip();
+		return content.asReadOnlyBuffer();
+	}
+
+	private synchronized void put(final String key, final Entry entry)
+	{
+		final Entry previous = entries.put(key, entry);
+		if (previous != null)
+		{
+			totalBytes -= previous.content.capacity();
+		}
+		totalBytes += entry.content.capacity();
+
+		while (totalBytes > maxBytes && !entries.isEmpty())
+		{
+			final Map.Entry<String, Entry> eldest = entries.entrySet().iterator().next();
+			totalBytes -= eldest.getValue().content.capacity();
+			entries.remove(eldest.getKey());
+			evictions.incrementAndGet();
+		}
+	}
+
+	public long getHits()
+	{
+		return hits.get();
+	}
+
+	public long getMisses()
+	{
+		return misses.get();
+	}
+
+	public long getEvictions()
+	{
+		return evictions.get();
+	}
+
+	public synchronized int getFileCount()
+	{
+		return entries.size();
+	}
+
+	public synchronized long getTotalBytes()
+	{
+		return totalBytes;
+	}
+
+	public synchronized void clear()
+	{
+		entries.clear();
+		totalBytes = 0;
+	}
+
+	@Override
+	public String toString()
+	{
+		return "hits: " + getHits() + " misses: " + getMisses() + " evictions: " + getEvictions() + " files: "
+				+ getFileCount() + " bytes: " + getTotalBytes();
+	}
+}
@@ -1,9 +1,14 @@
 package au.com.vaadinutils.servlet;
 
-import java.io.BufferedInputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import javax.servlet.ServletConfig;
 import javax.servlet.ServletContext;
@@ -21,11 +26,66 @@ public class StaticContentServlet extends HttpServlet
     Logger logger = org.apache.logging.log4j.LogManager.getLogger();
     private ServletContext sc;
 
+    /**
+     * how long the resolved path and metadata of a file are trusted before the
+     * file is checked again
+     */
+    static final long METADATA_CHECK_INTERVAL_MILLIS = 2000;
+
+    /**
+     * the most files whose metadata is kept, the cache is emptied beyond this
+     */
+    static final int MAX_CACHED_RESOURCES = 10000;
+
+    /**
+     * files at least this big are handed to the container's sendfile (if it
+     * has one, e.g. Tomcat with the NIO/APR connectors) rather than being
+     * written by the servlet thread
+     */
+    static final long SENDFILE_THRESHOLD = 48 * 1024;
+
+    private static final String SENDFILE_SUPPORT = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
+
+    static final long[] UNSATISFIABLE = new long[0];
+
+    // keyed by the path relative to the context
+    private final ConcurrentMap<String, StaticResource> resources = new ConcurrentHashMap<>();
+
+    /**
+     * the default for the compressedCacheBytes init parameter, the total size
+     * of the gzipped copies of files that are kept in memory
+     */
+    static final long DEFAULT_COMPRESSED_CACHE_BYTES = 32 * 1024 * 1024;
+
+    private CompressedVariantCache compressedVariants = new CompressedVariantCache(DEFAULT_COMPRESSED_CACHE_BYTES);
+
+    // null unless the hotCacheBytes init parameter is set
+    private HotFileCache hotFileCache;
+
     @Override
     public void init(ServletConfig config) throws ServletException
     {
         sc = config.getServletContext();
 
+        final String compressedCacheBytes = config.getInitParameter("compressedCacheBytes");
+        if (compressedCacheBytes != null)
+        {
+            compressedVariants = new CompressedVariantCache(Long.parseLong(compressedCacheBytes.trim()));
+        }
+
+        final String hotCacheBytes = config.getInitParameter("hotCacheBytes");
+        if (hotCacheBytes != null && Long.parseLong(hotCacheBytes.trim()) > 0)
+        {
+            final String hotCacheMaxFileBytes = config.getInitParameter("hotCacheMaxFileBytes");
+            hotFileCache = new HotFileCache(Long.parseLong(hotCacheBytes.trim()),
+                    hotCacheMaxFileBytes != null ? Long.parseLong(hotCacheMaxFileBytes.trim())
+                            : HotFileCache.DEFAULT_MAX_FILE_BYTES);
+            sc.setAttribute(HotFileCache.class.getName(), hotFileCache);
+        }
+
     }
 
     @Override
@@ -35,11 +95,9 @@ public class StaticContentServlet extends HttpServlet
         String requestURI = java.net.URLDecoder.decode(request.getRequestURI(), "UTF-8");
         // strip the context as otherwise it gets duplicated in the next step
         String relativePath = requestURI.replace(servletContext.getContextPath(), "");
-        relativePath = requestURI.replace(servletContext.getContextPath(), "");
-        String file = servletContext.getRealPath(relativePath);
-        File resource = new File(file);
+        StaticResource resource = resolve(servletContext, relativePath);
 
-        if (!resource.exists())
+        if (resource == null)
         {
             response.setStatus(HttpServletResponse.SC_NOT_FOUND);
             return;
@@ -50,17 +108,94 @@ public class StaticContentServlet extends HttpServlet
 
     }
 
-    public void send(HttpServletRequest request, HttpServletResponse response, File resource)
+    /**
+     * @return the cached metadata of the file, checking the file again if the
+     *         metadata is older than METADATA_CHECK_INTERVAL_MILLIS. null if
+     *         the file doesn't exist.
+     */
+    private StaticResource resolve(ServletContext servletContext, String relativePath)
+    {
+        StaticResource resource = resources.get(relativePath);
+        if (resource != null && !resource.isStale(METADATA_CHECK_INTERVAL_MILLIS))
+        {
+            return resource;
+        }
+
+        final String realPath = resource != null ? resource.file.getPath() : servletContext.getRealPath(relativePath);
+        if (realPath == null)
+        {
+            return null;
+        }
+        final File file = new File(realPath);
+        resource = StaticResource.stat(file, sc.getMimeType(file.getName()));
+        if (resource == null)
+        {
+            resources.remove(relativePath);
+            return null;
+        }
+
+        if (resources.size() >= MAX_CACHED_RESOURCES)
+        {
+            resources.clear();
+        }
+        resources.put(relativePath, resource);
+        return resource;
+    }
+
+    public void send(HttpServletRequest request, HttpServletResponse response, File file)
+    {
+        final StaticResource resource = StaticResource.stat(file, sc.getMimeType(file.getName()));
+        if (resource == null)
+        {
+            response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        send(request, response, resource);
+    }
+
+    private void send(HttpServletRequest request, HttpServletResponse response, StaticResource resource)
     {
-        // Find the modification timestamp
-        long lastModifiedTime = resource.lastModified();
+        // the last modified time has had the milliseconds removed to avoid
+        // comparison problems (milliseconds are not returned by the browser in
+        // the "If-Modified-Since" header).
+        final long lastModifiedTime = resource.lastModified;
 
-        // Remove milliseconds to avoid comparison problems (milliseconds
-        // are not returned by the browser in the "If-Modified-Since"
-        // header).
-        lastModifiedTime = lastModifiedTime - lastModifiedTime % 1000;
+        // pick the Content-Encoding, ranges are only served from the
+        // uncompressed file
+        String encoding = null;
+        StaticResource body = resource;
+        byte[] compressed = null;
+        if (resource.compressible)
+        {
+            response.setHeader("Vary", "Accept-Encoding");
+            if (request.getHeader("Range") == null)
+            {
+                final String acceptEncoding = request.getHeader("Accept-Encoding");
+                if (resource.brotli != null && accepts(acceptEncoding, "br"))
+                {
+                    encoding = "br";
+                    body = resource.brotli;
+                }
+                else if (accepts(acceptEncoding, "gzip"))
+                {
+                    if (resource.gzip != null)
+                    {
+                        encoding = "gzip";
+                        body = resource.gzip;
+                    }
+                    else
+                    {
+                        compressed = compressedVariants.gzip(resource);
+                        encoding = compressed != null ? "gzip" : null;
+                    }
+                }
+            }
+        }
+
+        final String etag = resource.getEtag(encoding);
+        response.setHeader("ETag", etag);
 
-        if (browserHasNewestVersion(request, lastModifiedTime))
+        if (browserHasNewestVersion(request, resource, etag))
         {
             response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
             return;
@@ -68,11 +203,11 @@ public class StaticContentServlet extends HttpServlet
 
         // Set type mime type if we can determine it based on the filename
 
-        final String mimetype = sc.getMimeType(resource.getName());
-        if (mimetype != null)
+        if (resource.mimeType != null)
         {
-            response.setContentType(mimetype);
+            response.setContentType(resource.mimeType);
         }
+        response.setHeader("Accept-Ranges", "bytes");
 
         // Provide modification timestamp to the browser if it is known.
         if (lastModifiedTime > 0)
@@ -80,7 +215,7 @@ public class StaticContentServlet extends HttpServlet
             response.setDateHeader("Last-Modified", lastModifiedTime);
 
             String cacheControl = "public, max-age=0, must-revalidate";
-            int resourceCacheTime = getCacheTime(resource.getName());
+            int resourceCacheTime = getCacheTime(resource.file.getName());
             if (resourceCacheTime > 0)
             {
                 cacheControl = "max-age=" + String.valueOf(resourceCacheTime);
@@ -88,7 +223,185 @@ public class StaticContentServlet extends HttpServlet
             response.setHeader("Cache-Control", cacheControl);
         }
 
-        writeStaticResourceResponse(request, response, resource);
+        if (encoding != null)
+        {
+            response.setHeader("Content-Encoding", encoding);
+            if (compressed != null)
+            {
+                writeBytes(request, response, resource, compressed);
+            }
+            else
+            {
+                writeStaticResourceResponse(request, response, body, 0, body.length);
+            }
+            return;
+        }
+
+        final long[] range = getRange(request, resource);
+        if (range == UNSATISFIABLE)
+        {
+            response.setHeader("Content-Range", "bytes */" + resource.length);
+            response.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+            return;
+        }
+        if (range != null)
+        {
+            response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+            response.setHeader("Content-Range", "bytes " + range[0] + "-" + range[1] + "/" + resource.length);
+            writeStaticResourceResponse(request, response, resource, range[0], range[1] - range[0] + 1);
+        }
+        else
+        {
+            writeStaticResourceResponse(request, response, resource, 0, resource.length);
+        }
+    }
+
+    /**
+     * @return true if the Accept-Encoding header accepts the encoding (and
+     *         doesn't refuse it with q=0)
+     */
+    static boolean accepts(String acceptEncoding, String encoding)
+    {
+        if (acceptEncoding == null)
+        {
+            return false;
+        }
+        for (String accepted : acceptEncoding.split(","))
+        {
+            final String[] parts = accepted.split(";");
+            if (parts[0].trim().equalsIgnoreCase(encoding))
+            {
+                for (int i = 1; i < parts.length; i++)
+                {
+                    final String param = parts[i].trim();
+                    if (param.startsWith("q="))
+                    {
+                        try
+                        {
+                            return Double.parseDouble(param.substring(2)) > 0;
+                        }
+                        catch (NumberFormatException e)
+                        {
+                            return false;
+                        }
+                    }
+                }
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the first and last byte (inclusive) of the requested range,
+     *         null to send the whole file or UNSATISFIABLE if the range is
+     *         outside the file
+     */
+    private long[] getRange(HttpServletRequest request, StaticResource resource)
+    {
+        final String range = request.getHeader("Range");
+        if (range == null)
+        {
+            return null;
+        }
+
+        final String ifRange = request.getHeader("If-Range");
+        if (ifRange != null)
+        {
+            long ifRangeDate;
+            try
+            {
+                ifRangeDate = request.getDateHeader("If-Range");
+            }
+            catch (IllegalArgumentException e)
+            {
+                // an etag
+                ifRangeDate = -1;
+            }
+            if (!isIfRangeCurrent(ifRange, ifRangeDate, resource))
+            {
+                return null;
+            }
+        }
+        return parseRange(range, resource.length);
+    }
+
+    /**
+     * If-Range asks for the range only if the browser's partial copy is still
+     * current, otherwise the whole file is sent.
+     *
+     * @param ifRangeDate
+     *            the If-Range header parsed as a date, or -1 if it isn't one
+     * @return true if the If-Range header matches the resource's strong ETag
+     *         or modification time
+     */
+    static boolean isIfRangeCurrent(String ifRange, long ifRangeDate, StaticResource resource)
+    {
+        if (ifRange.equals(resource.etag))
+        {
+            return true;
+        }
+        // a weak or different etag isn't a date
+        return ifRangeDate != -1 && ifRangeDate == resource.lastModified;
+    }
+
+    /**
+     * Only a single byte range is supported, a request for several ranges is
+     * answered with the whole file which the spec allows.
+     *
+     * @param range
+     *            the Range header
+     * @param length
+     *            the length of the file
+     * @return the first and last byte (inclusive) of the requested range,
+     *         null to send the whole file or UNSATISFIABLE if the range is
+     *         outside the file
+     */
+    static long[] parseRange(String range, long length)
+    {
+        if (!range.startsWith("bytes=") || range.contains(","))
+        {
+            return null;
+        }
+
+        final String spec = range.substring("bytes=".length()).trim();
+        final int dash = spec.indexOf('-');
+        if (dash < 0)
+        {
+            return null;
+        }
+        try
+        {
+            final String first = spec.substring(0, dash).trim();
+            final String last = spec.substring(dash + 1).trim();
+            final long start;
+            final long end;
+            if (first.isEmpty())
+            {
+                // bytes=-500 is the last 500 bytes
+                final long suffix = Long.parseLong(last);
+                if (suffix <= 0)
+                {
+                    return UNSATISFIABLE;
+                }
+                start = Math.max(0, length - suffix);
+                end = length - 1;
+            }
+            else
+            {
+                start = Long.parseLong(first);
+                end = last.isEmpty() ? length - 1 : Math.min(Long.parseLong(last), length - 1);
+            }
+            if (start >= length || start > end)
+            {
+                return UNSATISFIABLE;
+            }
+            return new long[] { start, end };
+        }
+        catch (NumberFormatException e)
+        {
+            return null;
+        }
     }
 
     /**
@@ -127,45 +440,125 @@ public class StaticContentServlet extends HttpServlet
         return 60 * 60;
     }
 
-    private void writeStaticResourceResponse(HttpServletRequest request, HttpServletResponse response, File file)
+    private void writeStaticResourceResponse(HttpServletRequest request, HttpServletResponse response,
+            StaticResource resource, long start, long length)
 
     {
-        // this always will point to the root of the web site
+        // servlet 3.0 has no setContentLengthLong
+        response.setHeader("Content-Length", Long.toString(length));
+        if ("HEAD".equals(request.getMethod()))
+        {
+            return;
+        }
 
-        try (FileInputStream fis = new FileInputStream(file);
-                BufferedInputStream bis = new BufferedInputStream(fis);
-                ServletOutputStream outStream = response.getOutputStream();)
+        final ByteBuffer cached = hotFileCache != null ? hotFileCache.get(resource) : null;
+        if (cached != null)
         {
+            cached.position((int) start);
+            cached.limit((int) (start + length));
+            try (ServletOutputStream outStream = response.getOutputStream();)
+            {
+                final WritableByteChannel target = Channels.newChannel(outStream);
+                while (cached.hasRemaining())
+                {
+                    target.write(cached);
+                }
+            }
+            catch (Exception e)
+            {
+                logger.warn("EWengine: unable to send: '" + resource.file + "'");
+            }
+            return;
+        }
 
-            byte[] buf = new byte[4 * 1024]; // 4K buffer
-            int bytesRead;
-            while ((bytesRead = bis.read(buf)) != -1)
+        if (length >= SENDFILE_THRESHOLD && Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT)))
+        {
+            // the container sends the file once the servlet returns, freeing
+            // this thread
+            request.setAttribute(SENDFILE_FILENAME, resource.file.getAbsolutePath());
+            request.setAttribute(SENDFILE_START, start);
+            request.setAttribute(SENDFILE_END, start + length);
+            return;
+        }
+
+        try (FileChannel channel = FileChannel.open(resource.file.toPath(), StandardOpenOption.READ);
+                ServletOutputStream outStream = response.getOutputStream();)
+        {
+            final WritableByteChannel target = Channels.newChannel(outStream);
+            long position = start;
+            long remaining = length;
+            while (remaining > 0)
             {
-                outStream.write(buf, 0, bytesRead);
+                final long sent = channel.transferTo(position, remaining, target);
+                if (sent <= 0)
+                {
+                    // the file has been truncated since it was checked
+                    break;
+                }
+                position += sent;
+                remaining -= sent;
             }
         }
         catch (Exception e)
         {
-            logger.warn("EWengine: file not found or unable to read: '" + file + "'");
-            response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+            logger.warn("EWengine: file not found or unable to read: '" + resource.file + "'");
+            if (!response.isCommitted())
+            {
+                response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+            }
+            return;
+        }
+
+    }
+
+    private void writeBytes(HttpServletRequest request, HttpServletResponse response, StaticResource resource,
+            byte[] content)
+    {
+        response.setHeader("Content-Length", Integer.toString(content.length));
+        if ("HEAD".equals(request.getMethod()))
+        {
             return;
         }
 
+        try (ServletOutputStream outStream = response.getOutputStream();)
+        {
+            outStream.write(content);
+        }
+        catch (Exception e)
+        {
+            logger.warn("EWengine: unable to send: '" + resource.file + "'");
+        }
     }
 
     /**
      * Checks if the browser has an up to date cached version of requested
-     * resource. Currently the check is performed using the "If-Modified-Since"
-     * header. Could be expanded if needed.
+     * resource. The check is performed using the "If-None-Match" header, or
+     * the "If-Modified-Since" header if the browser didn't send an ETag.
      *
      * @param request The HttpServletRequest from the browser.
-     * @param resourceLastModifiedTimestamp The timestamp when the resource was
-     *            last modified. 0 if the last modification time is unknown.
-     * @return true if the If-Modified-Since header tells the cached version in
-     *         the browser is up to date, false otherwise
+     * @param resource The requested resource.
+     * @param etag The ETag of the content that would be sent.
+     * @return true if the If-None-Match or If-Modified-Since header tells the
+     *         cached version in the browser is up to date, false otherwise
      */
-    private boolean browserHasNewestVersion(HttpServletRequest request, long resourceLastModifiedTimestamp)
+    private boolean browserHasNewestVersion(HttpServletRequest request, StaticResource resource, String etag)
     {
+        final String ifNoneMatch = request.getHeader("If-None-Match");
+        if (ifNoneMatch != null)
+        {
+            // If-Modified-Since is ignored when If-None-Match is sent
+            for (String match : ifNoneMatch.split(","))
+            {
+                match = match.trim();
+                if (match.equals("*") || match.equals(etag) || match.equals("W/" + etag))
+                {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        final long resourceLastModifiedTimestamp = resource.lastModified;
         if (resourceLastModifiedTimestamp < 1)
         {
             // We do not know when it was modified so the browser cannot have an
@@ -197,6 +590,15 @@ public class StaticContentServlet extends HttpServlet
         return false;
     }
 
+    /**
+     * @return the hot file cache, or null if the hotCacheBytes init parameter
+     *         isn't set
+     */
+    public HotFileCache getHotFileCache()
+    {
+        return hotFileCache;
+    }
+
     /**
      * used by StaticFilter to initialize the servletContext
      *
@@ -0,0 +1,125 @@
+package au.com.vaadinutils.servlet;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * What StaticContentServlet knows about a file, so each request doesn't have
+ * to resolve the real path and stat the file again.
+ */
+class StaticResource
+{
+	/**
+	 * smaller files aren't worth compressing
+	 */
+	static final long MIN_COMPRESS_SIZE = 1024;
+
+	private static final Set<String> COMPRESSIBLE_TYPES = new HashSet<>(Arrays.asList("application/javascript",
+			"application/x-javascript", "application/json", "application/xml", "image/svg+xml",
+			"application/vnd.ms-fontobject", "font/ttf", "application/x-font-ttf"));
+
+	final File file;
+	final long length;
+
+	/**
+	 * the last modified time without milliseconds, as the browser doesn't send
+	 * them back in If-Modified-Since
+	 */
+	final long lastModified;
+
+	/**
+	 * a strong ETag built from the length and modification time
+	 */
+	final String etag;
+
+	final String mimeType;
+
+	/**
+	 * when the file was last checked, see isStale()
+	 */
+	final long checkedAt;
+
+	/**
+	 * true if the content is worth sending with a Content-Encoding
+	 */
+	final boolean compressible;
+
+	/**
+	 * the precompressed .gz and .br siblings of the file, if they exist and
+	 * are at least as new as the file
+	 */
+	final StaticResource gzip;
+	final StaticResource brotli;
+
+	private StaticResource(final File file, final long length, final long lastModified, final String mimeType,
+			final boolean withVariants)
+	{
+		this.file = file;
+		this.length = length;
+		this.lastModified = lastModified - lastModified % 1000;
+		this.etag = "\"" + Long.toHexString(length) + "-" + Long.toHexString(lastModified) + "\"";
+		this.mimeType = mimeType;
+		this.checkedAt = System.currentTimeMillis();
+		this.compressible = withVariants && length >= MIN_COMPRESS_SIZE && isCompressible(mimeType);
+		this.gzip = compressible ? variant(".gz") : null;
+		this.brotli = compressible ? variant(".br") : null;
+	}
+
+	private StaticResource variant(final String suffix)
+	{
+		final File variantFile = new File(file.getPath() + suffix);
+		final long variantModified = variantFile.lastModified();
+		if (variantModified < lastModified || variantFile.isDirectory())
+		{
+			// missing or older than the file
+			return null;
+		}
+		return new StaticResource(variantFile, variantFile.length(), variantModified, mimeType, false);
+	}
+
+	private static boolean isCompressible(final String mimeType)
+	{
+		if (mimeType == null)
+		{
+			return false;
+		}
+		final String type = mimeType.split(";")[0].trim().toLowerCase();
+		return type.startsWith("text/") || COMPRESSIBLE_TYPES.contains(type);
+	}
+
+	/**
+	 * @return the ETag of the content with the given Content-Encoding, each
+	 *         encoding must have its own strong ETag
+	 */
+	String getEtag(final String encoding)
+	{
+		if (encoding == null)
+		{
+			return etag;
+		}
+		return etag.substring(0, etag.length() - 1) + "-" + encoding + "\"";
+	}
+
+	/**
+	 * @return the resource, or null if the file doesn't exist or is a
+	 *         directory
+	 */
+	static StaticResource stat(final File file, final String mimeType)
+	{
+		// lastModified() is 0 if the file doesn't exist, saving a separate
+		// exists() call
+		final long lastModified = file.lastModified();
+		if (lastModified == 0 && !file.exists() || file.isDirectory())
+		{
+			return null;
+		}
+		return new StaticResource(file, file.length(), lastModified, mimeType, true);
+	}
+
+	boolean isStale(final long maxAgeMillis)
+	{
+		return System.currentTimeMillis() - checkedAt > maxAgeMillis;
+	}
+}
@@ -4,7 +4,12 @@ import javax.persistence.EntityManagerFactory;
 import javax.servlet.ServletContextEvent;
 import javax.servlet.ServletContextListener;
 
+import au.com.vaadinutils.dao.BackgroundExecutor;
 import au.com.vaadinutils.dao.EntityManagerProvider;
+import au.com.vaadinutils.dao.ParallelQueryRunner;
+import au.com.vaadinutils.errorHandling.ErrorEmailQueue;
+import au.com.vaadinutils.user.CachingUserSettingsStorage;
+import au.com.vaadinutils.util.ExportJobService;
 
 /**
  * You need to hook this class as a servlet context listener in your web.xml
@@ -31,6 +36,11 @@ public abstract class VUEntityManagerContextListener implements ServletContextLi
 	@Override
 	public void contextDestroyed(ServletContextEvent event)
 	{
+		ExportJobService.shutdown();
+		CachingUserSettingsStorage.shutdown();
+		ParallelQueryRunner.shutdown();
+		BackgroundExecutor.shutdown();
+		ErrorEmailQueue.shutdown();
 		if (emf != null)
 			emf.close();
 	}
@@ -0,0 +1,29 @@
+package au.com.vaadinutils.ui;
+
+import java.util.Map;
+
+/**
+ * Looks up the options for an AutoCompleteTextField on a background thread.
+ *
+ * query() is called with its own EntityManager and must not touch any
+ * components, the options it returns are shown by the field on the UI thread.
+ */
+public interface AutoCompleteAsyncQueryListener<E>
+{
+
+	/**
+	 * @param queryText
+	 * @param limit
+	 *            the maximum number of options that will be shown
+	 * @return the options to show and their labels, in display order
+	 */
+	Map<E, String> query(String queryText, int limit) throws Exception;
+
+	/**
+	 * Used to narrow the options of a previous query in memory when the user
+	 * types more characters, so must agree with the way query() matches.
+	 *
+	 * @return true if the option would be returned by query(queryText)
+	 */
+	boolean matches(E option, String optionLabel, String queryText);
+}
@@ -1,8 +1,14 @@
 package au.com.vaadinutils.ui;
 
+import java.io.Serializable;
 import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.apache.logging.log4j.Logger;
 
 import org.vaadin.peter.contextmenu.ContextMenu;
 import org.vaadin.peter.contextmenu.ContextMenu.ContextMenuClosedEvent;
@@ -11,21 +17,48 @@ import org.vaadin.peter.contextmenu.ContextMenu.ContextMenuItem;
 import org.vaadin.peter.contextmenu.ContextMenu.ContextMenuItemClickEvent;
 import org.vaadin.peter.contextmenu.ContextMenu.ContextMenuItemClickListener;
 
+import com.google.common.base.Preconditions;
 import com.vaadin.event.FieldEvents.TextChangeEvent;
 import com.vaadin.event.FieldEvents.TextChangeListener;
 import com.vaadin.ui.TextField;
+import com.vaadin.ui.UI;
+
+import au.com.vaadinutils.dao.BackgroundExecutor;
 
 public class AutoCompleteTextField<E> extends TextField
 {
 
 	private static final long serialVersionUID = 1L;
 
+	private static final Logger logger = org.apache.logging.log4j.LogManager.getLogger();
+
+	public static final int DEFAULT_MAX_OPTIONS = 50;
+	public static final int DEFAULT_QUERY_CACHE_SIZE = 20;
+
 	private AutoCompeleteQueryListener<E> listener;
 	private Map<E, String> options = new LinkedHashMap<>();
 	private AutoCompleteOptionSelected<E> optionListener;
 	private ContextMenu contextMenu;
 	private boolean isContextMenuOpen = false;
 
+	private AutoCompleteAsyncQueryListener<E> asyncListener;
+	private transient Future<Void> pendingQuery;
+	private long querySequence = 0;
+	private int maxOptions = DEFAULT_MAX_OPTIONS;
+	private int prefixCacheSize = DEFAULT_QUERY_CACHE_SIZE;
+
+	// access ordered, so the eldest entry is the least recently used
+	private final Map<String, CachedQuery> prefixCache = new LinkedHashMap<String, CachedQuery>(16, 0.75f, true)
+	{
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, CachedQuery> eldest)
+		{
+			return size() > prefixCacheSize;
+		}
+	};
+
 	/**
 	 * <pre>
 	 * {@code
@@ -82,6 +115,12 @@ public class AutoCompleteTextField<E> extends TextField
 			@Override
 			public void textChange(final TextChangeEvent event)
 			{
+				if (asyncListener != null)
+				{
+					queryAsync(event.getText());
+					return;
+				}
+
 				options.clear();
 
 				if (listener != null)
@@ -89,13 +128,188 @@ public class AutoCompleteTextField<E> extends TextField
 					listener.handleQuery(AutoCompleteTextField.this, event.getText());
 				}
 
-				if (!options.isEmpty())
+				showOptions();
+			}
+		});
+	}
+
+	private void showOptions()
+	{
+		if (!options.isEmpty())
+		{
+			createContextMenu();
+			showOptionMenu();
+		}
+	}
+
+	/**
+	 * Runs the query on the BackgroundExecutor, cancelling the previous query
+	 * if it is still running. The options are shown via UI.access(), so push
+	 * or polling must be enabled for them to appear before the next round
+	 * trip.
+	 */
+	private void queryAsync(final String queryText)
+	{
+		final long sequence = ++querySequence;
+		cancelPendingQuery();
+
+		final Map<E, String> cached = getCachedOptions(queryText);
+		if (cached != null)
+		{
+			setOptions(cached);
+			return;
+		}
+
+		final UI ui = getUI();
+		if (ui == null)
+		{
+			// detached, there is nowhere to show the options
+			return;
+		}
+		final AutoCompleteAsyncQueryListener<E> queryListener = asyncListener;
+		final int limit = maxOptions;
+		try
+		{
+			pendingQuery = BackgroundExecutor.submit(new Callable<Void>()
+			{
+				@Override
+				public Void call() throws Exception
 				{
-					createContextMenu();
-					showOptionMenu();
+					final Map<E, String> result;
+					try
+					{
+						result = queryListener.query(queryText, limit);
+					}
+					catch (Exception e)
+					{
+						// nobody waits on the future, so log it here
+						if (!Thread.currentThread().isInterrupted())
+						{
+							logger.error("Auto complete query for '{}' failed", queryText, e);
+						}
+						return null;
+					}
+					if (Thread.currentThread().isInterrupted())
+					{
+						// superseded by a newer keystroke
+						return null;
+					}
+					ui.access(new Runnable()
+					{
+						@Override
+						public void run()
+						{
+							// a newer keystroke has already started its own
+							// query
+							if (sequence == querySequence)
+							{
+								pendingQuery = null;
+								cacheOptions(queryText, result, limit);
+								setOptions(result);
+							}
+						}
+					});
+					return null;
 				}
+			});
+		}
+		catch (RejectedExecutionException e)
+		{
+			logger.warn("Background executor is busy, skipping auto complete query for '{}'", queryText);
+		}
+	}
+
+	private void setOptions(final Map<E, String> newOptions)
+	{
+		options.clear();
+		if (newOptions != null)
+		{
+			options.putAll(newOptions);
+		}
+		showOptions();
+	}
+
+	private void cancelPendingQuery()
+	{
+		if (pendingQuery != null)
+		{
+			pendingQuery.cancel(true);
+			pendingQuery = null;
+		}
+	}
+
+	/**
+	 * @return the options for the query from the cache, either from the same
+	 *         query or by narrowing a complete result of a shorter query that
+	 *         this one starts with. Null if the query has to be run.
+	 */
+	private Map<E, String> getCachedOptions(final String queryText)
+	{
+		final CachedQuery exact = prefixCache.get(queryText);
+		if (exact != null)
+		{
+			return exact.options;
+		}
+
+		CachedQuery best = null;
+		for (CachedQuery candidate : prefixCache.values())
+		{
+			if (candidate.complete && queryText.startsWith(candidate.queryText)
+					&& (best == null || candidate.queryText.length() > best.queryText.length()))
+			{
+				best = candidate;
 			}
-		});
+		}
+		if (best == null)
+		{
+			return null;
+		}
+
+		final Map<E, String> narrowed = new LinkedHashMap<>();
+		for (Entry<E, String> option : best.options.entrySet())
+		{
+			if (asyncListener.matches(option.getKey(), option.getValue(), queryText))
+			{
+				narrowed.put(option.getKey(), option.getValue());
+			}
+		}
+		// narrowing a complete result gives a complete result
+		prefixCache.put(queryText, new CachedQuery(queryText, narrowed, true));
+		return narrowed;
+	}
+
+	private void cacheOptions(final String queryText, final Map<E, String> result, final int limit)
+	{
+		if (result != null && prefixCacheSize > 0)
+		{
+			// if the query hit the limit there may be more matches than we
+			// have, so it can't be narrowed in memory
+			prefixCache.put(queryText, new CachedQuery(queryText, result, result.size() < limit));
+		}
+	}
+
+	private class CachedQuery implements Serializable
+	{
+		private static final long serialVersionUID = 1L;
+
+		final String queryText;
+		final Map<E, String> options;
+		final boolean complete;
+
+		CachedQuery(final String queryText, final Map<E, String> options, final boolean complete)
+		{
+			this.queryText = queryText;
+			this.options = new LinkedHashMap<>(options);
+			this.complete = complete;
+		}
+	}
+
+	@Override
+	public void detach()
+	{
+		cancelPendingQuery();
+		querySequence++;
+		super.detach();
 	}
 
 	private void createContextMenu()
@@ -168,6 +382,52 @@ public class AutoCompleteTextField<E> extends TextField
 		listener = null;
 	}
 
+	/**
+	 * Look up the options on a background thread rather than the UI thread.
+	 * While set, this is used in place of the AutoCompeleteQueryListener.
+	 */
+	public void setAsyncQueryListener(AutoCompleteAsyncQueryListener<E> listener)
+	{
+		this.asyncListener = listener;
+		clearQueryCache();
+	}
+
+	public void removeAsyncQueryListener()
+	{
+		cancelPendingQuery();
+		asyncListener = null;
+		clearQueryCache();
+	}
+
+	/**
+	 * the maximum number of options requested from the async query listener
+	 */
+	public void setMaxOptions(int maxOptions)
+	{
+		Preconditions.checkArgument(maxOptions > 0, "maxOptions must be greater than zero");
+		this.maxOptions = maxOptions;
+		clearQueryCache();
+	}
+
+	/**
+	 * the number of async query results remembered by this field, 0 turns off
+	 * the cache
+	 */
+	public void setQueryCacheSize(int queryCacheSize)
+	{
+		Preconditions.checkArgument(queryCacheSize >= 0, "queryCacheSize may not be negative");
+		this.prefixCacheSize = queryCacheSize;
+		clearQueryCache();
+	}
+
+	/**
+	 * call this when the data behind the async query listener has changed
+	 */
+	public void clearQueryCache()
+	{
+		prefixCache.clear();
+	}
+
 	public void addOption(E option, String optionLabel)
 	{
 		options.put(option, optionLabel);
@@ -6,7 +6,6 @@ import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
-import java.util.Vector;
 
 import javax.persistence.metamodel.EntityType;
 import javax.persistence.metamodel.Metamodel;
@@ -23,9 +22,6 @@ import com.vaadin.data.Container.Filterable;
 import com.vaadin.data.Property;
 import com.vaadin.data.Validator.InvalidValueException;
 import com.vaadin.data.util.BeanContainer;
-import com.vaadin.data.util.filter.Compare;
-import com.vaadin.data.util.filter.Not;
-import com.vaadin.data.util.filter.Or;
 import com.vaadin.data.util.filter.SimpleStringFilter;
 import com.vaadin.event.ItemClickEvent;
 import com.vaadin.event.ItemClickEvent.ItemClickListener;
@@ -46,6 +42,7 @@ import au.com.vaadinutils.crud.HeadingPropertySet;
 import au.com.vaadinutils.crud.SearchableSelectableEntityTable;
 import au.com.vaadinutils.dao.EntityManagerProvider;
 import au.com.vaadinutils.dao.JpaBaseDao;
+import au.com.vaadinutils.dao.NotInFilterDelegate;
 import au.com.vaadinutils.dao.NullFilter;
 
 /**
@@ -143,6 +140,7 @@ public class TwinColumnSearchableSelect<C extends CrudEntity> extends CustomFiel
 
 		availableContainer = JpaBaseDao.getGenericDao(listField.getDeclaringType().getJavaType())
 				.createVaadinContainer();
+		availableContainer.setQueryModifierDelegate(new NotInFilterDelegate(availableContainer, null));
 		availableContainer.sort(new Object[]
 		{ listField.getName() }, new boolean[]
 		{ isAscending });
@@ -505,26 +503,15 @@ public class TwinColumnSearchableSelect<C extends CrudEntity> extends CustomFiel
 
 	private void refreshSelected()
 	{
-		final List<Long> selectedIds = beans.getItemIds();
-		if (selectedIds.size() == 1)
-		{
-			selectedFilter = new Not(new Compare.Equal(beanIdField.getName(), selectedIds.get(0)));
-			availableTable.triggerFilter();
-			return;
-		}
-
-		final Vector<Filter> filters = new Vector<>();
-		for (Long id : selectedIds)
-		{
-			filters.add(new Compare.Equal(beanIdField.getName(), id));
-		}
-		selectedFilter = new Not(new Or(filters.toArray(new Filter[filters.size()])));
+		// a single NOT IN rather than an OR clause per selected id
+		selectedFilter = NullFilter.notIn(beanIdField.getName(), beans.getItemIds());
 		availableTable.triggerFilter();
 	}
 
 	public void setFilterDelegate(DefaultQueryModifierDelegate defaultQueryModifierDelegate)
 	{
-		availableContainer.setQueryModifierDelegate(defaultQueryModifierDelegate);
+		availableContainer
+				.setQueryModifierDelegate(new NotInFilterDelegate(availableContainer, defaultQueryModifierDelegate));
 
 	}
 
@@ -619,6 +606,7 @@ public class TwinColumnSearchableSelect<C extends CrudEntity> extends CustomFiel
 	protected void resetAvailableContainer(JPAContainer<C> newContainer)
 	{
 		this.availableContainer = newContainer;
+		this.availableContainer.setQueryModifierDelegate(new NotInFilterDelegate(availableContainer, null));
 	}
 
 	public void resetSelected()
@@ -6,7 +6,6 @@ import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
-import java.util.Vector;
 
 import javax.persistence.metamodel.EntityType;
 import javax.persistence.metamodel.Metamodel;
@@ -19,9 +18,6 @@ import com.vaadin.data.Buffered;
 import com.vaadin.data.Container.Filter;
 import com.vaadin.data.Validator.InvalidValueException;
 import com.vaadin.data.util.BeanContainer;
-import com.vaadin.data.util.filter.Compare;
-import com.vaadin.data.util.filter.Not;
-import com.vaadin.data.util.filter.Or;
 import com.vaadin.data.util.filter.SimpleStringFilter;
 import com.vaadin.event.ItemClickEvent;
 import com.vaadin.event.ItemClickEvent.ItemClickListener;
@@ -42,6 +38,7 @@ import au.com.vaadinutils.crud.GridHeadingPropertySet;
 import au.com.vaadinutils.crud.SearchableGrid;
 import au.com.vaadinutils.dao.EntityManagerProvider;
 import au.com.vaadinutils.dao.JpaBaseDao;
+import au.com.vaadinutils.dao.NotInFilterDelegate;
 import au.com.vaadinutils.dao.NullFilter;
 
 /**
@@ -223,6 +220,7 @@ public class TwinColumnSelect<C extends CrudEntity> extends CustomField<Collecti
 	private JPAContainer<C> createAvailableContainer()
 	{
 		availableContainer = JpaBaseDao.getGenericDao(itemClass).createVaadinContainer();
+		availableContainer.setQueryModifierDelegate(new NotInFilterDelegate(availableContainer, null));
 		sortAvailableContainer();
 
 		return availableContainer;
@@ -390,7 +388,8 @@ public class TwinColumnSelect<C extends CrudEntity> extends CustomField<Collecti
 
 	public void setFilterDelegate(DefaultQueryModifierDelegate defaultQueryModifierDelegate)
 	{
-		availableContainer.setQueryModifierDelegate(defaultQueryModifierDelegate);
+		availableContainer
+				.setQueryModifierDelegate(new NotInFilterDelegate(availableContainer, defaultQueryModifierDelegate));
 	}
 
 	@Override
@@ -509,20 +508,8 @@ public class TwinColumnSelect<C extends CrudEntity> extends CustomField<Collecti
 
 	private void refreshSelected()
 	{
-		final List<Long> selectedIds = selectedBeans.getItemIds();
-		if (selectedIds.size() == 1)
-		{
-			selectedFilter = new Not(new Compare.Equal(beanIdField.getName(), selectedIds.get(0)));
-			availableGrid.triggerFilter();
-			return;
-		}
-
-		final Vector<Filter> filters = new Vector<>();
-		for (Long id : selectedIds)
-		{
-			filters.add(new Compare.Equal(beanIdField.getName(), id));
-		}
-		selectedFilter = new Not(new Or(filters.toArray(new Filter[filters.size()])));
+		// a single NOT IN rather than an OR clause per selected id
+		selectedFilter = NullFilter.notIn(beanIdField.getName(), selectedBeans.getItemIds());
 		availableGrid.triggerFilter();
 	}
 
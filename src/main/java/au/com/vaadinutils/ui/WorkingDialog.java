@@ -1,5 +1,7 @@
 package au.com.vaadinutils.ui;
 
+import java.util.concurrent.RejectedExecutionException;
+
 import com.vaadin.shared.ui.label.ContentMode;
 import com.vaadin.ui.Alignment;
 import com.vaadin.ui.Button;
@@ -12,6 +14,7 @@ import com.vaadin.ui.UI;
 import com.vaadin.ui.VerticalLayout;
 import com.vaadin.ui.Window;
 
+import au.com.vaadinutils.dao.BackgroundExecutor;
 import au.com.vaadinutils.dao.EntityManagerRunnable;
 import au.com.vaadinutils.listener.CancelListener;
 import au.com.vaadinutils.listener.ClickEventLogged;
@@ -156,14 +159,25 @@ public class WorkingDialog extends Window implements ProgressListener<String>
 	 * @param listener
 	 *            a complete listener to be notified when the thread has
 	 *            finished.
+	 * @throws RejectedExecutionException
+	 *             if the BackgroundExecutor is full, the dialog is closed
 	 */
 
 	public void setWorker(EntityManagerRunnable runnable, CompleteListener listener)
+			throws RejectedExecutionException
 	{
 		this.completeListener = listener;
 
-		Thread worker = new Thread(new Worker(this, runnable), "WorkingDialog");
-		worker.start();
+		try
+		{
+			BackgroundExecutor.execute(new Worker(this, runnable));
+		}
+		catch (RejectedExecutionException e)
+		{
+			// the worker will never complete the dialog
+			close();
+			throw e;
+		}
 
 	}
 
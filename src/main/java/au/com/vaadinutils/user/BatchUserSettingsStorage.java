@@ -0,0 +1,19 @@
+package au.com.vaadinutils.user;
+
+import java.util.Map;
+
+/**
+ * Implement this as well as UserSettingsStorage to let the session cache
+ * load and store settings in bulk rather than one key at a time.
+ */
+public interface BatchUserSettingsStorage extends UserSettingsStorage
+{
+
+	/**
+	 * @return every stored setting whose key starts with keyPrefix
+	 */
+	Map<String, String> getAll(String keyPrefix);
+
+	void storeAll(Map<String, String> settings);
+
+}
@@ -0,0 +1,314 @@
+package au.com.vaadinutils.user;
+
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.logging.log4j.Logger;
+
+import com.vaadin.server.VaadinSession;
+import com.vaadin.util.CurrentInstance;
+
+import au.com.vaadinutils.dao.BackgroundExecutor;
+
+/**
+ * A per session cache in front of the application's UserSettingsStorage,
+ * enable it with UserSettingsStorageFactory.enableSessionCache().
+ *
+ * Settings that have been read are remembered for the life of the session,
+ * and prefetch() loads all of a table's settings in one call if the storage
+ * implements BatchUserSettingsStorage.
+ *
+ * Writes are applied to the cache immediately and written to the storage on
+ * the BackgroundExecutor once no more writes have arrived for the flush delay
+ * (or the max delay has passed), only the last value of each key is written.
+ */
+public class CachingUserSettingsStorage implements UserSettingsStorage, Serializable
+{
+	private static final long serialVersionUID = 1L;
+
+	private static final Logger logger = org.apache.logging.log4j.LogManager.getLogger();
+
+	// flushes are started from here and run on the BackgroundExecutor,
+	// created when the first flush is scheduled
+	private static ScheduledExecutorService scheduler;
+
+	private final long flushDelayMillis;
+	private final long maxDelayMillis;
+
+	// a null value means the key isn't stored
+	private final Map<String, String> cache = new HashMap<>();
+	private final Set<String> loadedPrefixes = new HashSet<>();
+
+	private final Map<String, String> pending = new LinkedHashMap<>();
+	private long firstPendingAt;
+	private transient ScheduledFuture<?> scheduledFlush;
+	private transient VaadinSession session;
+
+	// held while writing to the storage so an erase can't be overtaken by an
+	// earlier flush
+	private final Object flushLock = new Serializable()
+	{
+		private static final long serialVersionUID = 1L;
+	};
+
+	CachingUserSettingsStorage(final long flushDelayMillis, final long maxDelayMillis)
+	{
+		this.flushDelayMillis = flushDelayMillis;
+		this.maxDelayMillis = maxDelayMillis;
+	}
+
+	private static synchronized ScheduledExecutorService getScheduler()
+	{
+		if (scheduler == null)
+		{
+			scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory()
+			{
+				@Override
+				public Thread newThread(Runnable r)
+				{
+					final Thread thread = new Thread(r, "User Settings Flush");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		return scheduler;
+	}
+
+	/**
+	 * Stops the flush thread, settings still waiting for their flush delay are
+	 * not written. Call this from your ServletContextListener (
+	 * VUEntityManagerContextListener does this for you).
+	 */
+	public static synchronized void shutdown()
+	{
+		if (scheduler != null)
+		{
+			scheduler.shutdownNow();
+			scheduler = null;
+		}
+	}
+
+	private UserSettingsStorage storage()
+	{
+		return UserSettingsStorageFactory.storage;
+	}
+
+	/**
+	 * Load all of the settings whose keys start with keyPrefix with one call
+	 * to the storage, does nothing if the storage doesn't implement
+	 * BatchUserSettingsStorage.
+	 */
+	public void prefetch(final String keyPrefix)
+	{
+		final UserSettingsStorage storage = storage();
+		if (!(storage instanceof BatchUserSettingsStorage))
+		{
+			return;
+		}
+		synchronized (this)
+		{
+			if (isLoaded(keyPrefix))
+			{
+				return;
+			}
+		}
+
+		final Map<String, String> settings = ((BatchUserSettingsStorage) storage).getAll(keyPrefix);
+		synchronized (this)
+		{
+			for (Entry<String, String> setting : settings.entrySet())
+			{
+				// don't overwrite writes that haven't been flushed yet
+				if (!pending.containsKey(setting.getKey()))
+				{
+					cache.put(setting.getKey(), setting.getValue());
+				}
+			}
+			loadedPrefixes.add(keyPrefix);
+		}
+	}
+
+	@Override
+	public String get(final String key)
+	{
+		synchronized (this)
+		{
+			if (cache.containsKey(key))
+			{
+				return cache.get(key);
+			}
+			if (isLoaded(key))
+			{
+				// its prefix has been loaded and it wasn't there
+				return null;
+			}
+		}
+
+		final String value = storage().get(key);
+		synchronized (this)
+		{
+			if (!cache.containsKey(key))
+			{
+				cache.put(key, value);
+			}
+			return cache.get(key);
+		}
+	}
+
+	private boolean isLoaded(final String key)
+	{
+		for (String prefix : loadedPrefixes)
+		{
+			if (key.startsWith(prefix))
+			{
+				return true;
+			}
+		}
+		return false;
+	}
+
+	@Override
+	public synchronized void store(final String key, final String value)
+	{
+		cache.put(key, value);
+		if (pending.isEmpty())
+		{
+			firstPendingAt = System.currentTimeMillis();
+		}
+		pending.put(key, value);
+
+		if (VaadinSession.getCurrent() != null)
+		{
+			session = VaadinSession.getCurrent();
+		}
+		scheduleFlush();
+	}
+
+	private void scheduleFlush()
+	{
+		if (scheduledFlush != null)
+		{
+			scheduledFlush.cancel(false);
+		}
+		final long waited = System.currentTimeMillis() - firstPendingAt;
+		final long delay = Math.max(0, Math.min(flushDelayMillis, maxDelayMillis - waited));
+		scheduledFlush = getScheduler().schedule(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				try
+				{
+					BackgroundExecutor.submit(new Runnable()
+					{
+						@Override
+						public void run()
+						{
+							flush();
+						}
+					});
+				}
+				catch (RejectedExecutionException e)
+				{
+					logger.warn("Background executor is busy, user settings will be written with the next change");
+				}
+			}
+		}, delay, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Write any pending settings to the storage now, on the calling thread.
+	 */
+	public void flush()
+	{
+		synchronized (flushLock)
+		{
+			final Map<String, String> writes;
+			final VaadinSession writeSession;
+			synchronized (this)
+			{
+				if (pending.isEmpty())
+				{
+					return;
+				}
+				writes = new LinkedHashMap<>(pending);
+				pending.clear();
+				writeSession = session;
+				if (scheduledFlush != null)
+				{
+					scheduledFlush.cancel(false);
+					scheduledFlush = null;
+				}
+			}
+
+			// storage implementations may look up the user from the session
+			final Map<Class<?>, CurrentInstance> previous = writeSession == null ? null
+					: CurrentInstance.setCurrent(writeSession);
+			try
+			{
+				final UserSettingsStorage storage = storage();
+				if (storage instanceof BatchUserSettingsStorage)
+				{
+					((BatchUserSettingsStorage) storage).storeAll(writes);
+				}
+				else
+				{
+					for (Entry<String, String> write : writes.entrySet())
+					{
+						storage.store(write.getKey(), write.getValue());
+					}
+				}
+				logger.debug("Wrote {} user settings", writes.size());
+			}
+			catch (RuntimeException e)
+			{
+				logger.error("Failed to write user settings " + writes.keySet(), e);
+			}
+			finally
+			{
+				if (previous != null)
+				{
+					CurrentInstance.restoreInstances(previous);
+				}
+			}
+		}
+	}
+
+	@Override
+	public void erase(final String partialKey)
+	{
+		synchronized (flushLock)
+		{
+			synchronized (this)
+			{
+				removeKeys(cache.keySet().iterator(), partialKey);
+				removeKeys(pending.keySet().iterator(), partialKey);
+			}
+			storage().erase(partialKey);
+		}
+	}
+
+	private void removeKeys(final Iterator<String> keys, final String partialKey)
+	{
+		while (keys.hasNext())
+		{
+			if (keys.next().startsWith(partialKey))
+			{
+				keys.remove();
+			}
+		}
+	}
+}
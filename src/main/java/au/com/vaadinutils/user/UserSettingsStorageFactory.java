@@ -1,13 +1,41 @@
 package au.com.vaadinutils.user;
 
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.base.Preconditions;
+import com.vaadin.server.SessionDestroyEvent;
+import com.vaadin.server.SessionDestroyListener;
+import com.vaadin.server.VaadinService;
+import com.vaadin.server.VaadinSession;
+
 public class UserSettingsStorageFactory
 {
 	// Logger logger = org.apache.logging.log4j.LogManager.getLogger();
 
 	static UserSettingsStorage storage = new UserSettingsStorageNoOpImpl();
 
+	public static final long DEFAULT_FLUSH_DELAY_MILLIS = 2000;
+	public static final long DEFAULT_MAX_FLUSH_DELAY_MILLIS = 10000;
+
+	private static volatile boolean sessionCache = false;
+	private static volatile long flushDelayMillis = DEFAULT_FLUSH_DELAY_MILLIS;
+	private static volatile long maxFlushDelayMillis = DEFAULT_MAX_FLUSH_DELAY_MILLIS;
+
+	/**
+	 * @return the session's CachingUserSettingsStorage if the session cache is
+	 *         enabled and there is a current session, otherwise the storage
+	 *         engine
+	 */
 	static public UserSettingsStorage getUserSettingsStorage()
 	{
+		if (sessionCache)
+		{
+			final VaadinSession session = VaadinSession.getCurrent();
+			if (session != null)
+			{
+				return getSessionCache(session);
+			}
+		}
 		return storage;
 	}
 
@@ -15,4 +43,83 @@ public class UserSettingsStorageFactory
 	{
 		storage = storageEngine;
 	}
+
+	/**
+	 * Put a CachingUserSettingsStorage in front of the storage engine for each
+	 * session, call this during application startup.
+	 *
+	 * @param flushDelay
+	 *            how long to wait for more changes before writing them
+	 * @param maxFlushDelay
+	 *            the longest a change will wait to be written while changes
+	 *            keep arriving
+	 * @param unit
+	 */
+	static public void enableSessionCache(long flushDelay, long maxFlushDelay, TimeUnit unit)
+	{
+		Preconditions.checkArgument(flushDelay >= 0, "flushDelay may not be negative");
+		Preconditions.checkArgument(maxFlushDelay >= flushDelay, "maxFlushDelay must be at least the flushDelay");
+		flushDelayMillis = unit.toMillis(flushDelay);
+		maxFlushDelayMillis = unit.toMillis(maxFlushDelay);
+		sessionCache = true;
+	}
+
+	static public void enableSessionCache()
+	{
+		enableSessionCache(DEFAULT_FLUSH_DELAY_MILLIS, DEFAULT_MAX_FLUSH_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Load all of the settings whose keys start with keyPrefix in one go, so
+	 * the settings of a table with many columns aren't read one at a time.
+	 * Does nothing unless the session cache is enabled.
+	 */
+	static public void prefetch(String keyPrefix)
+	{
+		final UserSettingsStorage current = getUserSettingsStorage();
+		if (current instanceof CachingUserSettingsStorage)
+		{
+			((CachingUserSettingsStorage) current).prefetch(keyPrefix);
+		}
+	}
+
+	private static CachingUserSettingsStorage getSessionCache(final VaadinSession session)
+	{
+		CachingUserSettingsStorage cache = session.getAttribute(CachingUserSettingsStorage.class);
+		if (cache == null)
+		{
+			cache = new CachingUserSettingsStorage(flushDelayMillis, maxFlushDelayMillis);
+			session.setAttribute(CachingUserSettingsStorage.class, cache);
+			addFlushOnSessionDestroy(session.getService());
+		}
+		return cache;
+	}
+
+	private static VaadinService listeningService;
+
+	// write any pending settings when the session ends rather than losing
+	// them
+	private static synchronized void addFlushOnSessionDestroy(final VaadinService service)
+	{
+		if (service == null || service == listeningService)
+		{
+			return;
+		}
+		service.addSessionDestroyListener(new SessionDestroyListener()
+		{
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			public void sessionDestroy(SessionDestroyEvent event)
+			{
+				final CachingUserSettingsStorage cache = event.getSession()
+						.getAttribute(CachingUserSettingsStorage.class);
+				if (cache != null)
+				{
+					cache.flush();
+				}
+			}
+		});
+		listeningService = service;
+	}
 }
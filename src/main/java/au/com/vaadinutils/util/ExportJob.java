@@ -0,0 +1,31 @@
+package au.com.vaadinutils.util;
+
+import java.io.OutputStream;
+
+import au.com.vaadinutils.listener.ProgressListener;
+
+/**
+ * A unit of work run by the ExportJobService on one of its worker threads.
+ *
+ * The job is run with its own EntityManager and transaction, if it needs to
+ * touch vaadin components or containers it must do so inside
+ * UI.accessSynchronously().
+ */
+public interface ExportJob
+{
+	/**
+	 * Write the export to out.
+	 *
+	 * The job should check Thread.currentThread().isInterrupted() periodically
+	 * and stop if it returns true, as that is how a cancel is delivered.
+	 *
+	 * @param out
+	 *            - the stream to write to, the service closes it once the job
+	 *            returns.
+	 * @param progress
+	 *            - report progress via progress(), the service takes care of
+	 *            calling complete() and exception().
+	 * @throws Exception
+	 */
+	void export(OutputStream out, ProgressListener<String> progress) throws Exception;
+}
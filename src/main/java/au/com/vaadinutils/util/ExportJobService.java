@@ -0,0 +1,476 @@
+package au.com.vaadinutils.util;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.logging.log4j.Logger;
+
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.vaadin.server.ClientConnector.DetachEvent;
+import com.vaadin.server.ClientConnector.DetachListener;
+import com.vaadin.server.FileDownloader;
+import com.vaadin.server.StreamResource;
+import com.vaadin.server.StreamResource.StreamSource;
+import com.vaadin.shared.communication.PushMode;
+import com.vaadin.ui.Alignment;
+import com.vaadin.ui.Button;
+import com.vaadin.ui.HorizontalLayout;
+import com.vaadin.ui.Notification;
+import com.vaadin.ui.Notification.Type;
+import com.vaadin.ui.UI;
+import com.vaadin.ui.UIDetachedException;
+import com.vaadin.ui.Window;
+
+import au.com.vaadinutils.dao.EntityManagerProvider;
+import au.com.vaadinutils.jasper.AttachmentType;
+import au.com.vaadinutils.listener.CancelListener;
+import au.com.vaadinutils.ui.WorkingDialog;
+
+/**
+ * Runs exports on a small, bounded pool of worker threads so that a slow
+ * export doesn't tie up a servlet thread and a burst of exports can't
+ * overload the database.
+ *
+ * Each job runs with its own EntityManager and spools its output to a temp
+ * file. While the job runs a WorkingDialog shows its progress, once it
+ * completes the user is offered a download link for the file. The temp file is
+ * deleted once it has been downloaded, or when the download window is closed
+ * or detached with its session.
+ *
+ * If the pool and its queue are full the export is rejected and the user is
+ * asked to try again later.
+ *
+ * Downloads that are streamed straight to the browser have their own pool, see
+ * stream().
+ *
+ * The pools can be sized by calling configure() and configureDownloads()
+ * during application startup and should be shutdown from your
+ * ServletContextListener (VUEntityManagerContextListener does this for you).
+ */
+public enum ExportJobService
+{
+	INSTANCE;
+
+	private static final Logger logger = org.apache.logging.log4j.LogManager.getLogger();
+
+	public static final int DEFAULT_MAX_CONCURRENT_JOBS = 2;
+	public static final int DEFAULT_MAX_QUEUED_JOBS = 10;
+	public static final int DEFAULT_MAX_CONCURRENT_DOWNLOADS = 4;
+
+	private int maxConcurrentJobs = DEFAULT_MAX_CONCURRENT_JOBS;
+	private int maxQueuedJobs = DEFAULT_MAX_QUEUED_JOBS;
+	private int maxConcurrentDownloads = DEFAULT_MAX_CONCURRENT_DOWNLOADS;
+
+	private ThreadPoolExecutor executor;
+	private ThreadPoolExecutor downloadExecutor;
+	private ScheduledExecutorService scheduler;
+
+	/**
+	 * Set the size of the worker pool and the number of jobs that may wait for
+	 * a worker. Jobs that are already running or queued are not affected.
+	 *
+	 * @param maxConcurrentJobs
+	 * @param maxQueuedJobs
+	 */
+	public static void configure(int maxConcurrentJobs, int maxQueuedJobs)
+	{
+		Preconditions.checkArgument(maxConcurrentJobs > 0, "maxConcurrentJobs must be greater than zero");
+		Preconditions.checkArgument(maxQueuedJobs > 0, "maxQueuedJobs must be greater than zero");
+		synchronized (INSTANCE)
+		{
+			INSTANCE.maxConcurrentJobs = maxConcurrentJobs;
+			INSTANCE.maxQueuedJobs = maxQueuedJobs;
+			if (INSTANCE.executor != null)
+			{
+				INSTANCE.executor.shutdown();
+				INSTANCE.executor = null;
+			}
+		}
+	}
+
+	/**
+	 * Set the number of downloads that may be streamed at once. Downloads that
+	 * are already running are not affected.
+	 *
+	 * @param maxConcurrentDownloads
+	 */
+	public static void configureDownloads(int maxConcurrentDownloads)
+	{
+		Preconditions.checkArgument(maxConcurrentDownloads > 0, "maxConcurrentDownloads must be greater than zero");
+		synchronized (INSTANCE)
+		{
+			INSTANCE.maxConcurrentDownloads = maxConcurrentDownloads;
+			if (INSTANCE.downloadExecutor != null)
+			{
+				INSTANCE.downloadExecutor.shutdown();
+				INSTANCE.downloadExecutor = null;
+			}
+		}
+	}
+
+	/**
+	 * stops accepting new jobs, running and queued jobs are allowed to finish.
+	 */
+	public static void shutdown()
+	{
+		synchronized (INSTANCE)
+		{
+			if (INSTANCE.executor != null)
+			{
+				INSTANCE.executor.shutdown();
+				INSTANCE.executor = null;
+			}
+			if (INSTANCE.downloadExecutor != null)
+			{
+				INSTANCE.downloadExecutor.shutdown();
+				INSTANCE.downloadExecutor = null;
+			}
+			if (INSTANCE.scheduler != null)
+			{
+				INSTANCE.scheduler.shutdownNow();
+				INSTANCE.scheduler = null;
+			}
+		}
+	}
+
+	private ThreadPoolExecutor getExecutor()
+	{
+		synchronized (INSTANCE)
+		{
+			if (executor == null)
+			{
+				executor = new ThreadPoolExecutor(maxConcurrentJobs, maxConcurrentJobs, 60, TimeUnit.SECONDS,
+						new ArrayBlockingQueue<Runnable>(maxQueuedJobs),
+						new ThreadFactoryBuilder().setNameFormat("Export Job-%d").setDaemon(true).build(),
+						new ThreadPoolExecutor.AbortPolicy());
+				executor.allowCoreThreadTimeOut(true);
+			}
+			return executor;
+		}
+	}
+
+	private ThreadPoolExecutor getDownloadExecutor()
+	{
+		synchronized (INSTANCE)
+		{
+			if (downloadExecutor == null)
+			{
+				// no queue, a download's writer starts straight away or not at
+				// all
+				downloadExecutor = new ThreadPoolExecutor(0, maxConcurrentDownloads, 60, TimeUnit.SECONDS,
+						new SynchronousQueue<Runnable>(),
+						new ThreadFactoryBuilder().setNameFormat("Export Download-%d").setDaemon(true).build(),
+						new ThreadPoolExecutor.AbortPolicy());
+			}
+			return downloadExecutor;
+		}
+	}
+
+	private ScheduledExecutorService getScheduler()
+	{
+		synchronized (INSTANCE)
+		{
+			if (scheduler == null)
+			{
+				scheduler = Executors.newSingleThreadScheduledExecutor(
+						new ThreadFactoryBuilder().setNameFormat("Export Scheduler-%d").setDaemon(true).build());
+			}
+			return scheduler;
+		}
+	}
+
+	/**
+	 * Run a short task, such as closing an export's window, after a delay.
+	 * The tasks share a single thread so they mustn't block.
+	 *
+	 * @param task
+	 * @param delay
+	 * @param unit
+	 * @return
+	 */
+	public static ScheduledFuture<?> schedule(final Runnable task, final long delay, final TimeUnit unit)
+	{
+		return INSTANCE.getScheduler().schedule(task, delay, unit);
+	}
+
+	/**
+	 * Run the callable on the export pool with its own EntityManager and
+	 * transaction.
+	 *
+	 * @param callable
+	 * @return
+	 * @throws RejectedExecutionException
+	 *             if the pool and its queue are full
+	 */
+	public static <T> Future<T> submit(final Callable<T> callable) throws RejectedExecutionException
+	{
+		return INSTANCE.getExecutor().submit(EntityManagerProvider.setThreadLocalEntityManager(callable));
+	}
+
+	/**
+	 * Run the writer of a download that is being streamed to the browser on
+	 * the download pool with its own EntityManager and transaction.
+	 *
+	 * The download pool doesn't queue, so the writer has a thread of its own
+	 * by the time this returns and a request thread waiting for the writer's output (while
+	 * holding the session lock) won't be kept waiting behind other downloads.
+	 *
+	 * @param writer
+	 * @return
+	 * @throws RejectedExecutionException
+	 *             if the maximum number of downloads are already running
+	 */
+	public static Future<?> stream(final Runnable writer) throws RejectedExecutionException
+	{
+		return INSTANCE.getDownloadExecutor().submit(EntityManagerProvider.setThreadLocalEntityManager(writer));
+	}
+
+	/**
+	 * Run the export in the background showing a WorkingDialog while it runs
+	 * and a download link once it completes. Must be called from the UI
+	 * thread.
+	 *
+	 * @param fileName
+	 *            - the name of the download, without the extension
+	 * @param type
+	 * @param job
+	 */
+	public static void export(final String fileName, final AttachmentType type, final ExportJob job)
+	{
+		final UI ui = UI.getCurrent();
+		Preconditions.checkNotNull(ui, "export must be called from the UI thread");
+
+		// without push the progress won't be seen unless we poll
+		final int previousPollInterval = ui.getPollInterval();
+		final boolean poll = ui.getPushConfiguration().getPushMode() == PushMode.DISABLED;
+
+		final AtomicReference<Future<File>> future = new AtomicReference<>();
+		final WorkingDialog dialog = new WorkingDialog("Exporting " + fileName, "Waiting for the export to start...",
+				new CancelListener()
+				{
+					@Override
+					public void cancel()
+					{
+						final Future<File> running = future.get();
+						if (running != null)
+						{
+							running.cancel(true);
+						}
+						// a job cancelled while queued never runs, so it can't
+						// restore the poll interval itself
+						if (poll)
+						{
+							ui.setPollInterval(previousPollInterval);
+						}
+					}
+				});
+
+		final Callable<File> callable = new Callable<File>()
+		{
+			@Override
+			public File call() throws Exception
+			{
+				final File file = File.createTempFile("export", type.getFileExtension());
+				try
+				{
+					try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file)))
+					{
+						job.export(out, dialog);
+					}
+					logger.info("Export of {} complete, {} bytes", fileName, file.length());
+					dialog.complete(0);
+					try
+					{
+						showDownloadWindow(ui, file, fileName, type);
+					}
+					catch (UIDetachedException e)
+					{
+						// the user has gone, no one is going to download it
+						deleteFile(file);
+						throw e;
+					}
+					return file;
+				}
+				catch (Exception e)
+				{
+					deleteFile(file);
+					dialog.exception(e);
+					if (future.get() == null || !future.get().isCancelled())
+					{
+						logger.error(e, e);
+						showError(ui, "The export of " + fileName + " failed. " + e.getMessage());
+					}
+					throw e;
+				}
+				finally
+				{
+					if (poll)
+					{
+						ui.access(new Runnable()
+						{
+							@Override
+							public void run()
+							{
+								ui.setPollInterval(previousPollInterval);
+							}
+						});
+					}
+				}
+			}
+		};
+
+		try
+		{
+			future.set(submit(callable));
+		}
+		catch (RejectedExecutionException e)
+		{
+			logger.warn("Export of {} rejected, the export queue is full", fileName);
+			Notification.show("There are too many exports running, please try again in a few minutes.",
+					Type.WARNING_MESSAGE);
+			return;
+		}
+
+		if (poll)
+		{
+			ui.setPollInterval(1000);
+		}
+		ui.addWindow(dialog);
+	}
+
+	private static void showError(final UI ui, final String message)
+	{
+		ui.access(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				Notification.show(message, Type.ERROR_MESSAGE);
+			}
+		});
+	}
+
+	private static void showDownloadWindow(final UI ui, final File file, final String fileName,
+			final AttachmentType type)
+	{
+		ui.access(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				final Window window = new Window();
+				window.setCaption("Download " + fileName);
+				window.center();
+				window.setHeight("100");
+				window.setWidth("300");
+				window.setResizable(false);
+				window.setModal(true);
+
+				final HorizontalLayout layout = new HorizontalLayout();
+				layout.setSizeFull();
+				layout.setMargin(true);
+				window.setContent(layout);
+
+				final Button downloadButton = new Button("Download");
+
+				@SuppressWarnings("serial")
+				StreamSource source = new StreamSource()
+				{
+					@Override
+					public InputStream getStream()
+					{
+						try
+						{
+							// the file is deleted once it has been sent
+							return new FilterInputStream(new FileInputStream(file))
+							{
+								@Override
+								public void close() throws IOException
+								{
+									try
+									{
+										super.close();
+									}
+									finally
+									{
+										deleteFile(file);
+										closeLater(ui, window);
+									}
+								}
+							};
+						}
+						catch (FileNotFoundException e)
+						{
+							logger.error(e, e);
+							return null;
+						}
+					}
+				};
+
+				StreamResource resource = new StreamResource(source, fileName + type.getFileExtension());
+				resource.setMIMEType(type.getMIMETypeString());
+
+				FileDownloader fileDownloader = new FileDownloader(resource);
+				fileDownloader.setOverrideContentType(false);
+				fileDownloader.extend(downloadButton);
+
+				layout.addComponent(downloadButton);
+				layout.setComponentAlignment(downloadButton, Alignment.MIDDLE_CENTER);
+
+				// detached when the window is closed or the session expires
+				// without the file being downloaded
+				window.addDetachListener(new DetachListener()
+				{
+					private static final long serialVersionUID = 1L;
+
+					@Override
+					public void detach(DetachEvent event)
+					{
+						deleteFile(file);
+					}
+				});
+
+				ui.addWindow(window);
+			}
+		});
+	}
+
+	private static void closeLater(final UI ui, final Window window)
+	{
+		ui.access(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				window.close();
+			}
+		});
+	}
+
+	private static void deleteFile(final File file)
+	{
+		if (file.exists() && !file.delete())
+		{
+			logger.warn("Unable to delete {}", file);
+		}
+	}
+}
@@ -3,42 +3,86 @@ package au.com.vaadinutils.util;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.io.PipedInputStream;
-import java.io.PipedOutputStream;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.apache.logging.log4j.Logger;
 
 import com.google.common.base.Preconditions;
 
 /**
- * encapsulates the process of joining together a PipedInputStream and a
- * PipedOutputStream, without leaving either of them hanging
- * 
+ * encapsulates the process of joining together an InputStream and an
+ * OutputStream running on separate threads, without leaving either of them
+ * hanging
+ *
+ * The bytes are passed between the threads via a fixed size ring buffer, array
+ * writes are copied into the buffer in bulk and the reader is handed as much
+ * as is available, so a writer that writes through a BufferedWriter or
+ * similar will result in the reader seeing multi-kilobyte reads. When the
+ * buffer is full the writer blocks until the reader catches up, the time spent
+ * blocked is available via getWriterBlockedTime().
+ *
+ * The writer should call writerFinished() from a finally block when it is
+ * done, so that if it fails without closing the stream the reader gets an
+ * IOException rather than waiting forever. The writer's thread can't be used
+ * to tell as a pooled thread lives on after the writer has finished.
+ *
  * @author rsutton
  *
  */
 public class PipedOutputStreamWrapper extends OutputStream
 {
+	public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
 
 	final CountDownLatch readLatch = new CountDownLatch(1);
 	final CountDownLatch writeLatch = new CountDownLatch(1);
 
-	final private PipedInputStream inputStream = new PipedInputStream();
-	volatile private PipedOutputStream outputStream;
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition notEmpty = lock.newCondition();
+	private final Condition notFull = lock.newCondition();
+
+	private final byte[] buffer;
+	private int readPosition = 0;
+	private int buffered = 0;
+	private boolean writerClosed = false;
+	private boolean writerFinished = false;
+	private boolean readerClosed = false;
+
+	private long bytesWritten = 0;
+	private long writerBlockedNanos = 0;
+
+	final private InputStream inputStream = new RingBufferInputStream();
 
 	volatile Long writerThreadId;
 
 	Logger logger = org.apache.logging.log4j.LogManager.getLogger();
 
+	public PipedOutputStreamWrapper()
+	{
+		this(DEFAULT_BUFFER_SIZE);
+	}
+
+	/**
+	 *
+	 * @param bufferSize
+	 *            - the size of the ring buffer, when the buffer is full the
+	 *            writer will block until the reader consumes some of it.
+	 */
+	public PipedOutputStreamWrapper(int bufferSize)
+	{
+		Preconditions.checkArgument(bufferSize > 0, "bufferSize must be greater than zero");
+		buffer = new byte[bufferSize];
+	}
+
 	/**
 	 * do not call this method until outputIsReady returns true
-	 * 
+	 *
 	 * the thread that calls this method must NOT be the same thread that is
 	 * writing to the OutputStream
-	 * 
+	 *
 	 * @return
 	 * @throws InterruptedException
 	 */
@@ -61,14 +105,12 @@ public class PipedOutputStreamWrapper extends OutputStream
 
 	volatile boolean writerStarted = false;
 
-	@Override
-	public void write(int b) throws IOException
+	private void startWriter() throws IOException
 	{
 		if (!writerStarted)
 		{
 			writerStarted = true;
 			writerThreadId = Thread.currentThread().getId();
-			outputStream = new PipedOutputStream(inputStream);
 			writeLatch.countDown();
 			try
 			{
@@ -79,21 +121,150 @@ public class PipedOutputStreamWrapper extends OutputStream
 			}
 			catch (InterruptedException e)
 			{
-				outputStream.close();
+				close();
 				inputStream.close();
 				throw new RuntimeException(e);
 			}
 		}
+	}
+
+	@Override
+	public void write(int b) throws IOException
+	{
+		startWriter();
+
+		lock.lock();
+		try
+		{
+			awaitSpace();
+			buffer[(readPosition + buffered) % buffer.length] = (byte) b;
+			buffered++;
+			bytesWritten++;
+			notEmpty.signal();
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException
+	{
+		Preconditions.checkPositionIndexes(off, off + len, b.length);
+		startWriter();
 
-		outputStream.write(b);
+		lock.lock();
+		try
+		{
+			while (len > 0)
+			{
+				awaitSpace();
+
+				final int writePosition = (readPosition + buffered) % buffer.length;
+				// copy as much as will fit before either the reader's position
+				// or the end of the array, whichever comes first.
+				final int chunk = Math.min(len, Math.min(buffer.length - buffered, buffer.length - writePosition));
+				System.arraycopy(b, off, buffer, writePosition, chunk);
+				buffered += chunk;
+				bytesWritten += chunk;
+				off += chunk;
+				len -= chunk;
+				notEmpty.signal();
+			}
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
 
+	/**
+	 * must be called while holding the lock
+	 */
+	private void awaitSpace() throws IOException
+	{
+		if (buffered == buffer.length && !readerClosed)
+		{
+			final long blockedAt = System.nanoTime();
+			try
+			{
+				while (buffered == buffer.length && !readerClosed)
+				{
+					notFull.await();
+				}
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted while waiting for the reader", e);
+			}
+			finally
+			{
+				writerBlockedNanos += System.nanoTime() - blockedAt;
+			}
+		}
+		if (readerClosed)
+		{
+			throw new IOException("Pipe closed by reader");
+		}
+		if (writerClosed)
+		{
+			throw new IOException("Pipe closed");
+		}
 	}
 
+	/**
+	 * Closing the writer signals end of stream to the reader once the reader
+	 * has consumed the remaining buffered bytes.
+	 *
+	 * If nothing has been written the reader will be handed an empty stream
+	 * rather than being left waiting for the writer.
+	 */
+	@Override
 	public void close() throws IOException
 	{
-		if (outputStream != null)
+		if (!writerStarted)
+		{
+			writerStarted = true;
+			writerThreadId = Thread.currentThread().getId();
+			writeLatch.countDown();
+		}
+
+		lock.lock();
+		try
+		{
+			if (!writerClosed)
+			{
+				writerClosed = true;
+				notEmpty.signalAll();
+				logger.debug("Pipe closed, {} bytes written, writer blocked for {}ms", bytesWritten,
+						TimeUnit.NANOSECONDS.toMillis(writerBlockedNanos));
+			}
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Tells the reader the writer has finished, call this from the writer's
+	 * finally block. If the stream hasn't been closed the reader gets an
+	 * IOException once it has read what was written, rather than waiting for
+	 * more.
+	 */
+	public void writerFinished()
+	{
+		lock.lock();
+		try
+		{
+			writerFinished = true;
+			notEmpty.signalAll();
+		}
+		finally
 		{
-			outputStream.close();
+			lock.unlock();
 		}
 	}
 
@@ -106,4 +277,175 @@ public class PipedOutputStreamWrapper extends OutputStream
 
 	}
 
+	/**
+	 *
+	 * @return the number of bytes currently written but not yet read
+	 */
+	public int getBytesBuffered()
+	{
+		lock.lock();
+		try
+		{
+			return buffered;
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+
+	/**
+	 *
+	 * @return the total number of bytes written so far
+	 */
+	public long getBytesWritten()
+	{
+		lock.lock();
+		try
+		{
+			return bytesWritten;
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+
+	/**
+	 *
+	 * @param unit
+	 * @return the total time the writer has spent blocked waiting for the
+	 *         reader to make space in the buffer.
+	 */
+	public long getWriterBlockedTime(TimeUnit unit)
+	{
+		lock.lock();
+		try
+		{
+			return unit.convert(writerBlockedNanos, TimeUnit.NANOSECONDS);
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+
+	public int getBufferSize()
+	{
+		return buffer.length;
+	}
+
+	private class RingBufferInputStream extends InputStream
+	{
+		@Override
+		public int read() throws IOException
+		{
+			lock.lock();
+			try
+			{
+				if (!awaitData())
+				{
+					return -1;
+				}
+				final int b = buffer[readPosition] & 0xff;
+				readPosition = (readPosition + 1) % buffer.length;
+				buffered--;
+				notFull.signal();
+				return b;
+			}
+			finally
+			{
+				lock.unlock();
+			}
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException
+		{
+			Preconditions.checkPositionIndexes(off, off + len, b.length);
+			if (len == 0)
+			{
+				return 0;
+			}
+
+			lock.lock();
+			try
+			{
+				if (!awaitData())
+				{
+					return -1;
+				}
+				int read = 0;
+				// at most two copies, one up to the end of the array and one
+				// from the start if the data wraps around
+				while (buffered > 0 && read < len)
+				{
+					final int chunk = Math.min(len - read, Math.min(buffered, buffer.length - readPosition));
+					System.arraycopy(buffer, readPosition, b, off + read, chunk);
+					readPosition = (readPosition + chunk) % buffer.length;
+					buffered -= chunk;
+					read += chunk;
+				}
+				notFull.signal();
+				return read;
+			}
+			finally
+			{
+				lock.unlock();
+			}
+		}
+
+		@Override
+		public int available() throws IOException
+		{
+			return getBytesBuffered();
+		}
+
+		@Override
+		public void close() throws IOException
+		{
+			lock.lock();
+			try
+			{
+				readerClosed = true;
+				notFull.signalAll();
+			}
+			finally
+			{
+				lock.unlock();
+			}
+		}
+
+		/**
+		 * must be called while holding the lock
+		 *
+		 * @return false if the writer has closed and there is nothing left to
+		 *         read.
+		 */
+		private boolean awaitData() throws IOException
+		{
+			if (readerClosed)
+			{
+				throw new IOException("Pipe closed");
+			}
+			try
+			{
+				while (buffered == 0 && !writerClosed)
+				{
+					if (writerFinished)
+					{
+						// the writer failed without closing the stream
+						throw new IOException("Write end dead");
+					}
+					notEmpty.await();
+				}
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted while waiting for the writer", e);
+			}
+			return buffered > 0;
+		}
+	}
 }
@@ -0,0 +1,122 @@
+package au.com.vaadinutils.util;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import com.google.common.base.Preconditions;
+
+import au.com.vaadinutils.dao.BackgroundExecutor;
+
+/**
+ * Runs a ProgressBarTask on the shared BackgroundExecutor pool, in place of
+ * ProgressBarWorker which starts a thread of its own.
+ *
+ * start(), join(), isAlive() and interrupt() match ProgressBarWorker's so
+ * callers only need to change the class, they reflect the state of the task
+ * on the pool.
+ */
+public class PooledProgressBarWorker<T>
+{
+	private final ProgressBarTask<T> task;
+	private FutureTask<Void> future;
+
+	public PooledProgressBarWorker(ProgressBarTask<T> task)
+	{
+		this.task = task;
+	}
+
+	/**
+	 * @throws RejectedExecutionException
+	 *             if the BackgroundExecutor is full
+	 */
+	public synchronized void start() throws RejectedExecutionException
+	{
+		Preconditions.checkState(future == null, "The worker has already been started");
+		final FutureTask<Void> started = new FutureTask<>(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				task.run();
+			}
+		}, null);
+		BackgroundExecutor.execute(started);
+		future = started;
+	}
+
+	/**
+	 * runs the task on the calling thread
+	 */
+	public void run()
+	{
+		task.run();
+	}
+
+	/**
+	 * @return true if the task has been started and hasn't yet finished
+	 */
+	public synchronized boolean isAlive()
+	{
+		return future != null && !future.isDone();
+	}
+
+	/**
+	 * interrupts the task if it is running, or stops it from running if it is
+	 * still waiting for a thread
+	 */
+	public synchronized void interrupt()
+	{
+		if (future != null)
+		{
+			future.cancel(true);
+		}
+	}
+
+	/**
+	 * waits for the task to finish, returns immediately if it hasn't been
+	 * started
+	 */
+	public void join() throws InterruptedException
+	{
+		final FutureTask<Void> started = getFuture();
+		if (started != null)
+		{
+			try
+			{
+				started.get();
+			}
+			catch (ExecutionException | CancellationException e)
+			{
+				// as for Thread.join(), how the task ended is not our concern
+			}
+		}
+	}
+
+	/**
+	 * waits at most millis for the task to finish
+	 */
+	public void join(long millis) throws InterruptedException
+	{
+		final FutureTask<Void> started = getFuture();
+		if (started != null)
+		{
+			try
+			{
+				started.get(millis, TimeUnit.MILLISECONDS);
+			}
+			catch (ExecutionException | CancellationException | TimeoutException e)
+			{
+				// as for Thread.join(millis), the caller checks isAlive()
+			}
+		}
+	}
+
+	private synchronized FutureTask<Void> getFuture()
+	{
+		return future;
+	}
+}
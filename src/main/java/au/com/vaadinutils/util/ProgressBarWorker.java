@@ -1,6 +1,15 @@
 package au.com.vaadinutils.util;
 
-
+/**
+ * Runs a ProgressBarTask on a new thread.
+ *
+ * @deprecated use PooledProgressBarWorker, which has the same start(), join(),
+ *             isAlive() and interrupt() methods but runs the task on the
+ *             shared BackgroundExecutor rather than creating a thread for
+ *             each task. This class will stop extending Thread in a future
+ *             release.
+ */
+@Deprecated
 public class ProgressBarWorker<T> extends Thread
 {
 	private ProgressBarTask<T> task;
@@ -16,4 +25,4 @@ public class ProgressBarWorker<T> extends Thread
 	{
 		task.run();
 	}
-}
\ No newline at end of file
+}
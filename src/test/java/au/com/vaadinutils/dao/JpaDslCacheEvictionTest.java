@@ -0,0 +1,70 @@
+package au.com.vaadinutils.dao;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import javax.persistence.EntityManager;
+import javax.persistence.criteria.Expression;
+import javax.persistence.metamodel.SingularAttribute;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class JpaDslCacheEvictionTest
+{
+	private final JpaStubs jpa = new JpaStubs();
+
+	@After
+	public void clearEntityManager()
+	{
+		EntityManagerProvider.setCurrentEntityManager(null);
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void testOnlyMatchingIdsAreEvicted()
+	{
+		// the database's answer to the id select, the rows matching the
+		// builder's conditions
+		jpa.answer("isId", true)
+				.answer("getSingularAttributes", Collections.singleton(jpa.stub(SingularAttribute.class)))
+				.answer("getResultList", Arrays.asList(1L, 2L)).answer("executeUpdate", 2);
+		EntityManagerProvider.setCurrentEntityManager(jpa.stub(EntityManager.class));
+
+		final JpaDslBuilder<Object> builder = new JpaDslBuilder<>(Object.class);
+		builder.where(builder.eq(jpa.stub(Expression.class), 5L));
+		builder.limit(10);
+		builder.startPosition(20);
+		final Object criteria = builder.criteria;
+
+		assertEquals(2, builder.delete());
+
+		// the ids were selected through the builder's own criteria, with its
+		// conditions, limit and start position
+		final List<JpaStubs.Call> queries = jpa.calls("createQuery");
+		assertSame(criteria, queries.get(0).args[0]);
+		boolean where = false;
+		for (JpaStubs.Call call : jpa.calls("where"))
+		{
+			where |= call.target == criteria && call.args[0] == builder.predicate;
+		}
+		assertTrue("the id select has the builder's conditions", where);
+		assertEquals(10, jpa.calls("setMaxResults").get(0).args[0]);
+		assertEquals(20, jpa.calls("setFirstResult").get(0).args[0]);
+
+		// just those ids were evicted, not the whole class
+		final List<JpaStubs.Call> evictions = jpa.calls("evict");
+		assertEquals(2, evictions.size());
+		assertArrayEquals(new Object[]
+		{ Object.class, 1L }, evictions.get(0).args);
+		assertArrayEquals(new Object[]
+		{ Object.class, 2L }, evictions.get(1).args);
+		assertTrue(jpa.calls("evictAll").isEmpty());
+	}
+}
@@ -0,0 +1,57 @@
+package au.com.vaadinutils.dao;
+
+import static org.junit.Assert.assertNull;
+
+import javax.persistence.EntityManager;
+import javax.persistence.criteria.Expression;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class JpaDslQueryShapeTest
+{
+	private final JpaStubs jpa = new JpaStubs();
+
+	@After
+	public void clearEntityManager()
+	{
+		EntityManagerProvider.setCurrentEntityManager(null);
+	}
+
+	@Test
+	public void testSubqueriesAreNotCached()
+	{
+		EntityManagerProvider.setCurrentEntityManager(jpa.stub(EntityManager.class));
+
+		// the builders only differ by a value inside their subqueries, which
+		// isn't part of EclipseLink's description of the subquery
+		final JpaDslBuilder<Object> first = existsWhere(1L);
+		final JpaDslBuilder<Object> second = existsWhere(2L);
+
+		assertNull(first.getQueryShape());
+		assertNull(second.getQueryShape());
+	}
+
+	@Test
+	public void testSubquerySelectsAreNotCached()
+	{
+		EntityManagerProvider.setCurrentEntityManager(jpa.stub(EntityManager.class));
+
+		final JpaDslBuilder<Object> builder = new JpaDslBuilder<>(Object.class);
+		builder.cacheable();
+		builder.subquerySelect(Object.class);
+
+		assertNull(builder.getQueryShape());
+	}
+
+	@SuppressWarnings("unchecked")
+	private JpaDslBuilder<Object> existsWhere(final Long value)
+	{
+		final JpaDslBuilder<Object> builder = new JpaDslBuilder<>(Object.class);
+		builder.cacheable();
+		final JpaDslSubqueryBuilder<Object, Object> subquery = builder.subQuery(Object.class);
+		subquery.where(subquery.eq(jpa.stub(Expression.class), value));
+		builder.where(builder.exists(subquery));
+		return builder;
+	}
+}
@@ -0,0 +1,107 @@
+package au.com.vaadinutils.dao;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Do nothing implementations of the JPA interfaces, so the builders can be
+ * tested without a database. Methods that return an interface return a
+ * further stub unless they have been given an answer, every call is recorded.
+ */
+class JpaStubs implements InvocationHandler
+{
+	static class Call
+	{
+		final Object target;
+		final Object[] args;
+
+		Call(final Object target, final Object[] args)
+		{
+			this.target = target;
+			this.args = args == null ? new Object[0] : args;
+		}
+	}
+
+	private final Map<String, Object> answers = new HashMap<>();
+	private final Map<String, List<Call>> calls = new HashMap<>();
+
+	/**
+	 * every call to a method with this name returns value
+	 */
+	JpaStubs answer(final String method, final Object value)
+	{
+		answers.put(method, value);
+		return this;
+	}
+
+	/**
+	 * @return the calls to methods with this name, in the order they were
+	 *         made
+	 */
+	List<Call> calls(final String method)
+	{
+		final List<Call> methodCalls = calls.get(method);
+		return methodCalls == null ? new ArrayList<Call>() : methodCalls;
+	}
+
+	@SuppressWarnings("unchecked")
+	<T> T stub(final Class<T> type)
+	{
+		return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]
+		{ type }, this);
+	}
+
+	@Override
+	public Object invoke(Object proxy, Method method, Object[] args)
+	{
+		final String name = method.getName();
+		if (name.equals("equals") && method.getParameterTypes().length == 1)
+		{
+			return proxy == args[0];
+		}
+		if (name.equals("hashCode") && method.getParameterTypes().length == 0)
+		{
+			return System.identityHashCode(proxy);
+		}
+		if (name.equals("toString") && method.getParameterTypes().length == 0)
+		{
+			return "stub " + proxy.getClass().getInterfaces()[0].getSimpleName();
+		}
+
+		List<Call> methodCalls = calls.get(name);
+		if (methodCalls == null)
+		{
+			methodCalls = new ArrayList<>();
+			calls.put(name, methodCalls);
+		}
+		methodCalls.add(new Call(proxy, args));
+
+		if (answers.containsKey(name))
+		{
+			return answers.get(name);
+		}
+		final Class<?> returnType = method.getReturnType();
+		if (returnType.isInterface())
+		{
+			return stub(returnType);
+		}
+		if (returnType == boolean.class)
+		{
+			return false;
+		}
+		if (returnType == int.class)
+		{
+			return 0;
+		}
+		if (returnType == long.class)
+		{
+			return 0L;
+		}
+		return null;
+	}
+}
@@ -0,0 +1,83 @@
+package au.com.vaadinutils.errorHandling;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class ErrorFingerprinterTest
+{
+
+	@Test
+	public void testSameTraceSameFingerprint()
+	{
+		final Throwable first = error(new IllegalStateException("first"), "Test.method", 10);
+		final Throwable second = error(new IllegalStateException("second"), "Test.method", 10);
+
+		// the message isn't part of the fingerprint
+		assertEquals(ErrorFingerprinter.fingerprint(first), ErrorFingerprinter.fingerprint(second));
+	}
+
+	@Test
+	public void testStableBetweenRuns()
+	{
+		// built from String.hashCode() which is specified, so this value
+		// mustn't change between runs or JVMs
+		final Throwable error = error(new IllegalStateException(), "Test.method", 10);
+		assertEquals(0x367429e81f6bc50cL, ErrorFingerprinter.fingerprint(error));
+	}
+
+	@Test
+	public void testDifferentTraceDifferentFingerprint()
+	{
+		final long fingerprint = ErrorFingerprinter
+				.fingerprint(error(new IllegalStateException(), "Test.method", 10));
+
+		assertNotEquals(fingerprint,
+				ErrorFingerprinter.fingerprint(error(new IllegalArgumentException(), "Test.method", 10)));
+		assertNotEquals(fingerprint,
+				ErrorFingerprinter.fingerprint(error(new IllegalStateException(), "Test.method", 11)));
+		assertNotEquals(fingerprint,
+				ErrorFingerprinter.fingerprint(error(new IllegalStateException(), "Test.other", 10)));
+		assertNotEquals(fingerprint,
+				ErrorFingerprinter.fingerprint(error(new IllegalStateException(), "Other.method", 10)));
+	}
+
+	@Test
+	public void testRenderedOnce()
+	{
+		final AtomicInteger renders = new AtomicInteger();
+		final ErrorFingerprinter.Renderer renderer = new ErrorFingerprinter.Renderer()
+		{
+			@Override
+			public ErrorFingerprinter.Occurrence render(Throwable cause)
+			{
+				renders.incrementAndGet();
+				return new ErrorFingerprinter.Occurrence("id", cause.getMessage());
+			}
+		};
+
+		final ErrorFingerprinter.Occurrence first = ErrorFingerprinter
+				.lookup(error(new IllegalStateException("first"), "RenderedOnce.method", 1), renderer);
+		final ErrorFingerprinter.Occurrence second = ErrorFingerprinter
+				.lookup(error(new IllegalStateException("second"), "RenderedOnce.method", 1), renderer);
+
+		assertSame(first, second);
+		assertEquals(1, renders.get());
+		assertEquals(2, first.getCount());
+		// the first occurrence's trace is kept
+		assertEquals("first", first.trace);
+	}
+
+	private Throwable error(final Throwable error, final String method, final int line)
+	{
+		final int dot = method.lastIndexOf('.');
+		error.setStackTrace(new StackTraceElement[]
+		{ new StackTraceElement(method.substring(0, dot), method.substring(dot + 1), "Test.java", line),
+				new StackTraceElement("Caller", "call", "Caller.java", 42) });
+		return error;
+	}
+}
@@ -1,5 +1,6 @@
 package au.com.vaadinutils.errorHandling;
 
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 import java.util.concurrent.CountDownLatch;
@@ -93,6 +94,90 @@ public class ErrorRateControllerTest
 
 	}
 
+	@Test
+	public void testBurstThenEmpty()
+	{
+		// one permit an hour, so nothing refills during the test
+		ErrorRateController errorRateController = new ErrorRateController(BURST, 1, TimeUnit.HOURS);
+		for (int i = 0; i < BURST; i++)
+		{
+			assertTrue("permit " + i, errorRateController.acquire());
+		}
+		assertFalse(errorRateController.acquire());
+	}
+
+	@Test
+	public void testTryAcquireAllOrNothing()
+	{
+		ErrorRateController errorRateController = new ErrorRateController(5, 1, TimeUnit.HOURS);
+		assertFalse(errorRateController.tryAcquire(6));
+		assertTrue(errorRateController.tryAcquire(3));
+		assertFalse(errorRateController.tryAcquire(3));
+		assertTrue(errorRateController.tryAcquire(2));
+		assertFalse(errorRateController.acquire());
+	}
+
+	@Test
+	public void testKeysAreSeparate()
+	{
+		ErrorRateController errorRateController = new ErrorRateController(2, 1, TimeUnit.HOURS);
+		assertTrue(errorRateController.acquire("a"));
+		assertTrue(errorRateController.acquire("a"));
+		assertFalse(errorRateController.acquire("a"));
+
+		assertTrue(errorRateController.acquire("b"));
+		assertTrue(errorRateController.tryAcquire(2));
+	}
+
+	@Test
+	public void testSharedRefusalKeepsKeyPermit()
+	{
+		ErrorRateController perKey = new ErrorRateController(1, 1, TimeUnit.HOURS);
+		ErrorRateController shared = new ErrorRateController(1, 1, TimeUnit.HOURS);
+		assertTrue(shared.acquire());
+
+		assertFalse(perKey.acquire("a", shared));
+		// the key's permit was given back
+		assertTrue(perKey.acquire("a"));
+		assertFalse(perKey.acquire("a"));
+	}
+
+	@Test
+	public void testKeyRefusalKeepsSharedPermit()
+	{
+		ErrorRateController perKey = new ErrorRateController(1, 1, TimeUnit.HOURS);
+		ErrorRateController shared = new ErrorRateController(2, 1, TimeUnit.HOURS);
+		assertTrue(perKey.acquire("a", shared));
+		assertFalse(perKey.acquire("a", shared));
+		assertFalse(perKey.acquire("a", shared));
+
+		assertTrue(perKey.acquire("b", shared));
+		assertFalse(shared.acquire());
+	}
+
+	@Test
+	public void testLeastRecentlyUsedKeysAreDropped()
+	{
+		ErrorRateController errorRateController = new ErrorRateController(1, 1, TimeUnit.HOURS);
+		assertTrue(errorRateController.acquire("first"));
+		assertTrue(errorRateController.acquire("recent"));
+
+		// eviction is per segment of the cache, so add plenty of keys to be
+		// sure first is pushed out
+		for (int i = 0; i < ErrorRateController.MAX_KEYS * 2; i++)
+		{
+			errorRateController.acquire(i);
+			// keep recent in use
+			assertFalse(errorRateController.acquire("recent"));
+		}
+		assertTrue("keys " + errorRateController.getKeyCount(),
+				errorRateController.getKeyCount() <= ErrorRateController.MAX_KEYS);
+
+		// first was dropped so it starts with a full bucket again
+		assertTrue(errorRateController.acquire("first"));
+		assertFalse(errorRateController.acquire("recent"));
+	}
+
 	// Logger logger = org.apache.logging.log4j.LogManager.getLogger();
 
 	private long expected(Stopwatch timer)
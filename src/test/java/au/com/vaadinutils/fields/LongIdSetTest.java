@@ -0,0 +1,106 @@
+package au.com.vaadinutils.fields;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.junit.Test;
+
+public class LongIdSetTest
+{
+
+	@Test
+	public void testZero()
+	{
+		LongIdSet ids = new LongIdSet();
+		assertFalse(ids.contains(0));
+		assertTrue(ids.add(0));
+		assertFalse(ids.add(0));
+		assertTrue(ids.contains(0));
+		assertEquals(1, ids.size());
+
+		ids.add(5);
+		assertArrayEquals(new long[]
+		{ 0, 5 }, ids.toSortedArray());
+
+		assertTrue(ids.remove(0));
+		assertFalse(ids.remove(0));
+		assertFalse(ids.contains(0));
+		assertTrue(ids.contains(5));
+		assertEquals(1, ids.size());
+	}
+
+	@Test
+	public void testRemoveKeepsProbeRuns()
+	{
+		// fill the table well past its initial capacity so ids share probe
+		// runs, removing from the middle of a run must not hide the ids after
+		// it
+		LongIdSet ids = new LongIdSet();
+		for (long id = 1; id <= 1000; id++)
+		{
+			ids.add(id);
+		}
+		for (long id = 1; id <= 1000; id += 2)
+		{
+			assertTrue(ids.remove(id));
+		}
+		assertEquals(500, ids.size());
+		for (long id = 1; id <= 1000; id++)
+		{
+			assertEquals("id " + id, id % 2 == 0, ids.contains(id));
+		}
+	}
+
+	@Test
+	public void testMatchesHashSet()
+	{
+		Random random = new Random(42);
+		LongIdSet ids = new LongIdSet();
+		Set<Long> expected = new HashSet<>();
+		for (int i = 0; i < 20000; i++)
+		{
+			// a small range so adds and removes keep hitting the same ids
+			long id = random.nextInt(200) - 20;
+			if (random.nextBoolean())
+			{
+				assertEquals(expected.add(id), ids.add(id));
+			}
+			else
+			{
+				assertEquals(expected.remove(id), ids.remove(id));
+			}
+			assertEquals(expected.size(), ids.size());
+		}
+		for (long id = -20; id < 180; id++)
+		{
+			assertEquals("id " + id, expected.contains(id), ids.contains(id));
+		}
+
+		long[] sorted = new long[expected.size()];
+		int i = 0;
+		for (Long id : new TreeSet<>(expected))
+		{
+			sorted[i++] = id;
+		}
+		assertArrayEquals(sorted, ids.toSortedArray());
+	}
+
+	@Test
+	public void testClear()
+	{
+		LongIdSet ids = new LongIdSet();
+		ids.add(0);
+		ids.add(7);
+		ids.clear();
+		assertTrue(ids.isEmpty());
+		assertFalse(ids.contains(0));
+		assertFalse(ids.contains(7));
+	}
+}
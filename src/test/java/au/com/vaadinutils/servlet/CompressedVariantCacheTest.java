@@ -0,0 +1,142 @@
+package au.com.vaadinutils.servlet;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class CompressedVariantCacheTest
+{
+	private static final int FILE_SIZE = 4096;
+
+	private final List<File> files = new ArrayList<>();
+
+	@After
+	public void deleteFiles()
+	{
+		for (File file : files)
+		{
+			file.delete();
+		}
+	}
+
+	@Test
+	public void testGzip() throws IOException
+	{
+		final CompressedVariantCache cache = new CompressedVariantCache(1024 * 1024);
+		final byte[] content = text(1, 16);
+		final StaticResource resource = resource(content);
+
+		final byte[] compressed = cache.gzip(resource);
+		assertNotNull(compressed);
+		assertTrue(compressed.length < content.length);
+		assertArrayEquals(content, gunzip(compressed));
+
+		// compressed once
+		assertSame(compressed, cache.gzip(resource));
+		assertEquals(1, cache.getFileCount());
+		assertEquals(compressed.length, cache.getTotalBytes());
+	}
+
+	@Test
+	public void testNotWorthCompressing() throws IOException
+	{
+		final CompressedVariantCache cache = new CompressedVariantCache(1024 * 1024);
+		final byte[] content = new byte[FILE_SIZE];
+		new Random(1).nextBytes(content);
+
+		assertNull(cache.gzip(resource(content)));
+		// remembered without counting against the size
+		assertEquals(1, cache.getFileCount());
+		assertEquals(0, cache.getTotalBytes());
+	}
+
+	@Test
+	public void testTooBig() throws IOException
+	{
+		final CompressedVariantCache cache = new CompressedVariantCache(FILE_SIZE - 1);
+		assertNull(cache.gzip(resource(text(1, 16))));
+		assertEquals(0, cache.getFileCount());
+	}
+
+	@Test
+	public void testLeastRecentlyUsedIsDropped() throws IOException
+	{
+		final StaticResource a = resource(text(1, 16));
+		final StaticResource b = resource(text(2, 16));
+		final StaticResource c = resource(text(3, 16));
+
+		// room for two of the compressed files but not three
+		final long size = new CompressedVariantCache(FILE_SIZE).gzip(a).length;
+		final CompressedVariantCache cache = new CompressedVariantCache(Math.max(FILE_SIZE, size * 5 / 2));
+
+		final byte[] compressedA = cache.gzip(a);
+		final byte[] compressedB = cache.gzip(b);
+		assertEquals(2, cache.getFileCount());
+		assertEquals(compressedA.length + compressedB.length, cache.getTotalBytes());
+
+		// a is now more recently used than b
+		assertSame(compressedA, cache.gzip(a));
+
+		final byte[] compressedC = cache.gzip(c);
+		assertEquals(2, cache.getFileCount());
+		assertEquals(compressedA.length + compressedC.length, cache.getTotalBytes());
+		assertSame(compressedA, cache.gzip(a));
+		assertSame(compressedC, cache.gzip(c));
+
+		// b was dropped so it is compressed again
+		assertNotSame(compressedB, cache.gzip(b));
+	}
+
+	// random text from the first letters of the alphabet, fewer letters
+	// compress better
+	private byte[] text(final long seed, final int letters)
+	{
+		final Random random = new Random(seed);
+		final byte[] content = new byte[FILE_SIZE];
+		for (int i = 0; i < content.length; i++)
+		{
+			content[i] = (byte) ('a' + random.nextInt(letters));
+		}
+		return content;
+	}
+
+	private StaticResource resource(final byte[] content) throws IOException
+	{
+		final File file = File.createTempFile("compressedVariant", ".txt");
+		files.add(file);
+		Files.write(file.toPath(), content);
+		return StaticResource.stat(file, "text/plain");
+	}
+
+	private byte[] gunzip(final byte[] compressed) throws IOException
+	{
+		final ByteArrayOutputStream content = new ByteArrayOutputStream();
+		try (GZIPInputStream gzip = new GZIPInputStream(new ByteArrayInputStream(compressed)))
+		{
+			final byte[] buffer = new byte[1024];
+			int read;
+			while ((read = gzip.read(buffer)) > 0)
+			{
+				content.write(buffer, 0, read);
+			}
+		}
+		return content.toByteArray();
+	}
+}
@@ -0,0 +1,124 @@
+package au.com.vaadinutils.servlet;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class HotFileCacheTest
+{
+	private final List<File> files = new ArrayList<>();
+
+	@After
+	public void deleteFiles()
+	{
+		for (File file : files)
+		{
+			file.delete();
+		}
+	}
+
+	@Test
+	public void testHitsAndMisses() throws IOException
+	{
+		final HotFileCache cache = new HotFileCache(1000, 100);
+		final byte[] content = content(100, 1);
+		final StaticResource resource = resource(content);
+
+		assertArrayEquals(content, bytes(cache.get(resource)));
+		assertArrayEquals(content, bytes(cache.get(resource)));
+		assertEquals(1, cache.getMisses());
+		assertEquals(1, cache.getHits());
+		assertEquals(1, cache.getFileCount());
+		assertEquals(100, cache.getTotalBytes());
+	}
+
+	@Test
+	public void testTooBig() throws IOException
+	{
+		final HotFileCache cache = new HotFileCache(1000, 100);
+		assertNull(cache.get(resource(content(101, 1))));
+		assertEquals(0, cache.getFileCount());
+		assertEquals(0, cache.getTotalBytes());
+	}
+
+	@Test
+	public void testChangedFileIsReplaced() throws IOException
+	{
+		final HotFileCache cache = new HotFileCache(1000, 100);
+		final StaticResource resource = resource(content(100, 1));
+		cache.get(resource);
+
+		// a new length gives a new etag
+		final byte[] changed = content(60, 2);
+		Files.write(resource.file.toPath(), changed);
+		final StaticResource current = StaticResource.stat(resource.file, "text/plain");
+
+		assertArrayEquals(changed, bytes(cache.get(current)));
+		assertEquals(2, cache.getMisses());
+		assertEquals(1, cache.getFileCount());
+		assertEquals(60, cache.getTotalBytes());
+	}
+
+	@Test
+	public void testLeastRecentlyUsedIsDropped() throws IOException
+	{
+		final HotFileCache cache = new HotFileCache(250, 100);
+		final StaticResource a = resource(content(100, 1));
+		final StaticResource b = resource(content(100, 2));
+		final StaticResource c = resource(content(100, 3));
+
+		cache.get(a);
+		cache.get(b);
+		// a is now more recently used than b
+		cache.get(a);
+		assertEquals(200, cache.getTotalBytes());
+
+		cache.get(c);
+		assertEquals(1, cache.getEvictions());
+		assertEquals(2, cache.getFileCount());
+		assertEquals(200, cache.getTotalBytes());
+
+		// a and c are still cached, b has to be read again
+		final long misses = cache.getMisses();
+		cache.get(a);
+		cache.get(c);
+		assertEquals(misses, cache.getMisses());
+		cache.get(b);
+		assertEquals(misses + 1, cache.getMisses());
+	}
+
+	private byte[] content(final int length, final int fill)
+	{
+		final byte[] content = new byte[length];
+		for (int i = 0; i < length; i++)
+		{
+			content[i] = (byte) (fill + i);
+		}
+		return content;
+	}
+
+	private byte[] bytes(final ByteBuffer buffer)
+	{
+		final byte[] bytes = new byte[buffer.remaining()];
+		buffer.get(bytes);
+		return bytes;
+	}
+
+	private StaticResource resource(final byte[] content) throws IOException
+	{
+		final File file = File.createTempFile("hotFile", ".txt");
+		files.add(file);
+		Files.write(file.toPath(), content);
+		return StaticResource.stat(file, "text/plain");
+	}
+}
@@ -0,0 +1,90 @@
+package au.com.vaadinutils.servlet;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import org.junit.Test;
+
+public class StaticContentServletTest
+{
+
+	@Test
+	public void testRange()
+	{
+		assertArrayEquals(new long[]
+		{ 0, 99 }, StaticContentServlet.parseRange("bytes=0-99", 1000));
+		assertArrayEquals(new long[]
+		{ 500, 999 }, StaticContentServlet.parseRange("bytes=500-", 1000));
+		assertArrayEquals(new long[]
+		{ 900, 999 }, StaticContentServlet.parseRange("bytes=-100", 1000));
+
+		// the end is clamped to the file, a suffix longer than the file is the
+		// whole file
+		assertArrayEquals(new long[]
+		{ 990, 999 }, StaticContentServlet.parseRange("bytes=990-2000", 1000));
+		assertArrayEquals(new long[]
+		{ 0, 999 }, StaticContentServlet.parseRange("bytes=-2000", 1000));
+	}
+
+	@Test
+	public void testUnsatisfiableRange()
+	{
+		assertSame(StaticContentServlet.UNSATISFIABLE, StaticContentServlet.parseRange("bytes=1000-", 1000));
+		assertSame(StaticContentServlet.UNSATISFIABLE, StaticContentServlet.parseRange("bytes=50-10", 1000));
+		assertSame(StaticContentServlet.UNSATISFIABLE, StaticContentServlet.parseRange("bytes=-0", 1000));
+	}
+
+	@Test
+	public void testRangeSendsWholeFile()
+	{
+		assertNull(StaticContentServlet.parseRange("items=0-99", 1000));
+		assertNull(StaticContentServlet.parseRange("bytes=0-9,20-29", 1000));
+		assertNull(StaticContentServlet.parseRange("bytes=10", 1000));
+		assertNull(StaticContentServlet.parseRange("bytes=a-b", 1000));
+	}
+
+	@Test
+	public void testIfRange() throws IOException
+	{
+		final File file = File.createTempFile("staticContent", ".txt");
+		try
+		{
+			Files.write(file.toPath(), new byte[100]);
+			final StaticResource resource = StaticResource.stat(file, "text/plain");
+
+			assertTrue(StaticContentServlet.isIfRangeCurrent(resource.etag, -1, resource));
+			assertTrue(StaticContentServlet.isIfRangeCurrent("date", resource.lastModified, resource));
+
+			assertFalse(StaticContentServlet.isIfRangeCurrent("W/" + resource.etag, -1, resource));
+			assertFalse(StaticContentServlet.isIfRangeCurrent("\"other\"", -1, resource));
+			assertFalse(StaticContentServlet.isIfRangeCurrent("date", resource.lastModified - 1000, resource));
+		}
+		finally
+		{
+			file.delete();
+		}
+	}
+
+	@Test
+	public void testAcceptEncoding()
+	{
+		assertTrue(StaticContentServlet.accepts("gzip, deflate, br", "gzip"));
+		assertTrue(StaticContentServlet.accepts("gzip, deflate, br", "br"));
+		assertTrue(StaticContentServlet.accepts("GZIP;q=0.5", "gzip"));
+
+		assertFalse(StaticContentServlet.accepts(null, "gzip"));
+		assertFalse(StaticContentServlet.accepts("deflate", "gzip"));
+		assertFalse(StaticContentServlet.accepts("gzip;q=0, br", "gzip"));
+		assertFalse(StaticContentServlet.accepts("gzip;q=0.0", "gzip"));
+		assertFalse(StaticContentServlet.accepts("gzip;q=x", "gzip"));
+		// a prefix of another encoding doesn't count
+		assertFalse(StaticContentServlet.accepts("x-gzip", "gzip"));
+	}
+}
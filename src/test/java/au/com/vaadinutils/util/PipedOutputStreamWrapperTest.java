@@ -0,0 +1,181 @@
+package au.com.vaadinutils.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+public class PipedOutputStreamWrapperTest
+{
+	// an exception thrown on the writer or reader thread
+	private final AtomicReference<Exception> failure = new AtomicReference<>();
+
+	@Test
+	public void testBulkTransferThroughSmallBuffer() throws Exception
+	{
+		final byte[] data = new byte[100000];
+		new Random(1).nextBytes(data);
+
+		// deliberately small so the buffer wraps and the writer blocks
+		final PipedOutputStreamWrapper pipe = new PipedOutputStreamWrapper(1000);
+		Thread writer = new Thread(new Runnable()
+		{
+
+			@Override
+			public void run()
+			{
+				try
+				{
+					pipe.write(data[0]);
+					int offset = 1;
+					while (offset < data.length)
+					{
+						int len = Math.min(777, data.length - offset);
+						pipe.write(data, offset, len);
+						offset += len;
+					}
+					pipe.close();
+				}
+				catch (IOException e)
+				{
+					failure.set(e);
+				}
+				finally
+				{
+					pipe.writerFinished();
+				}
+			}
+		});
+		writer.start();
+
+		InputStream in = pipe.getInputStream();
+		ByteArrayOutputStream received = new ByteArrayOutputStream();
+		byte[] buf = new byte[4096];
+		int read;
+		while ((read = in.read(buf)) != -1)
+		{
+			assertTrue(read <= pipe.getBufferSize());
+			received.write(buf, 0, read);
+			Thread.sleep(0, 1);
+		}
+		writer.join();
+
+		assertNull(failure.get());
+		assertArrayEquals(data, received.toByteArray());
+		assertEquals(data.length, pipe.getBytesWritten());
+		assertEquals(0, pipe.getBytesBuffered());
+		assertTrue(pipe.getWriterBlockedTime(TimeUnit.NANOSECONDS) > 0);
+	}
+
+	@Test
+	public void testCloseWithoutWrite() throws Exception
+	{
+		final PipedOutputStreamWrapper pipe = new PipedOutputStreamWrapper();
+		Thread writer = new Thread(new Runnable()
+		{
+
+			@Override
+			public void run()
+			{
+				try
+				{
+					pipe.close();
+				}
+				catch (IOException e)
+				{
+					failure.set(e);
+				}
+			}
+		});
+		writer.start();
+
+		assertEquals(-1, pipe.getInputStream().read());
+		writer.join();
+		assertNull(failure.get());
+	}
+
+	@Test
+	public void testWriterFinishedWithoutClosing() throws Exception
+	{
+		final PipedOutputStreamWrapper pipe = new PipedOutputStreamWrapper();
+		Thread writer = new Thread(new Runnable()
+		{
+
+			@Override
+			public void run()
+			{
+				try
+				{
+					pipe.write(1);
+				}
+				catch (IOException e)
+				{
+					failure.set(e);
+				}
+				finally
+				{
+					// fails without closing the stream
+					pipe.writerFinished();
+				}
+			}
+		});
+		writer.start();
+
+		final InputStream in = pipe.getInputStream();
+		assertEquals(1, in.read());
+		try
+		{
+			in.read();
+			fail("the reader should be told the writer has gone");
+		}
+		catch (IOException e)
+		{
+			assertEquals("Write end dead", e.getMessage());
+		}
+		writer.join();
+		assertNull(failure.get());
+	}
+
+	@Test(expected = IOException.class)
+	public void testWriteAfterReaderClosed() throws Exception
+	{
+		final PipedOutputStreamWrapper pipe = new PipedOutputStreamWrapper(10);
+		Thread reader = new Thread(new Runnable()
+		{
+
+			@Override
+			public void run()
+			{
+				try
+				{
+					pipe.getInputStream().close();
+				}
+				catch (InterruptedException | IOException e)
+				{
+					failure.set(e);
+				}
+			}
+		});
+		reader.start();
+
+		try
+		{
+			pipe.write(new byte[100]);
+		}
+		finally
+		{
+			reader.join();
+			assertNull(failure.get());
+		}
+	}
+}